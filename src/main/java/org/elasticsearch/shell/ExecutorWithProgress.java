@@ -33,6 +33,8 @@ public class ExecutorWithProgress<Result> {
 
     final Console<PrintStream> console;
     final ActionCallback<Result> actionCallback;
+    final ProgressStatus progressStatus;
+    private volatile ProgressThread progressThread;
 
     /**
      * Creates a new instance of the <code>ExecutorWithProgress</code> class given the console where
@@ -41,8 +43,20 @@ public class ExecutorWithProgress<Result> {
      * @param actionCallback the action to execute
      */
     public ExecutorWithProgress(Console<PrintStream> console, ActionCallback<Result> actionCallback) {
+        this(console, actionCallback, null);
+    }
+
+    /**
+     * Creates a new instance of the <code>ExecutorWithProgress</code> class that, instead of printing dots,
+     * keeps updating a single console line with the status provided
+     * @param console the console
+     * @param actionCallback the action to execute
+     * @param progressStatus provides the status to display, null to print dots
+     */
+    public ExecutorWithProgress(Console<PrintStream> console, ActionCallback<Result> actionCallback, ProgressStatus progressStatus) {
         this.console = console;
         this.actionCallback = actionCallback;
+        this.progressStatus = progressStatus;
     }
 
     /**
@@ -52,12 +66,26 @@ public class ExecutorWithProgress<Result> {
      */
     public Result execute() {
         ProgressThread progressThread = new ProgressThread();
+        this.progressThread = progressThread;
         progressThread.start();
         try {
             return actionCallback.execute();
         } finally {
             progressThread.end();
-            console.println();
+        }
+    }
+
+    /**
+     * Prints a message on its own line without garbling the progressive feedback, which gets displayed again below it.
+     * Can be called from any thread, also before or after the execution of the action.
+     * @param message the message to print
+     */
+    public void println(String message) {
+        ProgressThread progressThread = this.progressThread;
+        if (progressThread == null) {
+            console.println(message);
+        } else {
+            progressThread.println(message);
         }
     }
 
@@ -66,22 +94,105 @@ public class ExecutorWithProgress<Result> {
      */
     private class ProgressThread extends Thread {
         private volatile boolean stopped = false;
+        private int lastStatusLength;
+        //whether the current console line holds the feedback, which needs to be cleared or terminated
+        private boolean feedbackPrinted;
+        private boolean ended;
+        //not the thread itself, which is used as monitor by join
+        private final Object lock = new Object();
 
         public void end() {
             this.stopped = true;
+            if (progressStatus != null) {
+                //waits for the last update so that the final status doesn't get overwritten
+                interrupt();
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (lock) {
+                if (progressStatus != null) {
+                    printStatus();
+                }
+                console.println();
+                ended = true;
+            }
+        }
+
+        void println(String message) {
+            synchronized (lock) {
+                if (ended) {
+                    console.println(message);
+                    return;
+                }
+                if (feedbackPrinted) {
+                    if (progressStatus == null) {
+                        //the dots printed so far are left on their own line
+                        console.println();
+                    } else {
+                        StringBuilder line = new StringBuilder("\r");
+                        for (int i = 0; i < lastStatusLength; i++) {
+                            line.append(' ');
+                        }
+                        console.print(line.append('\r').toString());
+                    }
+                }
+                console.println(message);
+                feedbackPrinted = false;
+                lastStatusLength = 0;
+                if (progressStatus != null && !stopped) {
+                    printStatus();
+                }
+            }
         }
 
         @Override
         public void run() {
             while(!stopped) {
-                console.print(".");
+                if (progressStatus == null) {
+                    printDot();
+                } else {
+                    printStatus();
+                }
                 try {
-                    Thread.sleep(500);
+                    Thread.sleep(progressStatus == null ? 500 : 1000);
                 } catch (InterruptedException e) {
 
                 }
             }
         }
+
+        private void printDot() {
+            synchronized (lock) {
+                console.print(".");
+                console.out().flush();
+                feedbackPrinted = true;
+            }
+        }
+
+        private void printStatus() {
+            synchronized (lock) {
+                String status = progressStatus.status();
+                StringBuilder line = new StringBuilder("\r").append(status);
+                //clears what's left of a longer previous status
+                for (int i = status.length(); i < lastStatusLength; i++) {
+                    line.append(' ');
+                }
+                lastStatusLength = status.length();
+                console.print(line.toString());
+                console.out().flush();
+                feedbackPrinted = true;
+            }
+        }
+    }
+
+    /**
+     * Provides the status of the action being executed, displayed on a single console line that gets updated
+     */
+    public interface ProgressStatus {
+        String status();
     }
 
     /**
@@ -0,0 +1,491 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Bulk processor that adapts the number of actions per bulk and the number of concurrent bulks to how the cluster copes
+ * with the load (AIMD). The latency per action is compared with the best one observed so far: while it stays flat the bulks
+ * grow, first in size and then in number of concurrent requests; as soon as it rises, or some items get rejected,
+ * both are halved.
+ * Adding a request blocks while the maximum number of concurrent bulks are in flight, and {@link #close()} waits for them.
+ * In shard aware mode the requests are buffered per target shard, computed on the client side, so that each bulk
+ * goes to a single shard and doesn't need to wait for the slowest of all the shards involved.
+ * With a flush interval, the requests that have been buffered for longer than that are sent even if the bulk is not full,
+ * which is the default in shard aware mode since the buffers of the shards that receive few requests might take long to fill up.
+ */
+public class AdaptiveBulkProcessor implements RetryingBulkListener.BulkExecutor, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBulkProcessor.class);
+
+    private static final double LATENCY_TOLERANCE = 1.5;
+    private static final TimeValue SHARD_AWARE_FLUSH_INTERVAL = TimeValue.timeValueSeconds(1);
+
+    private final Client client;
+    private final BulkProcessor.Listener listener;
+    private final int minBulkActions;
+    private final int maxBulkActions;
+    private final int maxConcurrentRequests;
+    private final long maxBulkSize;
+    private final ShardRouter shardRouter;
+
+    //pending requests grouped by target shard, or all together under the null key when not shard aware
+    private final Map<String, BulkRequest> bulkRequests = new HashMap<String, BulkRequest>();
+    //when the pending requests started being buffered, per key
+    private final Map<String, Long> bufferedSince = new HashMap<String, Long>();
+    private final ScheduledExecutorService flushScheduler;
+    private int bulkActions;
+    private int concurrentRequests = 1;
+    private int inFlight;
+    private long executionIdGenerator;
+    private double baselineLatency;
+    private boolean closed;
+
+    private AdaptiveBulkProcessor(Builder builder, BulkProcessor.Listener listener) {
+        this.client = builder.client;
+        this.listener = listener;
+        this.minBulkActions = builder.minBulkActions;
+        this.maxBulkActions = Math.max(builder.minBulkActions, builder.maxBulkActions);
+        this.maxConcurrentRequests = Math.max(1, builder.maxConcurrentRequests);
+        this.maxBulkSize = builder.maxBulkSize.bytes();
+        this.bulkActions = Math.min(maxBulkActions, Math.max(minBulkActions, builder.initialBulkActions));
+        this.shardRouter = builder.shardAware ? new ShardRouter(builder.client) : null;
+        TimeValue flushInterval = builder.flushInterval != null ? builder.flushInterval
+                : builder.shardAware ? SHARD_AWARE_FLUSH_INTERVAL : null;
+        this.flushScheduler = flushInterval == null ? null : scheduleFlush(flushInterval.millis());
+    }
+
+    private ScheduledExecutorService scheduleFlush(final long intervalMillis) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "adaptive-bulk-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushOlderThan(intervalMillis);
+                } catch (Exception e) {
+                    logger.error("Error while flushing the pending bulk requests", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    public static Builder builder(Client client, BulkProcessor.Listener listener) {
+        return new Builder(client, listener);
+    }
+
+    public AdaptiveBulkProcessor add(IndexRequest request) {
+        String key = bulkKey(request.index(), request.id(), request.routing());
+        BulkRequest toExecute;
+        synchronized (this) {
+            ensureOpen();
+            BulkRequest bulkRequest = bulkRequest(key);
+            bulkRequest.add(request);
+            toExecute = bulkToExecute(key, bulkRequest);
+        }
+        execute(toExecute);
+        return this;
+    }
+
+    public AdaptiveBulkProcessor add(DeleteRequest request) {
+        String key = bulkKey(request.index(), request.id(), request.routing());
+        BulkRequest toExecute;
+        synchronized (this) {
+            ensureOpen();
+            BulkRequest bulkRequest = bulkRequest(key);
+            bulkRequest.add(request);
+            toExecute = bulkToExecute(key, bulkRequest);
+        }
+        execute(toExecute);
+        return this;
+    }
+
+    /**
+     * Sends the pending requests without waiting for the bulk to be full
+     */
+    public void flush() {
+        List<BulkRequest> toExecute;
+        synchronized (this) {
+            toExecute = new ArrayList<BulkRequest>(bulkRequests.values());
+            bulkRequests.clear();
+            bufferedSince.clear();
+        }
+        for (BulkRequest bulkRequest : toExecute) {
+            execute(bulkRequest);
+        }
+    }
+
+    /**
+     * Sends the pending requests that have been buffered for at least the given time
+     */
+    private void flushOlderThan(long millis) {
+        List<BulkRequest> toExecute = new ArrayList<BulkRequest>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<String, Long>> iterator = bufferedSince.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (now - entry.getValue() >= millis) {
+                    toExecute.add(bulkRequests.remove(entry.getKey()));
+                    iterator.remove();
+                }
+            }
+        }
+        for (BulkRequest bulkRequest : toExecute) {
+            execute(bulkRequest);
+        }
+    }
+
+    /**
+     * Sends the pending requests and waits for all the bulks in flight to complete
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (flushScheduler != null) {
+                //lets a running flush complete, so that its bulks are accounted as in flight
+                flushScheduler.shutdown();
+                flushScheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            flush();
+            synchronized (this) {
+                closed = true;
+                while (inFlight > 0) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the bulks in flight", e);
+        }
+    }
+
+    /**
+     * @return the current number of actions that trigger the execution of a bulk
+     */
+    public synchronized int bulkActions() {
+        return bulkActions;
+    }
+
+    /**
+     * @return the current number of bulks allowed to be in flight at the same time
+     */
+    public synchronized int concurrentRequests() {
+        return concurrentRequests;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("bulk processor already closed");
+        }
+    }
+
+    /**
+     * @return the key that groups the requests within the same bulk: their target shard when shard aware, null otherwise
+     */
+    private String bulkKey(String index, String id, String routing) {
+        if (shardRouter == null) {
+            return null;
+        }
+        int shard = shardRouter.shard(index, id, routing);
+        //requests whose shard is unknown go all together in the same bulks
+        return shard == ShardRouter.UNKNOWN_SHARD ? null : index + "#" + shard;
+    }
+
+    private BulkRequest bulkRequest(String key) {
+        BulkRequest bulkRequest = bulkRequests.get(key);
+        if (bulkRequest == null) {
+            bulkRequest = new BulkRequest();
+            bulkRequests.put(key, bulkRequest);
+            bufferedSince.put(key, System.currentTimeMillis());
+        }
+        return bulkRequest;
+    }
+
+    private BulkRequest bulkToExecute(String key, BulkRequest bulkRequest) {
+        if (bulkRequest.numberOfActions() >= bulkActions
+                || (maxBulkSize > 0 && bulkRequest.estimatedSizeInBytes() >= maxBulkSize)) {
+            bufferedSince.remove(key);
+            return bulkRequests.remove(key);
+        }
+        return null;
+    }
+
+    private void execute(final BulkRequest request) {
+        if (request == null) {
+            return;
+        }
+        final long executionId;
+        try {
+            executionId = acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.afterBulk(-1, request, e);
+            return;
+        }
+
+        listener.beforeBulk(executionId, request);
+        send(request, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                listener.afterBulk(executionId, request, response);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                listener.afterBulk(executionId, request, e);
+            }
+        });
+    }
+
+    /**
+     * Sends the given bulk as soon as the concurrency limit allows it, adapting to its response like for any other bulk.
+     * Used to send the retries, which are accepted even after the processor has been closed.
+     */
+    @Override
+    public void execute(BulkRequest request, ActionListener<BulkResponse> actionListener) {
+        try {
+            acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            actionListener.onFailure(e);
+            return;
+        }
+        send(request, actionListener);
+    }
+
+    /**
+     * Waits till a bulk can be sent without exceeding the current concurrency limit
+     * @return the execution id of the bulk
+     */
+    private synchronized long acquire() throws InterruptedException {
+        while (inFlight >= concurrentRequests) {
+            wait();
+        }
+        inFlight++;
+        return ++executionIdGenerator;
+    }
+
+    private void send(final BulkRequest request, final ActionListener<BulkResponse> actionListener) {
+        final long startTime = System.nanoTime();
+        try {
+            client.bulk(request, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    try {
+                        adapt(System.nanoTime() - startTime, request.numberOfActions(), rejectedItems(response));
+                        actionListener.onResponse(response);
+                    } finally {
+                        bulkCompleted();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    try {
+                        decrease();
+                        actionListener.onFailure(e);
+                    } finally {
+                        bulkCompleted();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            try {
+                decrease();
+                actionListener.onFailure(e);
+            } finally {
+                bulkCompleted();
+            }
+        }
+    }
+
+    private static int rejectedItems(BulkResponse response) {
+        int rejected = 0;
+        if (response.hasFailures()) {
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed() && item.getFailureMessage() != null
+                        && item.getFailureMessage().contains("RejectedExecution")) {
+                    rejected++;
+                }
+            }
+        }
+        return rejected;
+    }
+
+    private synchronized void adapt(long tookNanos, int actions, int rejected) {
+        if (rejected > 0) {
+            decrease();
+            return;
+        }
+        double latency = (double) tookNanos / Math.max(1, actions);
+        if (baselineLatency == 0 || latency < baselineLatency) {
+            baselineLatency = latency;
+            increase();
+        } else if (latency > baselineLatency * LATENCY_TOLERANCE) {
+            //moves the baseline towards the latency observed, otherwise a single lucky bulk would keep us small forever
+            baselineLatency = (baselineLatency + latency) / 2;
+            decrease();
+        } else {
+            increase();
+        }
+    }
+
+    private synchronized void increase() {
+        if (bulkActions < maxBulkActions) {
+            bulkActions = Math.min(maxBulkActions, bulkActions + minBulkActions);
+        } else if (concurrentRequests < maxConcurrentRequests) {
+            concurrentRequests++;
+            logger.debug("increased concurrent bulk requests to [{}]", concurrentRequests);
+            notifyAll();
+        }
+    }
+
+    private synchronized void decrease() {
+        bulkActions = Math.max(minBulkActions, bulkActions / 2);
+        concurrentRequests = Math.max(1, concurrentRequests / 2);
+        logger.debug("backing off to [{}] actions per bulk and [{}] concurrent bulk requests", bulkActions, concurrentRequests);
+    }
+
+    private synchronized void bulkCompleted() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public static class Builder {
+        private final Client client;
+        private final BulkProcessor.Listener listener;
+        private int initialBulkActions = 500;
+        private int minBulkActions = 100;
+        private int maxBulkActions = 5000;
+        private int maxConcurrentRequests = 4;
+        private ByteSizeValue maxBulkSize = new ByteSizeValue(5 * 1024 * 1024);
+        private boolean shardAware;
+        private TimeValue flushInterval;
+
+        Builder(Client client, BulkProcessor.Listener listener) {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        public Builder initialBulkActions(int initialBulkActions) {
+            this.initialBulkActions = initialBulkActions;
+            return this;
+        }
+
+        public int initialBulkActions() {
+            return initialBulkActions;
+        }
+
+        public Builder minBulkActions(int minBulkActions) {
+            this.minBulkActions = Math.max(1, minBulkActions);
+            return this;
+        }
+
+        public int minBulkActions() {
+            return minBulkActions;
+        }
+
+        public Builder maxBulkActions(int maxBulkActions) {
+            this.maxBulkActions = maxBulkActions;
+            return this;
+        }
+
+        public int maxBulkActions() {
+            return maxBulkActions;
+        }
+
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public int maxConcurrentRequests() {
+            return maxConcurrentRequests;
+        }
+
+        public Builder maxBulkSize(String maxBulkSize) {
+            this.maxBulkSize = ByteSizeValue.parseBytesSizeValue(maxBulkSize);
+            return this;
+        }
+
+        public ByteSizeValue maxBulkSize() {
+            return maxBulkSize;
+        }
+
+        public Builder shardAware(boolean shardAware) {
+            this.shardAware = shardAware;
+            return this;
+        }
+
+        public boolean shardAware() {
+            return shardAware;
+        }
+
+        public Builder flushInterval(String flushInterval) {
+            this.flushInterval = TimeValue.parseTimeValue(flushInterval, null);
+            return this;
+        }
+
+        public TimeValue flushInterval() {
+            return flushInterval;
+        }
+
+        public AdaptiveBulkProcessor build() {
+            return build(listener);
+        }
+
+        AdaptiveBulkProcessor build(BulkProcessor.Listener listener) {
+            return new AdaptiveBulkProcessor(this, listener);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
+import org.elasticsearch.action.admin.cluster.node.info.NodesInfoResponse;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Speeds up loading documents into existing indices by disabling refresh and replicas for the duration of the load.
+ * The original settings of every index are recorded before being changed and put back when closing, no matter
+ * whether the load succeeded. The indices can be optimized afterwards, which is worth doing once the load is completed.
+ * Indices that didn't have their own refresh interval get back the default one of the cluster, since the update settings api
+ * doesn't allow to remove a setting.
+ */
+public class FastLoad implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastLoad.class);
+
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    //used by elasticsearch when the refresh interval is set neither on the index nor on the nodes
+    private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+
+    private final Client client;
+    private final Map<String, Settings> originalSettings;
+
+    private FastLoad(Client client, Map<String, Settings> originalSettings) {
+        this.client = client;
+        this.originalSettings = originalSettings;
+    }
+
+    /**
+     * Records the settings of the given indices (missing ones are ignored) and applies the fast load settings to them.
+     * The refresh interval is recorded only if set on the index.
+     */
+    public static FastLoad start(Client client, String... indices) {
+        //an empty list of indices would select all of them
+        if (indices.length == 0) {
+            throw new IllegalArgumentException("No indices provided to fast load");
+        }
+        ClusterStateRequest request = new ClusterStateRequest().filterRoutingTable(true).filterNodes(true)
+                .filteredIndices(indices);
+        MetaData metaData = client.admin().cluster().state(request).actionGet().getState().metaData();
+        Map<String, Settings> originalSettings = new LinkedHashMap<String, Settings>();
+        for (IndexMetaData indexMetaData : metaData) {
+            ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder()
+                    .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, indexMetaData.numberOfReplicas());
+            String refreshInterval = indexMetaData.settings().get(REFRESH_INTERVAL);
+            if (refreshInterval != null) {
+                settings.put(REFRESH_INTERVAL, refreshInterval);
+            }
+            originalSettings.put(indexMetaData.index(), settings.build());
+        }
+
+        FastLoad fastLoad = new FastLoad(client, originalSettings);
+        if (!originalSettings.isEmpty()) {
+            client.admin().indices().prepareUpdateSettings(fastLoad.indices()).setSettings(ImmutableSettings.settingsBuilder()
+                    .put(REFRESH_INTERVAL, "-1").put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0))
+                    .execute().actionGet();
+        }
+        return fastLoad;
+    }
+
+    /**
+     * @return the indices the fast load settings have been applied to
+     */
+    public String[] indices() {
+        return originalSettings.keySet().toArray(new String[originalSettings.size()]);
+    }
+
+    /**
+     * Optimizes the indices down to the given maximum number of segments, waiting for the merges to complete
+     */
+    public void optimize(int maxNumSegments) {
+        if (originalSettings.isEmpty()) {
+            return;
+        }
+        client.admin().indices().prepareOptimize(indices()).setMaxNumSegments(maxNumSegments).setWaitForMerge(true)
+                .execute().actionGet();
+    }
+
+    /**
+     * Puts back the original settings of every index, even if some of them fail
+     */
+    @Override
+    public void close() throws IOException {
+        List<String> failedIndices = new ArrayList<String>();
+        String defaultRefreshInterval = null;
+        for (Map.Entry<String, Settings> entry : originalSettings.entrySet()) {
+            try {
+                Settings settings = entry.getValue();
+                if (settings.get(REFRESH_INTERVAL) == null) {
+                    if (defaultRefreshInterval == null) {
+                        defaultRefreshInterval = defaultRefreshInterval();
+                    }
+                    settings = ImmutableSettings.settingsBuilder().put(settings)
+                            .put(REFRESH_INTERVAL, defaultRefreshInterval).build();
+                }
+                client.admin().indices().prepareUpdateSettings(entry.getKey()).setSettings(settings)
+                        .execute().actionGet();
+            } catch (Exception e) {
+                logger.error("Unable to restore the original settings " + entry.getValue().getAsMap()
+                        + " of index [" + entry.getKey() + "]", e);
+                failedIndices.add(entry.getKey());
+            }
+        }
+        if (!failedIndices.isEmpty()) {
+            throw new IOException("Unable to restore the original settings of indices " + failedIndices
+                    + ", see the log for the settings to be applied");
+        }
+    }
+
+    /**
+     * @return the refresh interval that applies to the indices that don't have their own, which can be set on the nodes
+     */
+    private String defaultRefreshInterval() {
+        NodesInfoResponse nodesInfo = client.admin().cluster().prepareNodesInfo().clear().setSettings(true)
+                .execute().actionGet();
+        for (NodeInfo nodeInfo : nodesInfo.getNodes()) {
+            String refreshInterval = nodeInfo.getSettings() == null ? null : nodeInfo.getSettings().get(REFRESH_INTERVAL);
+            if (refreshInterval != null) {
+                return refreshInterval;
+            }
+        }
+        return DEFAULT_REFRESH_INTERVAL;
+    }
+}
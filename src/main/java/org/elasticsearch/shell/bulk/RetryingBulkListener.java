@@ -0,0 +1,481 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Bulk listener that retries the items that failed for temporary reasons (rejected because of a full queue, timeouts),
+ * with exponential backoff. The items that keep failing, or fail for any other reason, are written to an optional
+ * dead letter file using the bulk api format, so that they can be sent again once the problem is fixed.
+ * Every bulk, including the retries, is forwarded to the delegate listener, while the requests that reached their final
+ * state are notified to the optional {@link CompletionListener}.
+ * The retries are sent through the {@link BulkExecutor} of the processor that owns the listener when set, so that they
+ * count towards its concurrency limits, otherwise straight to the client one at a time.
+ * A listener belongs to a single processor, the listeners built from the same {@link Builder} share the dead letter file.
+ */
+public class RetryingBulkListener implements BulkProcessor.Listener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryingBulkListener.class);
+
+    private final BulkProcessor.Listener delegate;
+    private final CompletionListener completionListener;
+    private final int maxRetries;
+    private final TimeValue initialBackoff;
+    private final DeadLetterFile deadLetterFile;
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Set<Long> inFlight = new HashSet<Long>();
+    private int pendingRetries;
+    //created on the first retry, each listener has its own since sending a retry can block till the processor has room
+    private ScheduledExecutorService scheduler;
+    private volatile BulkExecutor retryExecutor;
+
+    private RetryingBulkListener(Builder builder) {
+        this.delegate = builder.delegate;
+        this.completionListener = builder.completionListener;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.deadLetterFile = builder.deadLetterFile;
+        this.retryExecutor = new ClientBulkExecutor(builder.client);
+    }
+
+    public static Builder builder(Client client, BulkProcessor.Listener delegate) {
+        return new Builder(client, delegate);
+    }
+
+    /**
+     * Makes the retries go through the given executor, usually the processor that owns this listener
+     */
+    public void retryThrough(BulkExecutor retryExecutor) {
+        this.retryExecutor = retryExecutor;
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+        synchronized (this) {
+            inFlight.add(executionId);
+        }
+        delegate.beforeBulk(executionId, request);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        try {
+            delegate.afterBulk(executionId, request, response);
+            onResponse(requests(request), response, 0);
+        } finally {
+            bulkCompleted(executionId);
+        }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        try {
+            delegate.afterBulk(executionId, request, failure);
+            onFailure(requests(request), failure, 0);
+        } finally {
+            bulkCompleted(executionId);
+        }
+    }
+
+    /**
+     * @return the number of requests that succeeded, either straight away or after being retried
+     */
+    public long indexed() {
+        return indexed.get();
+    }
+
+    /**
+     * @return the number of times a request has been retried
+     */
+    public long retried() {
+        return retried.get();
+    }
+
+    /**
+     * @return the number of requests that failed permanently
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Waits for the bulks in flight and the retries they caused to complete
+     */
+    public synchronized void awaitRetries() throws IOException {
+        try {
+            while (!inFlight.isEmpty() || pendingRetries > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the bulk retries", e);
+        }
+    }
+
+    /**
+     * Waits for the scheduled retries to complete, stops the retry scheduler and closes the dead letter file
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            awaitRetries();
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+            if (deadLetterFile != null) {
+                deadLetterFile.close();
+            }
+        }
+    }
+
+    private void onResponse(List<ActionRequest<?>> requests, BulkResponse response, int attempt) {
+        List<ActionRequest<?>> completed = new ArrayList<ActionRequest<?>>(requests.size());
+        List<ActionRequest<?>> toRetry = new ArrayList<ActionRequest<?>>();
+        for (BulkItemResponse item : response.getItems()) {
+            ActionRequest<?> request = requests.get(item.getItemId());
+            if (!item.isFailed()) {
+                indexed.incrementAndGet();
+                completed.add(request);
+            } else if (attempt < maxRetries && isRetryable(item.getFailureMessage())) {
+                toRetry.add(request);
+            } else {
+                deadLetter(request, item.getFailureMessage());
+                completed.add(request);
+            }
+        }
+        completed(completed);
+        scheduleRetry(toRetry, attempt + 1);
+    }
+
+    private void onFailure(List<ActionRequest<?>> requests, Throwable failure, int attempt) {
+        if (attempt < maxRetries) {
+            scheduleRetry(requests, attempt + 1);
+            return;
+        }
+        for (ActionRequest<?> request : requests) {
+            deadLetter(request, failure.getMessage());
+        }
+        completed(requests);
+    }
+
+    private static List<ActionRequest<?>> requests(BulkRequest bulkRequest) {
+        List<ActionRequest<?>> requests = new ArrayList<ActionRequest<?>>(bulkRequest.numberOfActions());
+        for (ActionRequest<?> request : bulkRequest.requests()) {
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private static boolean isRetryable(String failureMessage) {
+        return failureMessage != null && (failureMessage.contains("EsRejectedExecutionException")
+                || failureMessage.contains("TimeoutException") || failureMessage.contains("UnavailableShardsException"));
+    }
+
+    private void completed(List<ActionRequest<?>> requests) {
+        if (completionListener != null && !requests.isEmpty()) {
+            completionListener.completed(Collections.unmodifiableList(requests));
+        }
+    }
+
+    private void scheduleRetry(final List<ActionRequest<?>> requests, final int attempt) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        retried.addAndGet(requests.size());
+        ScheduledExecutorService retryScheduler;
+        synchronized (this) {
+            pendingRetries++;
+            retryScheduler = scheduler();
+        }
+        long delay = initialBackoff.millis() << (attempt - 1);
+        logger.debug("retrying [{}] bulk items in [{}] ms, attempt [{}]", requests.size(), delay, attempt);
+        retryScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                final BulkRequest bulkRequest = new BulkRequest();
+                for (ActionRequest<?> request : requests) {
+                    if (request instanceof IndexRequest) {
+                        bulkRequest.add((IndexRequest) request);
+                    } else {
+                        bulkRequest.add((DeleteRequest) request);
+                    }
+                }
+                try {
+                    retryExecutor.execute(bulkRequest, new ActionListener<BulkResponse>() {
+                        @Override
+                        public void onResponse(BulkResponse response) {
+                            try {
+                                delegate.afterBulk(-attempt, bulkRequest, response);
+                                RetryingBulkListener.this.onResponse(requests, response, attempt);
+                            } finally {
+                                retryCompleted();
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            try {
+                                delegate.afterBulk(-attempt, bulkRequest, e);
+                                RetryingBulkListener.this.onFailure(requests, e, attempt);
+                            } finally {
+                                retryCompleted();
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    try {
+                        RetryingBulkListener.this.onFailure(requests, e, attempt);
+                    } finally {
+                        retryCompleted();
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "bulk-retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private synchronized void retryCompleted() {
+        pendingRetries--;
+        notifyAll();
+    }
+
+    private synchronized void bulkCompleted(long executionId) {
+        inFlight.remove(executionId);
+        notifyAll();
+    }
+
+    private void deadLetter(ActionRequest<?> request, String failureMessage) {
+        failed.incrementAndGet();
+        logger.error("bulk item failed permanently: {}", failureMessage);
+        if (deadLetterFile == null) {
+            return;
+        }
+        try {
+            XContentBuilder action = XContentFactory.jsonBuilder().startObject();
+            String source = null;
+            if (request instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) request;
+                action.startObject("index").field("_index", indexRequest.index()).field("_type", indexRequest.type())
+                        .field("_id", indexRequest.id());
+                source = XContentHelper.convertToJson(indexRequest.source(), false);
+            } else {
+                DeleteRequest deleteRequest = (DeleteRequest) request;
+                action.startObject("delete").field("_index", deleteRequest.index()).field("_type", deleteRequest.type())
+                        .field("_id", deleteRequest.id());
+            }
+            action.endObject().endObject();
+            deadLetterFile.write(action.string(), source);
+        } catch (IOException e) {
+            logger.error("Unable to write failed bulk item to dead letter file {}", deadLetterFile.file, e);
+        }
+    }
+
+    /**
+     * Dead letter file shared by the listeners built from the same builder, opened in append mode when needed so that
+     * a listener can keep writing to it after another one has been closed
+     */
+    private static class DeadLetterFile implements Closeable {
+
+        private final File file;
+        private OutputStream stream;
+
+        DeadLetterFile(File file) {
+            this.file = file;
+        }
+
+        synchronized void write(String action, String source) throws IOException {
+            if (stream == null) {
+                stream = new BufferedOutputStream(new FileOutputStream(file, true));
+            }
+            stream.write((action + "\n").getBytes("UTF-8"));
+            if (source != null) {
+                stream.write((source + "\n").getBytes("UTF-8"));
+            }
+            stream.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (stream != null) {
+                stream.close();
+                stream = null;
+            }
+        }
+    }
+
+    /**
+     * Sends a bulk request on behalf of the listener, used for the retries
+     */
+    public interface BulkExecutor {
+        void execute(BulkRequest request, ActionListener<BulkResponse> listener);
+    }
+
+    /**
+     * Sends the retries straight to the client, holding a single permit so that they add
+     * at most one bulk in flight on top of the ones sent by the processor
+     */
+    private static class ClientBulkExecutor implements BulkExecutor {
+
+        private final Client client;
+        private final Semaphore permit = new Semaphore(1);
+
+        ClientBulkExecutor(Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public void execute(BulkRequest request, final ActionListener<BulkResponse> listener) {
+            try {
+                permit.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                listener.onFailure(e);
+                return;
+            }
+            try {
+                client.bulk(request, new ActionListener<BulkResponse>() {
+                    @Override
+                    public void onResponse(BulkResponse response) {
+                        permit.release();
+                        listener.onResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        permit.release();
+                        listener.onFailure(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets notified when requests reach their final state, either succeeded or failed permanently
+     */
+    public interface CompletionListener {
+        void completed(List<ActionRequest<?>> requests);
+    }
+
+    public static class Builder {
+        private final Client client;
+        private final BulkProcessor.Listener delegate;
+        private CompletionListener completionListener;
+        private int maxRetries = 5;
+        private TimeValue initialBackoff = TimeValue.timeValueMillis(100);
+        private String deadLetterPath;
+        private DeadLetterFile deadLetterFile;
+
+        Builder(Client client, BulkProcessor.Listener delegate) {
+            this.client = client;
+            this.delegate = delegate;
+        }
+
+        public Builder completionListener(CompletionListener completionListener) {
+            this.completionListener = completionListener;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public int maxRetries() {
+            return maxRetries;
+        }
+
+        public Builder initialBackoff(String initialBackoff) {
+            this.initialBackoff = TimeValue.parseTimeValue(initialBackoff, null);
+            return this;
+        }
+
+        public TimeValue initialBackoff() {
+            return initialBackoff;
+        }
+
+        public Builder deadLetterPath(String deadLetterPath) {
+            this.deadLetterPath = deadLetterPath;
+            return this;
+        }
+
+        public String deadLetterPath() {
+            return deadLetterPath;
+        }
+
+        /**
+         * Builds a new listener, to be used by a single processor. Can be called multiple times, the listeners
+         * share the dead letter file.
+         */
+        public synchronized RetryingBulkListener build() {
+            if (deadLetterPath == null) {
+                deadLetterFile = null;
+            } else if (deadLetterFile == null || !deadLetterFile.file.getPath().equals(deadLetterPath)) {
+                deadLetterFile = new DeadLetterFile(new File(deadLetterPath));
+            }
+            return new RetryingBulkListener(this);
+        }
+    }
+}
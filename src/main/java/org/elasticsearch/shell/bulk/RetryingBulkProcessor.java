@@ -0,0 +1,278 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.shell.console.Console;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Bulk processor exposed to the shell: either an elasticsearch {@link BulkProcessor} or an {@link AdaptiveBulkProcessor},
+ * whose failed items are retried through a {@link RetryingBulkListener}.
+ * Closing it waits for the bulks in flight and their retries, then prints how many items got indexed,
+ * retried and failed, together with the dead letter file where the failed ones have been written (if any).
+ */
+public class RetryingBulkProcessor implements Closeable {
+
+    private static final BulkProcessor.Listener NOOP_BULK_LISTENER = new BulkProcessor.Listener() {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        }
+    };
+
+    private final BulkProcessor bulkProcessor;
+    private final AdaptiveBulkProcessor adaptiveBulkProcessor;
+    private final RetryingBulkListener bulkListener;
+    private final Console<PrintStream> console;
+    private final String deadLetterPath;
+    private boolean closed;
+
+    private RetryingBulkProcessor(BulkProcessor bulkProcessor, AdaptiveBulkProcessor adaptiveBulkProcessor,
+                                  RetryingBulkListener bulkListener, Console<PrintStream> console, String deadLetterPath) {
+        this.bulkProcessor = bulkProcessor;
+        this.adaptiveBulkProcessor = adaptiveBulkProcessor;
+        this.bulkListener = bulkListener;
+        this.console = console;
+        this.deadLetterPath = deadLetterPath;
+    }
+
+    public static Builder builder(Client client, Console<PrintStream> console) {
+        return new Builder(client, console);
+    }
+
+    public static AdaptiveBuilder adaptiveBuilder(Client client, Console<PrintStream> console) {
+        return new AdaptiveBuilder(client, console);
+    }
+
+    public RetryingBulkProcessor add(IndexRequest request) {
+        if (adaptiveBulkProcessor != null) {
+            adaptiveBulkProcessor.add(request);
+        } else {
+            bulkProcessor.add(request);
+        }
+        return this;
+    }
+
+    public RetryingBulkProcessor add(DeleteRequest request) {
+        if (adaptiveBulkProcessor != null) {
+            adaptiveBulkProcessor.add(request);
+        } else {
+            bulkProcessor.add(request);
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of items that succeeded, either straight away or after being retried
+     */
+    public long indexed() {
+        return bulkListener.indexed();
+    }
+
+    /**
+     * @return the number of times an item has been retried
+     */
+    public long retried() {
+        return bulkListener.retried();
+    }
+
+    /**
+     * @return the number of items that failed permanently
+     */
+    public long failed() {
+        return bulkListener.failed();
+    }
+
+    /**
+     * Sends the pending items, waits for the bulks in flight and their retries to complete and prints the summary
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (adaptiveBulkProcessor != null) {
+            adaptiveBulkProcessor.close();
+        } else {
+            bulkProcessor.close();
+        }
+        bulkListener.close();
+        console.println("Indexed " + indexed() + " items, " + retried() + " retries, " + failed() + " failed");
+        if (failed() > 0 && deadLetterPath != null) {
+            console.println("The failed items have been written to " + deadLetterPath);
+        }
+    }
+
+    public static class Builder {
+        private final Client client;
+        private final Console<PrintStream> console;
+        private final RetryingBulkListener.Builder listenerBuilder;
+        private String name;
+        private int concurrentRequests = 1;
+        private int bulkActions = 1000;
+        private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+        private TimeValue flushInterval;
+
+        Builder(Client client, Console<PrintStream> console) {
+            this.client = client;
+            this.console = console;
+            this.listenerBuilder = RetryingBulkListener.builder(client, NOOP_BULK_LISTENER);
+        }
+
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder setBulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        public Builder setBulkSize(ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        public Builder setFlushInterval(TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            listenerBuilder.maxRetries(maxRetries);
+            return this;
+        }
+
+        public Builder initialBackoff(String initialBackoff) {
+            listenerBuilder.initialBackoff(initialBackoff);
+            return this;
+        }
+
+        public Builder deadLetterPath(String deadLetterPath) {
+            listenerBuilder.deadLetterPath(deadLetterPath);
+            return this;
+        }
+
+        public RetryingBulkProcessor build() {
+            RetryingBulkListener bulkListener = listenerBuilder.build();
+            BulkProcessor bulkProcessor = BulkProcessor.builder(client, bulkListener).setName(name)
+                    .setConcurrentRequests(concurrentRequests).setBulkActions(bulkActions).setBulkSize(bulkSize)
+                    .setFlushInterval(flushInterval).build();
+            return new RetryingBulkProcessor(bulkProcessor, null, bulkListener, console, listenerBuilder.deadLetterPath());
+        }
+    }
+
+    public static class AdaptiveBuilder {
+        private final Console<PrintStream> console;
+        private final RetryingBulkListener.Builder listenerBuilder;
+        private final AdaptiveBulkProcessor.Builder processorBuilder;
+
+        AdaptiveBuilder(Client client, Console<PrintStream> console) {
+            this.console = console;
+            this.listenerBuilder = RetryingBulkListener.builder(client, NOOP_BULK_LISTENER);
+            //the listener is only known once built, the processor gets it at build time
+            this.processorBuilder = AdaptiveBulkProcessor.builder(client, null);
+        }
+
+        public AdaptiveBuilder initialBulkActions(int initialBulkActions) {
+            processorBuilder.initialBulkActions(initialBulkActions);
+            return this;
+        }
+
+        public AdaptiveBuilder minBulkActions(int minBulkActions) {
+            processorBuilder.minBulkActions(minBulkActions);
+            return this;
+        }
+
+        public AdaptiveBuilder maxBulkActions(int maxBulkActions) {
+            processorBuilder.maxBulkActions(maxBulkActions);
+            return this;
+        }
+
+        public AdaptiveBuilder maxConcurrentRequests(int maxConcurrentRequests) {
+            processorBuilder.maxConcurrentRequests(maxConcurrentRequests);
+            return this;
+        }
+
+        public AdaptiveBuilder maxBulkSize(String maxBulkSize) {
+            processorBuilder.maxBulkSize(maxBulkSize);
+            return this;
+        }
+
+        public AdaptiveBuilder shardAware(boolean shardAware) {
+            processorBuilder.shardAware(shardAware);
+            return this;
+        }
+
+        public AdaptiveBuilder flushInterval(String flushInterval) {
+            processorBuilder.flushInterval(flushInterval);
+            return this;
+        }
+
+        public AdaptiveBuilder maxRetries(int maxRetries) {
+            listenerBuilder.maxRetries(maxRetries);
+            return this;
+        }
+
+        public AdaptiveBuilder initialBackoff(String initialBackoff) {
+            listenerBuilder.initialBackoff(initialBackoff);
+            return this;
+        }
+
+        public AdaptiveBuilder deadLetterPath(String deadLetterPath) {
+            listenerBuilder.deadLetterPath(deadLetterPath);
+            return this;
+        }
+
+        public RetryingBulkProcessor build() {
+            RetryingBulkListener bulkListener = listenerBuilder.build();
+            AdaptiveBulkProcessor adaptiveBulkProcessor = processorBuilder.build(bulkListener);
+            bulkListener.retryThrough(adaptiveBulkProcessor);
+            return new RetryingBulkProcessor(null, adaptiveBulkProcessor, bulkListener, console, listenerBuilder.deadLetterPath());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.routing.operation.hash.HashFunction;
+import org.elasticsearch.cluster.routing.operation.hash.djb.DjbHashFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Computes on the client side the shard a document belongs to, the same way elasticsearch does with its default
+ * settings: the hash of the routing, or the id when there's no routing, modulo the number of shards of the index.
+ * The number of shards is read from the cluster state the first time an index is seen.
+ * A document whose shard cannot be determined (no id, missing index, alias with routing) gets {@link #UNKNOWN_SHARD}.
+ * Since the result is only used to group documents, a wrong guess makes a bulk less efficient but never incorrect.
+ */
+class ShardRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+    static final int UNKNOWN_SHARD = -1;
+
+    private final Client client;
+    private final HashFunction hashFunction = new DjbHashFunction();
+    private final ConcurrentMap<String, Integer> numberOfShards = new ConcurrentHashMap<String, Integer>();
+
+    ShardRouter(Client client) {
+        this.client = client;
+    }
+
+    int shard(String index, String id, String routing) {
+        String effectiveRouting = routing != null ? routing : id;
+        if (index == null || effectiveRouting == null) {
+            return UNKNOWN_SHARD;
+        }
+        int shards = numberOfShards(index);
+        if (shards <= 0) {
+            return UNKNOWN_SHARD;
+        }
+        return Math.abs(hashFunction.hash(effectiveRouting) % shards);
+    }
+
+    private int numberOfShards(String index) {
+        Integer shards = numberOfShards.get(index);
+        if (shards == null) {
+            shards = readNumberOfShards(index);
+            numberOfShards.putIfAbsent(index, shards);
+        }
+        return shards;
+    }
+
+    private int readNumberOfShards(String index) {
+        try {
+            ClusterStateRequest request = new ClusterStateRequest().filterRoutingTable(true).filterNodes(true)
+                    .filteredIndices(index);
+            MetaData metaData = client.admin().cluster().state(request).actionGet().getState().metaData();
+            IndexMetaData indexMetaData = metaData.index(index);
+            if (indexMetaData != null) {
+                return indexMetaData.numberOfShards();
+            }
+            //an alias pointing to a single index can be resolved, unless it has its own routing
+            if (metaData.indices().size() == 1) {
+                indexMetaData = metaData.iterator().next();
+                AliasMetaData aliasMetaData = indexMetaData.aliases().get(index);
+                if (aliasMetaData != null && aliasMetaData.indexRouting() == null) {
+                    return indexMetaData.numberOfShards();
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("unable to read the number of shards of index [" + index + "]", e);
+        }
+        return 0;
+    }
+}
@@ -19,21 +19,32 @@
 package org.elasticsearch.shell.client;
 
 import java.io.Closeable;
+import java.io.PrintStream;
 
 import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.suggest.SuggestBuilder;
+import org.elasticsearch.shell.bulk.RetryingBulkProcessor;
+import org.elasticsearch.shell.client.builders.AbstractRequestBuilder;
+import org.elasticsearch.shell.client.builders.AsyncResponse;
 import org.elasticsearch.shell.client.builders.core.*;
+import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 import org.elasticsearch.shell.json.JsonToString;
 import org.elasticsearch.shell.json.StringToJson;
 
@@ -50,6 +61,9 @@ import org.elasticsearch.shell.json.StringToJson;
 public abstract class AbstractClient<EsClient extends org.elasticsearch.client.support.AbstractClient, JsonInput, JsonOutput>
         implements Closeable {
 
+    private static final TimeValue SCAN_SCROLL = TimeValue.timeValueMinutes(1);
+    private static final int SCAN_PAGE_SIZE = 100;
+
     private final EsClient client;
     private final JsonToString<JsonInput> jsonToString;
     private final StringToJson<JsonOutput> stringToJson;
@@ -57,10 +71,13 @@ public abstract class AbstractClient<EsClient extends org.elasticsearch.client.s
     private final ClusterApiClient<EsClient, JsonInput, JsonOutput> clusterApiClient;
     private final DumpSaver<JsonInput> dumpSaver;
     private final DumpRestorer dumpRestorer;
+    private final Reindexer<JsonInput, JsonOutput> reindexer;
+    private final Console<PrintStream> console;
 
     protected AbstractClient(EsClient client, JsonToString<JsonInput> jsonToString,
                              StringToJson<JsonOutput> stringToJson,
-                             DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer) {
+                             DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer,
+                             Reindexer<JsonInput, JsonOutput> reindexer, Console<PrintStream> console) {
         this.client = client;
         this.jsonToString = jsonToString;
         this.stringToJson = stringToJson;
@@ -68,6 +85,8 @@ public abstract class AbstractClient<EsClient extends org.elasticsearch.client.s
         this.clusterApiClient = new ClusterApiClient<EsClient, JsonInput, JsonOutput>(this, jsonToString, stringToJson);
         this.dumpSaver = dumpSaver;
         this.dumpRestorer = dumpRestorer;
+        this.reindexer = reindexer;
+        this.console = console;
     }
 
     //Just a shortcut to get all the available indexes with their types and aliases
@@ -98,7 +117,7 @@ public abstract class AbstractClient<EsClient extends org.elasticsearch.client.s
         }
         builder.endObject();
 
-        return stringToJson.stringToJson(builder.string());
+        return stringToJson.bytesToJson(builder.bytes());
     }
 
     //Just a shortcut to get all the available nodes within the cluster
@@ -116,7 +135,7 @@ public abstract class AbstractClient<EsClient extends org.elasticsearch.client.s
         }
         builder.endObject();
 
-        return stringToJson.stringToJson(builder.string());
+        return stringToJson.bytesToJson(builder.bytes());
     }
 
     public BulkProcessor.Builder bulkBuilder() {
@@ -139,6 +158,30 @@ public abstract class AbstractClient<EsClient extends org.elasticsearch.client.s
         return bulkBuilder().build();
     }
 
+    public RetryingBulkProcessor.Builder retryingBulkBuilder() {
+        return RetryingBulkProcessor.builder(client, console);
+    }
+
+    public RetryingBulkProcessor retryingBulk() {
+        return retryingBulkBuilder().build();
+    }
+
+    public RetryingBulkProcessor.AdaptiveBuilder adaptiveBulkBuilder() {
+        return RetryingBulkProcessor.adaptiveBuilder(client, console);
+    }
+
+    public RetryingBulkProcessor adaptiveBulk() {
+        return adaptiveBulkBuilder().build();
+    }
+
+    public Object[] executeAll(int maxConcurrentRequests, AbstractRequestBuilder<?, ?, ?, ?>... requestBuilders) {
+        return AsyncResponse.all(maxConcurrentRequests, requestBuilders);
+    }
+
+    public Object[] joinAll(AsyncResponse<?, ?, ?>... responses) {
+        return AsyncResponse.join(responses);
+    }
+
     public CountRequestBuilder<JsonInput, JsonOutput> countBuilder() {
         return new CountRequestBuilder<JsonInput, JsonOutput>(client, jsonToString, stringToJson);
     }
@@ -326,10 +369,35 @@ public abstract class AbstractClient<EsClient extends org.elasticsearch.client.s
         return dumpRestorer.new Builder(client);
     }
 
+    public Reindexer<JsonInput, JsonOutput>.Builder reindexBuilder() {
+        return reindexer.new Builder(client, client);
+    }
+
+    public Reindexer<JsonInput, JsonOutput>.Builder reindexBuilder(AbstractClient<?, ?, ?> targetClient) {
+        return reindexer.new Builder(client, targetClient.client());
+    }
+
     EsClient client() {
         return client;
     }
 
+    /**
+     * Starts a scan over the given index (and type if provided), returning a cursor over the matching documents
+     */
+    ScanCursor<JsonOutput> scan(String index, String type, QueryBuilder query) {
+        org.elasticsearch.action.search.SearchRequestBuilder scanRequest = client.prepareSearch(index).setSearchType(SearchType.SCAN)
+                .setScroll(SCAN_SCROLL).setSize(SCAN_PAGE_SIZE).setQuery(query);
+        if (type != null) {
+            scanRequest.setTypes(type);
+        }
+        return new ScanCursor<JsonOutput>(client, stringToJson, SCAN_SCROLL, scanRequest.execute());
+    }
+
+    QueryBuilder jsonQuery(JsonInput query) {
+        BytesReference bytes = jsonToString.jsonToBytes(query, XContentType.JSON);
+        return QueryBuilders.wrapperQuery(bytes.toBytes(), 0, bytes.length());
+    }
+
     protected String jsonToString(JsonInput source) {
         return jsonToString.jsonToString(source, false);
     }
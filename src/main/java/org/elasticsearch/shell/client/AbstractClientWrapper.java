@@ -18,9 +18,13 @@
  */
 package org.elasticsearch.shell.client;
 
+import java.io.PrintStream;
+
 import org.elasticsearch.node.Node;
+import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 import org.elasticsearch.shell.json.JsonToString;
 import org.elasticsearch.shell.json.StringToJson;
 
@@ -46,28 +50,33 @@ public abstract class AbstractClientWrapper<ShellNativeClient, JsonInput, JsonOu
     protected final StringToJson<JsonOutput> stringToJson;
     protected final DumpSaver<JsonInput> dumpSaver;
     protected final DumpRestorer dumpRestorer;
+    protected final Reindexer<JsonInput, JsonOutput> reindexer;
+    protected final Console<PrintStream> console;
 
     AbstractClientWrapper(JsonToString<JsonInput> jsonToString, StringToJson<JsonOutput> stringToJson,
-                          DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer) {
+                          DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer, Reindexer<JsonInput, JsonOutput> reindexer,
+                          Console<PrintStream> console) {
         this.jsonToString = jsonToString;
         this.stringToJson = stringToJson;
         this.dumpSaver = dumpSaver;
         this.dumpRestorer = dumpRestorer;
+        this.reindexer = reindexer;
+        this.console = console;
     }
 
     @Override
     public AbstractClient<org.elasticsearch.client.transport.TransportClient, JsonInput, JsonOutput> wrapEsTransportClient(org.elasticsearch.client.transport.TransportClient client) {
-        return new TransportClient<JsonInput, JsonOutput>(client, jsonToString, stringToJson, dumpSaver, dumpRestorer);
+        return new TransportClient<JsonInput, JsonOutput>(client, jsonToString, stringToJson, dumpSaver, dumpRestorer, reindexer, console);
     }
 
     @Override
     public AbstractClient<org.elasticsearch.client.node.NodeClient, JsonInput, JsonOutput> wrapEsNodeClient(Node node, org.elasticsearch.client.node.NodeClient client) {
-        return new NodeClient<JsonInput, JsonOutput>(node, client, jsonToString, stringToJson, dumpSaver, dumpRestorer);
+        return new NodeClient<JsonInput, JsonOutput>(node, client, jsonToString, stringToJson, dumpSaver, dumpRestorer, reindexer, console);
     }
 
     @Override
     public AbstractClient<org.elasticsearch.client.node.NodeClient, JsonInput, JsonOutput> wrapEsLocalNodeClient(org.elasticsearch.client.node.NodeClient client) {
-        return new LocalNodeClient<JsonInput, JsonOutput>(client, jsonToString, stringToJson, dumpSaver, dumpRestorer);
+        return new LocalNodeClient<JsonInput, JsonOutput>(client, jsonToString, stringToJson, dumpSaver, dumpRestorer, reindexer, console);
     }
 
     @Override
@@ -27,6 +27,7 @@ import org.elasticsearch.shell.client.builders.core.*;
 import org.elasticsearch.shell.client.builders.indices.*;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 
 /**
  * @author Luca Cavanna
@@ -171,6 +172,18 @@ public class InternalIndexClient<JsonInput, JsonOutput> {
         return searchBuilder().source(source).execute();
     }
 
+    public ScanCursor<JsonOutput> scan() {
+        return shellClient.scan(indexName, null, QueryBuilders.matchAllQuery());
+    }
+
+    public ScanCursor<JsonOutput> scan(String queryString) {
+        return shellClient.scan(indexName, null, QueryBuilders.queryString(queryString));
+    }
+
+    public ScanCursor<JsonOutput> scan(JsonInput query) {
+        return shellClient.scan(indexName, null, shellClient.jsonQuery(query));
+    }
+
     public SuggestRequestBuilder<JsonInput, JsonOutput> suggestBuilder() {
         return shellClient.suggestBuilder().indices(indexName);
     }
@@ -223,6 +236,14 @@ public class InternalIndexClient<JsonInput, JsonOutput> {
         return shellClient.dumpRestoreBuilder().index(indexName);
     }
 
+    public Reindexer<JsonInput, JsonOutput>.Builder reindexBuilder() {
+        return shellClient.reindexBuilder().indices(indexName);
+    }
+
+    public Reindexer<JsonInput, JsonOutput>.Builder reindexBuilder(AbstractClient<?, ?, ?> targetClient) {
+        return shellClient.reindexBuilder(targetClient).indices(indexName);
+    }
+
     /*
     Indices APIs that make sense for a specific index
      */
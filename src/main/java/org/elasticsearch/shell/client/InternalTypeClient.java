@@ -161,6 +161,18 @@ public class InternalTypeClient<JsonInput, JsonOutput> {
         return searchBuilder().source(source).execute();
     }
 
+    public ScanCursor<JsonOutput> scan() {
+        return shellClient.scan(indexName, typeName, QueryBuilders.matchAllQuery());
+    }
+
+    public ScanCursor<JsonOutput> scan(String queryString) {
+        return shellClient.scan(indexName, typeName, QueryBuilders.queryString(queryString));
+    }
+
+    public ScanCursor<JsonOutput> scan(JsonInput query) {
+        return shellClient.scan(indexName, typeName, shellClient.jsonQuery(query));
+    }
+
     public UpdateRequestBuilder<JsonInput, JsonOutput> updateBuilder() {
         return shellClient.updateBuilder().index(indexName).type(typeName);
     }
@@ -19,9 +19,12 @@
 package org.elasticsearch.shell.client;
 
 import java.io.IOException;
+import java.io.PrintStream;
 
+import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 import org.elasticsearch.shell.json.JsonToString;
 import org.elasticsearch.shell.json.StringToJson;
 
@@ -35,8 +38,10 @@ public class LocalNodeClient<JsonInput, JsonOutput>
         extends AbstractClient<org.elasticsearch.client.node.NodeClient, JsonInput, JsonOutput> {
 
     public LocalNodeClient(org.elasticsearch.client.node.NodeClient client, JsonToString<JsonInput> jsonToString,
-                           StringToJson<JsonOutput> stringToJson, DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer) {
-        super(client, jsonToString, stringToJson,  dumpSaver, dumpRestorer);
+                           StringToJson<JsonOutput> stringToJson, DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer,
+                           Reindexer<JsonInput, JsonOutput> reindexer,
+                      Console<PrintStream> console) {
+        super(client, jsonToString, stringToJson,  dumpSaver, dumpRestorer, reindexer, console);
     }
 
     @Override
@@ -19,10 +19,13 @@
 package org.elasticsearch.shell.client;
 
 import java.io.IOException;
+import java.io.PrintStream;
 
 import org.elasticsearch.node.Node;
+import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 import org.elasticsearch.shell.json.JsonToString;
 import org.elasticsearch.shell.json.StringToJson;
 
@@ -40,8 +43,10 @@ public class NodeClient<JsonInput, JsonOutput>
     private final Node node;
 
     public NodeClient(Node node, org.elasticsearch.client.node.NodeClient client, JsonToString<JsonInput> jsonToString,
-                      StringToJson<JsonOutput> stringToJson, DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer) {
-        super(client, jsonToString, stringToJson, dumpSaver, dumpRestorer);
+                      StringToJson<JsonOutput> stringToJson, DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer,
+                      Reindexer<JsonInput, JsonOutput> reindexer,
+                      Console<PrintStream> console) {
+        super(client, jsonToString, stringToJson, dumpSaver, dumpRestorer, reindexer, console);
         this.node = node;
     }
 
@@ -19,11 +19,15 @@
 package org.elasticsearch.shell.client;
 
 
+import java.io.PrintStream;
+
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.shell.RhinoShellTopLevel;
 import org.elasticsearch.shell.ShellScope;
+import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 import org.elasticsearch.shell.json.RhinoJsonToString;
 import org.elasticsearch.shell.json.RhinoStringToJson;
 import org.mozilla.javascript.NativeObject;
@@ -40,8 +44,9 @@ public class RhinoClientWrapper extends AbstractClientWrapper<RhinoClientNativeJ
     @Inject
     RhinoClientWrapper(ShellScope<RhinoShellTopLevel> shellScope,
                        RhinoJsonToString jsonToString, RhinoStringToJson stringToJson,
-                       DumpSaver<NativeObject> dumpSaver, DumpRestorer dumpRestorer) {
-        super(jsonToString, stringToJson, dumpSaver, dumpRestorer);
+                       DumpSaver<NativeObject> dumpSaver, DumpRestorer dumpRestorer,
+                       Reindexer<NativeObject, Object> reindexer, Console<PrintStream> console) {
+        super(jsonToString, stringToJson, dumpSaver, dumpRestorer, reindexer, console);
         this.shellScope = shellScope;
     }
 
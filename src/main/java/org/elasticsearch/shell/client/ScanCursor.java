@@ -0,0 +1,152 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.shell.client.builders.AsyncResponse;
+import org.elasticsearch.shell.json.StringToJson;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Cursor that iterates over all the documents matching a scan search, one hit at a time.
+ * While the hits of the current page are consumed the next page is already being fetched in the background,
+ * thus only two pages at most are held in memory. Hits are converted to native json only when returned, on the shell thread.
+ * The cursor stops fetching pages once all the hits have been returned or it gets closed. Since scrolls cannot be
+ * cleared explicitly, an abandoned scroll is released by the cluster once its keep alive expires.
+ *
+ * @param <JsonOutput> the shell native object that represents a json object that we give as output to the shell
+ */
+public class ScanCursor<JsonOutput> implements Iterator<JsonOutput>, Closeable {
+
+    private final Client client;
+    private final StringToJson<JsonOutput> stringToJson;
+    private final TimeValue scroll;
+
+    private ListenableActionFuture<SearchResponse> nextPage;
+    private SearchHit[] hits;
+    private int position;
+    private long totalHits = -1;
+    private long fetchedHits;
+    private boolean closed;
+
+    ScanCursor(Client client, StringToJson<JsonOutput> stringToJson, TimeValue scroll,
+               ListenableActionFuture<SearchResponse> scanResponse) {
+        this.client = client;
+        this.stringToJson = stringToJson;
+        this.scroll = scroll;
+        this.nextPage = scanResponse;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!closed && (hits == null || position >= hits.length)) {
+            if (nextPage == null) {
+                close();
+                return false;
+            }
+            SearchResponse response = nextPage.actionGet();
+            boolean scanResponse = totalHits < 0;
+            totalHits = response.getHits().getTotalHits();
+            hits = response.getHits().hits();
+            position = 0;
+            fetchedHits += hits.length;
+            //the scan response doesn't contain any hits, while an empty page afterwards means that we're done
+            if ((!scanResponse && hits.length == 0) || fetchedHits >= totalHits) {
+                nextPage = null;
+            } else {
+                nextPage = client.prepareSearchScroll(response.getScrollId()).setScroll(scroll).execute();
+            }
+        }
+        return !closed;
+    }
+
+    @Override
+    public JsonOutput next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SearchHit hit = hits[position];
+        //the hit is not needed anymore once returned
+        hits[position++] = null;
+        try {
+            XContentBuilder builder = JsonXContent.contentBuilder();
+            hit.toXContent(builder, ToXContent.EMPTY_PARAMS);
+            return stringToJson.bytesToJson(builder.bytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to convert hit " + hit.id() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("scan cursors are read only");
+    }
+
+    /**
+     * Invokes the given callback for each one of the remaining hits, then closes the cursor
+     */
+    public void forEach(AsyncResponse.Callback<JsonOutput> callback) {
+        try {
+            while (hasNext()) {
+                callback.call(next());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * @return the number of documents matching the scan, -1 if not known yet
+     */
+    public long total() {
+        if (totalHits < 0 && !closed) {
+            hasNext();
+        }
+        return totalHits;
+    }
+
+    /**
+     * Stops fetching pages and releases the hits held by the cursor
+     */
+    @Override
+    public void close() {
+        closed = true;
+        hits = null;
+        nextPage = null;
+    }
+
+    @Override
+    public String toString() {
+        return "Scan cursor over " + (totalHits < 0 ? "unknown number of" : totalHits) + " documents"
+                + (closed ? " (closed)" : "") + ". Use hasNext() and next() or forEach(function(hit) {...}) to iterate.";
+    }
+}
@@ -19,14 +19,17 @@
 package org.elasticsearch.shell.client;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.collect.ImmutableList;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.dump.DumpRestorer;
 import org.elasticsearch.shell.dump.DumpSaver;
+import org.elasticsearch.shell.dump.Reindexer;
 import org.elasticsearch.shell.json.JsonToString;
 import org.elasticsearch.shell.json.StringToJson;
 
@@ -41,8 +44,10 @@ public class TransportClient<JsonInput, JsonOutput>
         extends AbstractClient<org.elasticsearch.client.transport.TransportClient, JsonInput, JsonOutput> {
 
     protected TransportClient(org.elasticsearch.client.transport.TransportClient client, JsonToString<JsonInput> jsonToString,
-                              StringToJson<JsonOutput> stringToJson, DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer) {
-        super(client, jsonToString, stringToJson, dumpSaver, dumpRestorer);
+                              StringToJson<JsonOutput> stringToJson, DumpSaver<JsonInput> dumpSaver, DumpRestorer dumpRestorer,
+                              Reindexer<JsonInput, JsonOutput> reindexer,
+                      Console<PrintStream> console) {
+        super(client, jsonToString, stringToJson, dumpSaver, dumpRestorer, reindexer, console);
     }
 
     @Override
@@ -23,6 +23,8 @@ import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.shell.json.JsonToString;
 
 /**
@@ -60,6 +62,18 @@ public abstract class AbstractRequestBuilder<Request extends ActionRequest<Reque
         return responseToOutput(request, doExecute(request()).actionGet());
     }
 
+    /**
+     * Executes the underlying request after the request validation, without waiting for its response
+     * @return the pending response, which can be joined later on
+     */
+    public AsyncResponse<Request, Response, Output> executeAsync() {
+        ActionRequestValidationException validationException = request().validate();
+        if (validationException != null) {
+            throw validationException;
+        }
+        return new AsyncResponse<Request, Response, Output>(this, request, doExecute(request()));
+    }
+
     /**
      * Executes an elasticsearch {@link ActionRequest}
      * @param request  the request to execute
@@ -88,6 +102,15 @@ public abstract class AbstractRequestBuilder<Request extends ActionRequest<Reque
         return jsonToString.jsonToString(source, false);
     }
 
+    /**
+     * Helper common method that serializes a native json as input straight to json bytes
+     * @param source the native json as input
+     * @return the json as bytes
+     */
+    protected BytesReference jsonToBytes(JsonInput source) {
+        return jsonToString.jsonToBytes(source, XContentType.JSON);
+    }
+
     @Override
     public String toString() {
         String message = "%s for the underlying %s that follows:\n%s" +
@@ -21,6 +21,7 @@ package org.elasticsearch.shell.client.builders;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentBuilderString;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
@@ -46,6 +47,9 @@ public abstract class AbstractRequestBuilderJsonOutput<Request extends ActionReq
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractRequestBuilderJsonOutput.class);
 
+    //responses bigger than this are converted lazily, only the parts that get accessed are converted to native json
+    private static final int LAZY_OUTPUT_THRESHOLD = 256 * 1024;
+
     protected final StringToJson<JsonOutput> stringToJson;
 
     protected AbstractRequestBuilderJsonOutput(Client client, Request request, JsonToString<JsonInput> jsonToString, StringToJson<JsonOutput> stringToJson) {
@@ -58,7 +62,7 @@ public abstract class AbstractRequestBuilderJsonOutput<Request extends ActionReq
     }
 
     /**
-     * Converts an elasticsearch {@link ActionResponse} to native json
+     * Converts an elasticsearch {@link ActionResponse} to native json, lazily if the response is big
      * @param request the request that generated the given response
      * @param response the response to be converted
      * @return the native json representation of the response
@@ -66,7 +70,11 @@ public abstract class AbstractRequestBuilderJsonOutput<Request extends ActionReq
     @Override
     protected JsonOutput responseToOutput(Request request, Response response) {
         try {
-            return stringToJson.stringToJson(toXContent(request, response, initContentBuilder()).string());
+            BytesReference bytes = toXContent(request, response, initContentBuilder()).bytes();
+            if (bytes.length() >= LAZY_OUTPUT_THRESHOLD) {
+                return stringToJson.lazyBytesToJson(bytes);
+            }
+            return stringToJson.bytesToJson(bytes);
         } catch (IOException e) {
             logger.error("Error while generating the XContent response", e);
             return null;
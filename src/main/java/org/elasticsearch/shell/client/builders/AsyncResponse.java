@@ -0,0 +1,160 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.client.builders;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Result of a request executed asynchronously through {@link AbstractRequestBuilder#executeAsync()}.
+ * The request is sent straight away, while its response is converted to the output format only when joined, since
+ * the conversion and the callbacks need to happen on the shell thread (the script engine is not thread safe).
+ * Callbacks registered through {@link #then(Callback)} and {@link #onFailure(Callback)} are invoked when joining,
+ * or right away if the response has already been joined.
+ *
+ * @param <Request> the type of the {@link ActionRequest}
+ * @param <Response> the type of the {@link ActionResponse}
+ * @param <Output> the output format use to show the result of the execution
+ */
+public class AsyncResponse<Request extends ActionRequest<Request>, Response extends ActionResponse, Output> {
+
+    private final AbstractRequestBuilder<Request, Response, ?, Output> requestBuilder;
+    private final Request request;
+    private final ActionFuture<Response> future;
+
+    private final List<Callback<Output>> callbacks = new ArrayList<Callback<Output>>();
+    private final List<Callback<Throwable>> failureCallbacks = new ArrayList<Callback<Throwable>>();
+
+    private boolean joined;
+    private Output output;
+    private RuntimeException failure;
+
+    AsyncResponse(AbstractRequestBuilder<Request, Response, ?, Output> requestBuilder, Request request,
+                  ActionFuture<Response> future) {
+        this.requestBuilder = requestBuilder;
+        this.request = request;
+        this.future = future;
+    }
+
+    /**
+     * Registers a callback that receives the output of the execution once joined
+     */
+    public AsyncResponse<Request, Response, Output> then(Callback<Output> callback) {
+        callbacks.add(callback);
+        if (joined && failure == null) {
+            callback.call(output);
+        }
+        return this;
+    }
+
+    /**
+     * Registers a callback that receives the failure of the execution once joined.
+     * When there's at least one of them the failure is not thrown while joining.
+     */
+    public AsyncResponse<Request, Response, Output> onFailure(Callback<Throwable> callback) {
+        failureCallbacks.add(callback);
+        if (joined && failure != null) {
+            callback.call(failure);
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the response has been received, thus joining doesn't block
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Waits for the response, converts it and invokes the registered callbacks
+     * @return the output of the execution, null if it failed and the failure has been handled by a callback
+     */
+    public Output join() {
+        if (!joined) {
+            joined = true;
+            try {
+                output = requestBuilder.responseToOutput(request, future.actionGet());
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            if (failure == null) {
+                for (Callback<Output> callback : callbacks) {
+                    callback.call(output);
+                }
+            } else {
+                for (Callback<Throwable> callback : failureCallbacks) {
+                    callback.call(failure);
+                }
+            }
+        }
+        if (failure != null && failureCallbacks.isEmpty()) {
+            throw failure;
+        }
+        return output;
+    }
+
+    /**
+     * Joins all the given responses in order
+     * @return the outputs of the executions, in the same order as the responses
+     */
+    public static Object[] join(AsyncResponse<?, ?, ?>... responses) {
+        Object[] outputs = new Object[responses.length];
+        for (int i = 0; i < responses.length; i++) {
+            outputs[i] = responses[i].join();
+        }
+        return outputs;
+    }
+
+    /**
+     * Executes all the given requests keeping at most the given number of them in flight at the same time,
+     * and joins them in order
+     * @return the outputs of the executions, in the same order as the request builders
+     */
+    public static Object[] all(int maxConcurrentRequests, AbstractRequestBuilder<?, ?, ?, ?>... requestBuilders) {
+        int concurrentRequests = Math.max(1, maxConcurrentRequests);
+        Object[] outputs = new Object[requestBuilders.length];
+        LinkedList<AsyncResponse<?, ?, ?>> inFlight = new LinkedList<AsyncResponse<?, ?, ?>>();
+        int joined = 0;
+        for (AbstractRequestBuilder<?, ?, ?, ?> requestBuilder : requestBuilders) {
+            if (inFlight.size() >= concurrentRequests) {
+                outputs[joined++] = inFlight.removeFirst().join();
+            }
+            inFlight.add(requestBuilder.executeAsync());
+        }
+        while (!inFlight.isEmpty()) {
+            outputs[joined++] = inFlight.removeFirst().join();
+        }
+        return outputs;
+    }
+
+    /**
+     * Callback invoked on the shell thread, which can be provided as a javascript function
+     */
+    public static interface Callback<T> {
+        void call(T value);
+    }
+}
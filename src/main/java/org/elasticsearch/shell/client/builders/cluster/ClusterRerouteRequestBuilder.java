@@ -23,7 +23,6 @@ import org.elasticsearch.action.admin.cluster.reroute.ClusterRerouteRequest;
 import org.elasticsearch.action.admin.cluster.reroute.ClusterRerouteResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.routing.allocation.command.AllocationCommand;
-import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.xcontent.ToXContent;
@@ -57,7 +56,7 @@ public class ClusterRerouteRequestBuilder<JsonInput, JsonOutput> extends Abstrac
     }
 
     public ClusterRerouteRequestBuilder<JsonInput, JsonOutput> source(JsonInput source) throws Exception {
-        request.source(new BytesArray(jsonToString(source)));
+        request.source(jsonToBytes(source));
         return this;
     }
 
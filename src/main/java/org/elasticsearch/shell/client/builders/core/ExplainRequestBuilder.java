@@ -24,7 +24,6 @@ import org.elasticsearch.action.explain.ExplainRequest;
 import org.elasticsearch.action.explain.ExplainResponse;
 import org.elasticsearch.action.explain.ExplainSourceBuilder;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.get.GetResult;
@@ -83,12 +82,12 @@ public class ExplainRequestBuilder<JsonInput, JsonOutput> extends AbstractReques
     }
 
     public ExplainRequestBuilder<JsonInput, JsonOutput> query(JsonInput query) {
-        request.source(new ExplainSourceBuilder().setQuery(new BytesArray(jsonToString(query))));
+        request.source(new ExplainSourceBuilder().setQuery(jsonToBytes(query)));
         return this;
     }
 
     public ExplainRequestBuilder<JsonInput, JsonOutput> source(JsonInput source) {
-        request.source(new BytesArray(jsonToString(source)), false);
+        request.source(jsonToBytes(source), false);
         return this;
     }
 
@@ -64,7 +64,7 @@ public class IndexRequestBuilder<JsonInput, JsonOutput> extends AbstractRequestB
     }
 
     public IndexRequestBuilder<JsonInput, JsonOutput> source(JsonInput source) {
-        request.source(jsonToString(source));
+        request.source(jsonToBytes(source), false);
         return this;
     }
 
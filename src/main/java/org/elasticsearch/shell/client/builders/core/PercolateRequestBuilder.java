@@ -52,7 +52,7 @@ public class PercolateRequestBuilder<JsonInput, JsonOutput> extends AbstractRequ
     }
 
     public PercolateRequestBuilder<JsonInput, JsonOutput> source(JsonInput source) {
-        request.source(jsonToString(source));
+        request.source(jsonToBytes(source), false);
         return this;
     }
 
@@ -24,7 +24,6 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.IgnoreIndices;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.Nullable;
-import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -213,17 +212,17 @@ public class SearchRequestBuilder<JsonInput, JsonOutput> extends AbstractRequest
     }
 
     public SearchRequestBuilder<JsonInput, JsonOutput> facets(JsonInput facets) {
-        sourceBuilder().facets(new BytesArray(jsonToString(facets)));
+        sourceBuilder().facets(jsonToBytes(facets));
         return this;
     }
 
     public SearchRequestBuilder<JsonInput, JsonOutput> source(JsonInput source) {
-        request.source(jsonToString(source));
+        request.source(jsonToBytes(source), false);
         return this;
     }
 
     public SearchRequestBuilder<JsonInput, JsonOutput> extraSource(JsonInput source) {
-        request.extraSource(jsonToString(source));
+        request.extraSource(jsonToBytes(source), false);
         return this;
     }
 
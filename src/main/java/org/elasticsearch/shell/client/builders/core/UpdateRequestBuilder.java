@@ -25,7 +25,6 @@ import org.elasticsearch.action.support.replication.ReplicationType;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.shell.client.builders.AbstractRequestBuilderJsonOutput;
@@ -148,7 +147,7 @@ public class UpdateRequestBuilder<JsonInput, JsonOutput> extends AbstractRequest
     }
 
     public UpdateRequestBuilder<JsonInput, JsonOutput> source(JsonInput source) throws Exception {
-        request.source(new BytesArray(jsonToString(source)));
+        request.source(jsonToBytes(source));
         return this;
     }
 
@@ -46,6 +46,7 @@ public class CommandModule extends AbstractModule {
         multiBinder.addBinding().to(HttpPostCommand.class).asEagerSingleton();
         multiBinder.addBinding().to(HttpPutCommand.class).asEagerSingleton();
         multiBinder.addBinding().to(HttpDeleteCommand.class).asEagerSingleton();
+        multiBinder.addBinding().to(DumpVerifyCommand.class).asEagerSingleton();
 
         //Rhino specific commands
         multiBinder.addBinding().to(new TypeLiteral<ToJsonCommand<Object>>() {}).asEagerSingleton();
@@ -0,0 +1,59 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.command;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.shell.console.Console;
+import org.elasticsearch.shell.dump.DumpVerifier;
+
+/**
+ * Verifies a dump through the {@link DumpVerifier}, without the need to connect to any cluster
+ *
+ * @author Luca Cavanna
+ */
+@ExecutableCommand(aliases = {"dumpVerify"})
+public class DumpVerifyCommand extends Command {
+
+    private final DumpVerifier dumpVerifier;
+
+    @Inject
+    DumpVerifyCommand(Console<PrintStream> console, DumpVerifier dumpVerifier) {
+        super(console);
+        this.dumpVerifier = dumpVerifier;
+    }
+
+    @SuppressWarnings("unused")
+    public boolean execute(String path) throws IOException {
+        return execute(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    @SuppressWarnings("unused")
+    public boolean execute(String path, int threads) throws IOException {
+        return dumpVerifier.verify(path, threads);
+    }
+
+    @SuppressWarnings("unused")
+    public boolean execute(String path, int threads, String charset) throws IOException {
+        return dumpVerifier.verify(path, threads, Charset.forName(charset));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Writer that hands batches of documents over to a dedicated thread, which writes them through the wrapped writer.
+ * Allows to keep fetching and encoding documents while the previous ones are being written to disk.
+ * An error that happens while writing is thrown back on the next call.
+ */
+class AsyncDumpWriter implements DumpWriter {
+
+    private static final List<Document> END_OF_DUMP = Collections.emptyList();
+    //empty lists are never queued by write, a distinct instance marks the sync requests
+    private static final List<Document> SYNC = new ArrayList<Document>(0);
+
+    private final DumpWriter writer;
+    private final BlockingQueue<List<Document>> queue;
+    private final Thread thread;
+    private final Semaphore synced = new Semaphore(0);
+    private volatile IOException failure;
+
+    AsyncDumpWriter(DumpWriter writer, int queueSize, String name) {
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<List<Document>>(queueSize);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "dump-writer[" + name + "]");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void write(Document document) throws IOException {
+        write(Collections.singletonList(document));
+    }
+
+    /**
+     * Queues the given documents to be written, blocks if the writer thread is lagging behind
+     */
+    void write(List<Document> documents) throws IOException {
+        ensureNoFailure();
+        if (documents.isEmpty()) {
+            return;
+        }
+        put(documents);
+    }
+
+    /**
+     * Waits for the queued documents to be written and synced by the writer thread
+     */
+    @Override
+    public void sync() throws IOException {
+        ensureNoFailure();
+        put(SYNC);
+        try {
+            while (!synced.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                ensureNoFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the dump", e);
+        }
+        ensureNoFailure();
+    }
+
+    @Override
+    public DumpChecksums checksums() {
+        return writer.checksums();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (thread.isAlive()) {
+                put(END_OF_DUMP);
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the dump to be written", e);
+        } finally {
+            writer.close();
+        }
+        ensureNoFailure();
+    }
+
+    private void put(List<Document> documents) throws IOException {
+        try {
+            //the writer thread doesn't take from the queue anymore after a failure
+            while (!queue.offer(documents, 100, TimeUnit.MILLISECONDS)) {
+                ensureNoFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the dump", e);
+        }
+    }
+
+    private void ensureNoFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Error while writing the dump: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            List<Document> documents;
+            while ((documents = queue.take()) != END_OF_DUMP) {
+                if (documents == SYNC) {
+                    writer.sync();
+                    synced.release();
+                    continue;
+                }
+                for (Document document : documents) {
+                    writer.write(document);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("Interrupted while writing the dump", e);
+        }
+    }
+}
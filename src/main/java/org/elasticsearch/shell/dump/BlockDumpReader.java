@@ -0,0 +1,226 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Reads a binary dump written by {@link BlockDumpWriter}, a block at a time.
+ * Blocks are decompressed and decoded only when their documents are requested.
+ */
+class BlockDumpReader implements DumpReader {
+
+    private final DataInputStream inputStream;
+    private final DumpEncoding encoding;
+    private final boolean compressed;
+    private final long endOffset;
+    private long position;
+
+    BlockDumpReader(File file) throws IOException {
+        this(file, BlockDumpWriter.HEADER_LENGTH);
+    }
+
+    /**
+     * Creates a reader that starts reading from the block at the given offset
+     */
+    BlockDumpReader(File file, long blockOffset) throws IOException {
+        this(file, blockOffset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a reader that reads the blocks between the given offsets, the end offset being the offset of the first block
+     * that doesn't need to be read
+     */
+    BlockDumpReader(File file, long blockOffset, long endOffset) throws IOException {
+        this.endOffset = endOffset;
+        FileInputStream fileInputStream = new FileInputStream(file);
+        this.inputStream = new DataInputStream(new BufferedInputStream(fileInputStream, 64 * 1024));
+        try {
+            byte[] magic = new byte[BlockDumpWriter.MAGIC.length];
+            inputStream.readFully(magic);
+            if (!Arrays.equals(magic, BlockDumpWriter.MAGIC)) {
+                throw new IOException("File " + file + " is not a binary dump");
+            }
+            this.encoding = DumpEncoding.fromId(inputStream.readByte());
+            this.compressed = inputStream.readBoolean();
+            long toSkip = blockOffset - BlockDumpWriter.HEADER_LENGTH;
+            while (toSkip > 0) {
+                long skipped = inputStream.skip(toSkip);
+                if (skipped <= 0) {
+                    throw new EOFException("Unable to seek to offset " + blockOffset + " in dump " + file);
+                }
+                toSkip -= skipped;
+            }
+            this.position = blockOffset;
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the given file is a binary dump, false otherwise
+     */
+    static boolean isBlockDump(File file) throws IOException {
+        if (file.length() < BlockDumpWriter.MAGIC.length) {
+            return false;
+        }
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] magic = new byte[BlockDumpWriter.MAGIC.length];
+            inputStream.readFully(magic);
+            return Arrays.equals(magic, BlockDumpWriter.MAGIC);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads the block index contained in the footer of a binary dump
+     * @return the offset and number of documents of each block
+     */
+    static List<BlockInfo> readIndex(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long footerMagicOffset = randomAccessFile.length() - BlockDumpWriter.FOOTER_MAGIC.length;
+            if (footerMagicOffset < BlockDumpWriter.HEADER_LENGTH + 8) {
+                throw new IOException("Dump " + file + " is truncated, unable to find its footer");
+            }
+            randomAccessFile.seek(footerMagicOffset - 8);
+            long footerOffset = randomAccessFile.readLong();
+            byte[] footerMagic = new byte[BlockDumpWriter.FOOTER_MAGIC.length];
+            randomAccessFile.readFully(footerMagic);
+            if (!Arrays.equals(footerMagic, BlockDumpWriter.FOOTER_MAGIC)) {
+                throw new IOException("Dump " + file + " is truncated, unable to find its footer");
+            }
+
+            randomAccessFile.seek(footerOffset);
+            if (randomAccessFile.readInt() != BlockDumpWriter.END_OF_BLOCKS) {
+                throw new IOException("Dump " + file + " has a corrupted footer");
+            }
+            int numBlocks = randomAccessFile.readInt();
+            List<BlockInfo> blocks = new ArrayList<BlockInfo>(numBlocks);
+            for (int i = 0; i < numBlocks; i++) {
+                blocks.add(new BlockInfo(randomAccessFile.readLong(), randomAccessFile.readInt()));
+            }
+            return blocks;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public Batch next() throws IOException {
+        if (position >= endOffset) {
+            return null;
+        }
+        int documents;
+        try {
+            documents = inputStream.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Dump is truncated, the end of the blocks was not found", e);
+        }
+        if (documents == BlockDumpWriter.END_OF_BLOCKS) {
+            return null;
+        }
+        int uncompressedLength = inputStream.readInt();
+        byte[] stored = new byte[inputStream.readInt()];
+        inputStream.readFully(stored);
+        position += 12 + stored.length;
+        return new BlockBatch(stored, compressed, uncompressedLength, documents, encoding, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * Entry of the block index contained in the footer
+     */
+    static class BlockInfo {
+        final long offset;
+        final int documents;
+
+        BlockInfo(long offset, int documents) {
+            this.offset = offset;
+            this.documents = documents;
+        }
+    }
+
+    private static class BlockBatch implements Batch {
+        private final byte[] stored;
+        private final boolean compressed;
+        private final int uncompressedLength;
+        private final int numDocuments;
+        private final DumpEncoding encoding;
+        private final long endOffset;
+
+        BlockBatch(byte[] stored, boolean compressed, int uncompressedLength, int numDocuments, DumpEncoding encoding, long endOffset) {
+            this.stored = stored;
+            this.compressed = compressed;
+            this.uncompressedLength = uncompressedLength;
+            this.numDocuments = numDocuments;
+            this.encoding = encoding;
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public long endOffset() {
+            return endOffset;
+        }
+
+        @Override
+        public List<Document> documents() throws IOException {
+            byte[] block = compressed ? decompress() : stored;
+            return encoding.read(block, 0, block.length, numDocuments);
+        }
+
+        private byte[] decompress() throws IOException {
+            byte[] block = new byte[uncompressedLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                int length = 0;
+                while (length < uncompressedLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(block, length, uncompressedLength - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != uncompressedLength) {
+                    throw new IOException("Corrupted block, expected " + uncompressedLength + " bytes but got " + length);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted block", e);
+            } finally {
+                inflater.end();
+            }
+            return block;
+        }
+    }
+}
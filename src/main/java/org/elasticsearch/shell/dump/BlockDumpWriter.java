@@ -0,0 +1,159 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Writes a binary dump made of blocks. Documents are grouped in blocks of a fixed number of documents,
+ * each one optionally compressed independently so that blocks can be decompressed in parallel while restoring.
+ *
+ * The dump starts with {@link #MAGIC}, followed by the {@link DumpEncoding} of the documents and whether blocks
+ * are compressed. Each block is made of its number of documents, its uncompressed length, its stored length
+ * and the (deflated) document records.
+ * The footer starts with {@link #END_OF_BLOCKS} and indexes the offset and number of documents of each block.
+ * It ends with the offset of the footer itself and {@link #FOOTER_MAGIC}.
+ * Checksums are computed for the whole file and for every block.
+ */
+class BlockDumpWriter implements DumpWriter {
+
+    static final byte[] MAGIC = new byte[]{'E', 'S', 'D', 'U', 'M', 'P', 'B', 1};
+    static final byte[] FOOTER_MAGIC = new byte[]{'E', 'S', 'D', 'U', 'M', 'P', 'I', 'X'};
+    static final int HEADER_LENGTH = MAGIC.length + 2;
+    static final int END_OF_BLOCKS = -1;
+
+    private final FileOutputStream fileOutputStream;
+    private final ChecksumOutputStream checksumStream;
+    private final DataOutputStream outputStream;
+    private final int blockSize;
+    private final DumpEncoding encoding;
+    private final Deflater deflater;
+    private final ByteArrayOutputStream storedBlock = new ByteArrayOutputStream();
+    private DeflaterOutputStream deflaterStream;
+    private DataOutputStream blockStream;
+
+    private final List<Long> blockOffsets = new ArrayList<Long>();
+    private final List<Integer> blockDocuments = new ArrayList<Integer>();
+    private long position;
+    private int documents;
+
+    BlockDumpWriter(String path, int blockSize, DumpEncoding encoding, boolean compress) throws IOException {
+        this.fileOutputStream = new FileOutputStream(path);
+        this.checksumStream = new ChecksumOutputStream(new BufferedOutputStream(fileOutputStream, 1024 * 1024));
+        this.outputStream = new DataOutputStream(checksumStream);
+        this.blockSize = blockSize;
+        this.encoding = encoding;
+        this.deflater = compress ? new Deflater() : null;
+        this.outputStream.write(MAGIC);
+        this.outputStream.writeByte(encoding.id());
+        this.outputStream.writeBoolean(compress);
+        this.position = HEADER_LENGTH;
+        this.checksumStream.skipChunk();
+        newBlock();
+    }
+
+    private void newBlock() {
+        if (deflater != null) {
+            deflater.reset();
+            deflaterStream = new DeflaterOutputStream(storedBlock, deflater);
+            blockStream = new DataOutputStream(deflaterStream);
+        } else {
+            blockStream = new DataOutputStream(storedBlock);
+        }
+    }
+
+    @Override
+    public void write(Document document) throws IOException {
+        encoding.write(document, blockStream);
+        if (++documents == blockSize) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (documents == 0) {
+            return;
+        }
+        blockStream.flush();
+        if (deflaterStream != null) {
+            deflaterStream.finish();
+        }
+
+        blockOffsets.add(position);
+        blockDocuments.add(documents);
+        outputStream.writeInt(documents);
+        outputStream.writeInt(blockStream.size());
+        outputStream.writeInt(storedBlock.size());
+        storedBlock.writeTo(outputStream);
+        position += 12 + storedBlock.size();
+        checksumStream.endChunk(documents);
+
+        documents = 0;
+        storedBlock.reset();
+        newBlock();
+    }
+
+    private void writeFooter() throws IOException {
+        long footerOffset = position;
+        outputStream.writeInt(END_OF_BLOCKS);
+        outputStream.writeInt(blockOffsets.size());
+        for (int i = 0; i < blockOffsets.size(); i++) {
+            outputStream.writeLong(blockOffsets.get(i));
+            outputStream.writeInt(blockDocuments.get(i));
+        }
+        outputStream.writeLong(footerOffset);
+        outputStream.write(FOOTER_MAGIC);
+    }
+
+    /**
+     * Writes out the current block even if not full yet
+     */
+    @Override
+    public void sync() throws IOException {
+        flushBlock();
+        outputStream.flush();
+        fileOutputStream.getFD().sync();
+    }
+
+    @Override
+    public DumpChecksums checksums() {
+        return checksumStream.checksums();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            writeFooter();
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            outputStream.close();
+        }
+    }
+}
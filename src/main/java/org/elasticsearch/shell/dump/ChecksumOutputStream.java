@@ -0,0 +1,85 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Output stream that computes the checksums of the bytes written through it, for the whole stream and per chunk.
+ * The writer decides where chunks end, e.g. after a block or after a number of lines.
+ */
+class ChecksumOutputStream extends FilterOutputStream {
+
+    private final CRC32 checksum = new CRC32();
+    private final CRC32 chunkChecksum = new CRC32();
+    private final List<DumpChecksums.Chunk> chunks = new ArrayList<DumpChecksums.Chunk>();
+    private long position;
+    private long chunkStart;
+
+    ChecksumOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        checksum.update(b);
+        chunkChecksum.update(b);
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        checksum.update(b, off, len);
+        chunkChecksum.update(b, off, len);
+        position += len;
+    }
+
+    /**
+     * Ends the current chunk, made of the bytes written since the previous one ended
+     * @param documents the number of documents contained in the chunk
+     */
+    void endChunk(int documents) {
+        if (position > chunkStart) {
+            chunks.add(new DumpChecksums.Chunk(chunkStart, position - chunkStart, documents, chunkChecksum.getValue()));
+        }
+        skipChunk();
+    }
+
+    /**
+     * Leaves the bytes written since the previous chunk out of any chunk (e.g. headers).
+     * They are still part of the checksum of the whole stream.
+     */
+    void skipChunk() {
+        chunkChecksum.reset();
+        chunkStart = position;
+    }
+
+    DumpChecksums checksums() {
+        return new DumpChecksums(position, checksum.getValue(), chunks);
+    }
+}
@@ -19,116 +19,328 @@
 package org.elasticsearch.shell.dump;
 
 import java.io.IOException;
-import java.util.Map;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentFactory;
-import org.elasticsearch.common.xcontent.XContentParser;
-import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.jackson.core.*;
+import org.elasticsearch.common.xcontent.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Luca Cavanna
  *
  * Represents a document to be dumped or already dumped
  *
+ * The dump of a document is its json source with the _index, _type and _id fields added at the top level.
+ * Conversions in both directions work on the raw bytes: the top level tokens are scanned to find out
+ * where the metadata fields are, but the source itself is never parsed into a map and serialized back.
+ * Binary dumps keep the metadata separated from the source, which can be either json or smile.
  */
 public class Document {
 
+    private static final Logger logger = LoggerFactory.getLogger(Document.class);
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
     private static final String ID = "_id";
     private static final String INDEX = "_index";
     private static final String TYPE = "_type";
 
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     private final String id;
-    private final String dump;
-    private String document;
-    private String index;
-    private String type;
+    private BytesReference dump;
+    private final BytesReference source;
+    private final String index;
+    private final String type;
 
-    private Document(String dump, String id) throws IOException {
+    private Document(BytesReference dump, BytesReference source, String index, String type, String id) {
         this.dump = dump;
+        this.source = source;
+        this.index = index;
+        this.type = type;
         this.id = id;
     }
 
-    private static Map<String, Object> asMap(String jsonSource) throws IOException {
-        XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(jsonSource);
-        return parser.map();
-    }
-
-    private static String asString(Map<String, Object> map) throws IOException {
-        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
-        return builder.map(map).string();
-    }
-
-    public String getDocument() {
-        return document;
+    /**
+     * @return the source of the document without metadata fields, json unless read from a smile dump
+     */
+    public BytesReference getSource() {
+        return source;
     }
 
     public String getId() {
         return id;
     }
 
-    public String getDump() {
+    /**
+     * @return the json representation of the document as written to a dump, including the metadata fields
+     */
+    public BytesReference getDump() throws IOException {
+        if (dump == null) {
+            dump = fromSource(source, index, type, id).dump;
+        }
         return dump;
     }
 
-    private void setDocument(String document) {
-        this.document = document;
-    }
-
     public String getIndex() {
         return index;
     }
 
-    private void setIndex(String index) {
-        this.index = index;
-    }
-
     public String getType() {
         return type;
     }
 
-    private void setType(String type) {
-        this.type = type;
+    /**
+     * Converts the given dump lines to documents, skipping the ones that cannot be parsed
+     */
+    static List<Document> fromDumps(List<BytesReference> dumps) {
+        List<Document> documents = new ArrayList<Document>(dumps.size());
+        for (BytesReference dump : dumps) {
+            try {
+                documents.add(fromDump(dump));
+            } catch(Exception e) {
+                logger.error("Error while parsing document {}", dump.toUtf8(), e);
+            }
+        }
+        return documents;
     }
 
     static Document fromDump(String dump) throws IOException {
-        Map<String,Object> map = asMap(dump);
-        Object idObject = map.get(ID);
-        if (idObject == null) {
-            throw new RuntimeException("Unable to retrieve the id from the document: \n" + dump);
+        return fromDump(new BytesArray(dump));
+    }
+
+    static Document fromDump(BytesReference dump) throws IOException {
+        TopLevelFields fields = TopLevelFields.scan(dump);
+        if (fields.id == null) {
+            throw new RuntimeException("Unable to retrieve the id from the document: \n" + dump.toUtf8());
         }
-        map.remove(ID);
+        return new Document(dump, fields.toObject(null), fields.index, fields.type, fields.id);
+    }
 
+    static Document fromSource(BytesReference source, String index, String type, String id) throws IOException {
+        BytesReference jsonSource = source;
+        if (XContentFactory.xContentType(source) != XContentType.JSON || containsNewLine(source)) {
+            //the dump is line based, the source needs to be json and to fit on a single line
+            jsonSource = new BytesArray(XContentHelper.convertToJson(source, true));
+        }
 
-        Document document = new Document(dump, idObject.toString());
+        BytesReference metadata = XContentFactory.jsonBuilder().startObject()
+                .field(INDEX, index).field(TYPE, type).field(ID, id).endObject().bytes();
 
-        Object typeObject = map.get(TYPE);
-        if (typeObject != null) {
-            map.remove(TYPE);
-            document.setType(typeObject.toString());
-        }
+        //metadata fields already contained in the source are left out, the ones given here win
+        TopLevelFields fields = TopLevelFields.scan(jsonSource);
+        return new Document(fields.toObject(metadata), jsonSource, index, type, id);
+    }
 
-        Object indexObject = map.get(INDEX);
-        if (indexObject != null) {
-            map.remove(INDEX);
-            document.setIndex(indexObject.toString());
+    /**
+     * Creates a document whose source is encoded in smile, converting the given source if needed
+     */
+    static Document fromSmileSource(BytesReference source, String index, String type, String id) throws IOException {
+        BytesReference smileSource = source;
+        if (XContentFactory.xContentType(source) != XContentType.SMILE) {
+            XContentParser parser = XContentFactory.xContent(source).createParser(source);
+            try {
+                parser.nextToken();
+                smileSource = XContentFactory.smileBuilder().copyCurrentStructure(parser).bytes();
+            } finally {
+                parser.close();
+            }
         }
+        return new Document(null, smileSource, index, type, id);
+    }
+
+    /**
+     * Creates a document given its metadata and its source, as read from a binary dump
+     */
+    static Document fromBinary(BytesReference source, String index, String type, String id) {
+        return new Document(null, source, index, type, id);
+    }
 
-        document.setDocument(asString(map));
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean containsNewLine(BytesReference bytesReference) {
+        BytesArray bytesArray = bytesReference.toBytesArray();
+        byte[] bytes = bytesArray.array();
+        int end = bytesArray.arrayOffset() + bytesArray.length();
+        for (int i = bytesArray.arrayOffset(); i < end; i++) {
+            byte b = bytes[i];
+            if (b == '\n' || b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        return document;
+    private static IOException malformed(BytesReference document) {
+        return new IOException("Malformed document: \n" + document.toUtf8());
     }
 
-    static Document fromSource(String document, String index, String type, String id) throws IOException {
-        Map<String, Object> map = asMap(document);
-        map.put(ID, id);
-        map.put(INDEX, index);
-        map.put(TYPE, type);
+    /**
+     * Top level fields of a json object, found by walking the tokens and skipping the children of every field.
+     * The metadata fields are read (first occurrence wins) while the other fields are kept as byte ranges
+     * into the original buffer, so that they can be copied as they are.
+     */
+    private static class TopLevelFields {
+
+        private final byte[] bytes;
+        private String id;
+        private String index;
+        private String type;
+        //start and end offsets of the fields that are not metadata fields
+        private int[] ranges = new int[16];
+        private int size;
+
+        private TopLevelFields(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        static TopLevelFields scan(BytesReference json) throws IOException {
+            BytesArray bytesArray = json.toBytesArray();
+            TopLevelFields fields = new TopLevelFields(bytesArray.array());
+            JsonParser parser = jsonFactory.createParser(bytesArray.array(), bytesArray.arrayOffset(), bytesArray.length());
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw malformed(json);
+                }
+                JsonToken token = parser.nextToken();
+                while (token == JsonToken.FIELD_NAME) {
+                    int fieldStart = fields.fieldStart(tokenStart(parser));
+                    String name = parser.getCurrentName();
+                    token = parser.nextToken();
+                    String value = null;
+                    if (token != null && token.isScalarValue()) {
+                        value = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                    boolean metadata = fields.metadata(name, value);
+                    token = parser.nextToken();
+                    if (token == null) {
+                        throw malformed(json);
+                    }
+                    if (!metadata) {
+                        fields.add(fieldStart, fields.fieldEnd(tokenStart(parser)));
+                    }
+                }
+                if (token != JsonToken.END_OBJECT) {
+                    throw malformed(json);
+                }
+            } catch(JsonProcessingException e) {
+                throw new IOException("Malformed document: \n" + json.toUtf8(), e);
+            } finally {
+                parser.close();
+            }
+            return fields;
+        }
 
-        Document doc = new Document(asString(map), id);
-        doc.setDocument(document);
-        doc.setIndex(index);
-        doc.setType(type);
-        return doc;
+        /**
+         * The byte based parser exposes the absolute position of the current token within the
+         * buffer as character offset, while the byte offset is left unset
+         */
+        private static int tokenStart(JsonParser parser) {
+            JsonLocation location = parser.getTokenLocation();
+            return (int) (location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset());
+        }
+
+        private boolean metadata(String name, String value) {
+            if (ID.equals(name)) {
+                if (id == null) {
+                    id = value;
+                }
+                return true;
+            }
+            if (INDEX.equals(name)) {
+                if (index == null) {
+                    index = value;
+                }
+                return true;
+            }
+            if (TYPE.equals(name)) {
+                if (type == null) {
+                    type = value;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * The location of a field name may include the comma that precedes it, moves to its opening quote
+         */
+        private int fieldStart(int tokenStart) {
+            int pos = tokenStart;
+            while (bytes[pos] != '"') {
+                pos++;
+            }
+            return pos;
+        }
+
+        /**
+         * Goes back from the beginning of the next token to the end of the current field value,
+         * skipping the comma and the whitespaces in between
+         */
+        private int fieldEnd(int nextTokenStart) {
+            int pos = nextTokenStart;
+            while (isWhitespace(bytes[pos - 1])) {
+                pos--;
+            }
+            if (bytes[pos - 1] == ',') {
+                pos--;
+                while (isWhitespace(bytes[pos - 1])) {
+                    pos--;
+                }
+            }
+            return pos;
+        }
+
+        private void add(int start, int end) {
+            if (size + 2 > ranges.length) {
+                int[] newRanges = new int[ranges.length * 2];
+                System.arraycopy(ranges, 0, newRanges, 0, size);
+                ranges = newRanges;
+            }
+            ranges[size++] = start;
+            ranges[size++] = end;
+        }
+
+        /**
+         * Copies the fields into a new json object, preceded by the fields of the given object if any
+         */
+        BytesReference toObject(BytesReference prefix) {
+            BytesArray prefixArray = prefix == null ? null : prefix.toBytesArray();
+            //the prefix object without its closing bracket, or just the opening bracket
+            int prefixLength = prefixArray == null ? 1 : prefixArray.length() - 1;
+            int length = prefixLength + 1;
+            for (int i = 0; i < size; i += 2) {
+                length += ranges[i + 1] - ranges[i] + 1;
+            }
+            if (size > 0 && prefixArray == null) {
+                length--;
+            }
+            byte[] object = new byte[length];
+            if (prefixArray == null) {
+                object[0] = '{';
+            } else {
+                System.arraycopy(prefixArray.array(), prefixArray.arrayOffset(), object, 0, prefixLength);
+            }
+            int pos = prefixLength;
+            for (int i = 0; i < size; i += 2) {
+                if (i > 0 || prefixArray != null) {
+                    object[pos++] = ',';
+                }
+                int fieldLength = ranges[i + 1] - ranges[i];
+                System.arraycopy(bytes, ranges[i], object, pos, fieldLength);
+                pos += fieldLength;
+            }
+            object[pos] = '}';
+            return new BytesArray(object);
+        }
     }
 }
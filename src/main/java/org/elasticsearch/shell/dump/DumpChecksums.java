@@ -0,0 +1,75 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Luca Cavanna
+ *
+ * CRC32 checksums of a dump file, computed while writing it: one for the whole file and one per chunk.
+ * A chunk is a block of a binary dump or a fixed number of lines of a plain dump, which allows to point out
+ * the corrupted ranges of a dump when verifying it.
+ */
+class DumpChecksums {
+
+    private final long length;
+    private final long checksum;
+    private final List<Chunk> chunks;
+
+    DumpChecksums(long length, long checksum, List<Chunk> chunks) {
+        this.length = length;
+        this.checksum = checksum;
+        this.chunks = Collections.unmodifiableList(new ArrayList<Chunk>(chunks));
+    }
+
+    /**
+     * @return the length of the file in bytes
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return the checksum of the whole file
+     */
+    long checksum() {
+        return checksum;
+    }
+
+    List<Chunk> chunks() {
+        return chunks;
+    }
+
+    static class Chunk {
+        final long offset;
+        final long length;
+        final int documents;
+        final long checksum;
+
+        Chunk(long offset, long length, int documents, long checksum) {
+            this.offset = offset;
+            this.length = length;
+            this.documents = documents;
+            this.checksum = checksum;
+        }
+    }
+}
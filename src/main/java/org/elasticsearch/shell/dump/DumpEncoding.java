@@ -0,0 +1,151 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Encoding of the documents within a binary dump
+ */
+enum DumpEncoding {
+
+    /**
+     * One json document per line, metadata fields included
+     */
+    JSON((byte) 0) {
+        @Override
+        Document fromSource(BytesReference source, String index, String type, String id) throws IOException {
+            return Document.fromSource(source, index, type, id);
+        }
+
+        @Override
+        void write(Document document, DataOutputStream outputStream) throws IOException {
+            document.getDump().writeTo(outputStream);
+            outputStream.write('\n');
+        }
+
+        @Override
+        List<Document> read(byte[] bytes, int offset, int length, int numDocuments) {
+            List<BytesReference> dumps = new ArrayList<BytesReference>(numDocuments);
+            int start = offset;
+            for (int i = offset; i < offset + length; i++) {
+                if (bytes[i] == '\n') {
+                    dumps.add(new BytesArray(bytes, start, i - start));
+                    start = i + 1;
+                }
+            }
+            return Document.fromDumps(dumps);
+        }
+    },
+
+    /**
+     * Length prefixed records made of index, type and id followed by the smile source of the document,
+     * which can be sent as it is with index requests
+     */
+    SMILE((byte) 1) {
+        @Override
+        Document fromSource(BytesReference source, String index, String type, String id) throws IOException {
+            return Document.fromSmileSource(source, index, type, id);
+        }
+
+        @Override
+        void write(Document document, DataOutputStream outputStream) throws IOException {
+            outputStream.writeUTF(document.getIndex());
+            outputStream.writeUTF(document.getType());
+            outputStream.writeUTF(document.getId());
+            outputStream.writeInt(document.getSource().length());
+            document.getSource().writeTo(outputStream);
+        }
+
+        @Override
+        List<Document> read(byte[] bytes, int offset, int length, int numDocuments) throws IOException {
+            List<Document> documents = new ArrayList<Document>(numDocuments);
+            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes, offset, length);
+            DataInputStream inputStream = new DataInputStream(byteArrayInputStream);
+            int end = offset + length;
+            while (byteArrayInputStream.available() > 0) {
+                String index = inputStream.readUTF();
+                String type = inputStream.readUTF();
+                String id = inputStream.readUTF();
+                int sourceLength = inputStream.readInt();
+                int sourceOffset = end - byteArrayInputStream.available();
+                if (sourceLength < 0 || sourceOffset + sourceLength > end) {
+                    throw new IOException("Corrupted smile record for document [" + index + "][" + type + "][" + id + "]");
+                }
+                documents.add(Document.fromBinary(new BytesArray(bytes, sourceOffset, sourceLength), index, type, id));
+                inputStream.skipBytes(sourceLength);
+            }
+            return documents;
+        }
+    };
+
+    private final byte id;
+
+    DumpEncoding(byte id) {
+        this.id = id;
+    }
+
+    byte id() {
+        return id;
+    }
+
+    /**
+     * Creates the document to be written out given a search hit
+     */
+    Document fromHit(SearchHit hit) throws IOException {
+        return fromSource(hit.sourceRef(), hit.index(), hit.type(), hit.id());
+    }
+
+    /**
+     * Creates the document to be written out given its json source and metadata
+     */
+    abstract Document fromSource(BytesReference source, String index, String type, String id) throws IOException;
+
+    /**
+     * Writes a document record
+     */
+    abstract void write(Document document, DataOutputStream outputStream) throws IOException;
+
+    /**
+     * Reads the document records contained in the given bytes
+     */
+    abstract List<Document> read(byte[] bytes, int offset, int length, int numDocuments) throws IOException;
+
+    static DumpEncoding fromId(byte id) throws IOException {
+        for (DumpEncoding encoding : values()) {
+            if (encoding.id == id) {
+                return encoding;
+            }
+        }
+        throw new IOException("Unknown dump encoding " + id);
+    }
+
+    static DumpEncoding fromString(String encoding) {
+        return valueOf(encoding.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Resolves the files that make a dump to be restored, which can be given as a single file, as a directory,
+ * as a glob pattern on the file name (e.g. /dumps/twitter.json.part-*) or as the path a dump has been saved to,
+ * in which case its parts are read from the manifest.
+ */
+final class DumpFiles {
+
+    private static final String[] SIDE_FILE_SUFFIXES = new String[]{DumpManifest.SUFFIX, DumpSaver.CHECKPOINT_SUFFIX,
+            DumpRestorer.CHECKPOINT_SUFFIX, DumpRestorer.DEAD_LETTER_SUFFIX, ".tmp"};
+
+    private DumpFiles() {
+
+    }
+
+    static List<File> resolve(String path) throws IOException {
+        File file = new File(path);
+        File manifest = manifest(path);
+        if (manifest != null) {
+            return DumpManifest.read(manifest).partFiles(manifest);
+        }
+        if (file.isDirectory()) {
+            return list(file, null);
+        }
+        if (isGlob(file.getName())) {
+            File directory = file.getAbsoluteFile().getParentFile();
+            return list(directory, globToPattern(file.getName()));
+        }
+        return Collections.singletonList(file);
+    }
+
+    /**
+     * @return the manifest of the dump at the given path: the only manifest within the directory if a directory is given,
+     * or the manifest saved next to the given path otherwise. Null if there is no manifest.
+     */
+    static File manifest(String path) {
+        File file = new File(path);
+        if (file.isDirectory()) {
+            File[] manifests = file.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(DumpManifest.SUFFIX);
+                }
+            });
+            return manifests != null && manifests.length == 1 ? manifests[0] : null;
+        }
+        if (isGlob(file.getName())) {
+            return null;
+        }
+        File manifest = new File(path + DumpManifest.SUFFIX);
+        return manifest.exists() ? manifest : null;
+    }
+
+    private static List<File> list(File directory, final Pattern pattern) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && !isSideFile(file.getName())
+                        && (pattern == null || pattern.matcher(file.getName()).matches());
+            }
+        });
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    private static boolean isSideFile(String name) {
+        for (String suffix : SIDE_FILE_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isGlob(String name) {
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.*;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Describes a dump made of multiple part files, written next to them once the dump is completed.
+ * Parts are referred to by file name, relative to the directory that contains the manifest.
+ * The manifest also holds settings, mappings and aliases of the dumped indices together with their document counts,
+ * so that the indices can be recreated before restoring the dump.
+ * Dumps that don't hold the whole source of all the documents, because of a query or a projection, are marked as partial.
+ * Incremental dumps record the field they are based on and its highest value saved so far, the high water mark.
+ * Every run adds a new generation of parts (the base being generation 0) containing the documents newer than the previous one.
+ * Parts carry the checksums computed while writing them, which allow to verify the dump.
+ */
+class DumpManifest {
+
+    static final String SUFFIX = ".manifest";
+
+    private final List<Part> parts = new ArrayList<Part>();
+    private final Map<String, IndexEntry> indices = new TreeMap<String, IndexEntry>();
+    private Map<String, Object> partial;
+    private String incrementalField;
+    private Long highWaterMark;
+    private int generation;
+
+    /**
+     * Adds a part to the current generation
+     * @param checksums the checksums of the part file, null if not available
+     */
+    synchronized void addPart(String path, long documents, DumpChecksums checksums) {
+        parts.add(new Part(new File(path).getName(), documents, generation, checksums));
+    }
+
+    /**
+     * Moves on to a new generation of parts, the one following the latest generation contained in the manifest
+     */
+    synchronized void nextGeneration() {
+        int latest = -1;
+        for (Part part : parts) {
+            latest = Math.max(latest, part.generation);
+        }
+        generation = latest + 1;
+    }
+
+    /**
+     * @return the parts sorted by file name
+     */
+    synchronized List<Part> parts() {
+        List<Part> sortedParts = new ArrayList<Part>(parts);
+        Collections.sort(sortedParts, new Comparator<Part>() {
+            @Override
+            public int compare(Part o1, Part o2) {
+                return o1.file.compareTo(o2.file);
+            }
+        });
+        return sortedParts;
+    }
+
+    synchronized void addIndex(String index, Map<String, String> settings, Map<String, Map<String, Object>> mappings,
+                               Map<String, Map<String, Object>> aliases) {
+        IndexEntry indexEntry = new IndexEntry(index, settings, mappings, aliases);
+        //keeps counting the documents saved by previous runs of an incremental dump
+        IndexEntry previous = indices.get(index);
+        if (previous != null) {
+            indexEntry.documents = previous.documents;
+        }
+        indices.put(index, indexEntry);
+    }
+
+    /**
+     * Adds the given number of saved documents to the count of the given index
+     */
+    synchronized void addDocuments(String index, long documents) {
+        IndexEntry indexEntry = indices.get(index);
+        if (indexEntry == null) {
+            indexEntry = new IndexEntry(index, Collections.<String, String>emptyMap(),
+                    Collections.<String, Map<String, Object>>emptyMap(), Collections.<String, Map<String, Object>>emptyMap());
+            indices.put(index, indexEntry);
+        }
+        indexEntry.documents += documents;
+    }
+
+    /**
+     * @return the indices sorted by name
+     */
+    synchronized List<IndexEntry> indices() {
+        return new ArrayList<IndexEntry>(indices.values());
+    }
+
+    /**
+     * Marks the dump as partial, given the description of what it contains (e.g. query and projection)
+     */
+    synchronized void partial(Map<String, Object> partial) {
+        this.partial = partial;
+    }
+
+    /**
+     * @return the description of what a partial dump contains, null if the dump is complete
+     */
+    synchronized Map<String, Object> partial() {
+        return partial;
+    }
+
+    synchronized void incremental(String incrementalField, long highWaterMark) {
+        this.incrementalField = incrementalField;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return the field an incremental dump is based on, null if the dump is not incremental
+     */
+    synchronized String incrementalField() {
+        return incrementalField;
+    }
+
+    /**
+     * @return the value of the incremental field the next run starts from: the documents below it have been saved,
+     * the ones equal to it are left to the next run. Null if the dump is not incremental or empty
+     */
+    synchronized Long highWaterMark() {
+        return highWaterMark;
+    }
+
+    synchronized long documents() {
+        long documents = 0;
+        for (Part part : parts) {
+            documents += part.documents;
+        }
+        return documents;
+    }
+
+    /**
+     * @return the part files, resolved against the directory that contains the given manifest file
+     */
+    List<File> partFiles(File manifestFile) {
+        List<File> files = new ArrayList<File>();
+        for (Part part : parts()) {
+            files.add(new File(manifestFile.getAbsoluteFile().getParentFile(), part.file));
+        }
+        return files;
+    }
+
+    /**
+     * @return the part files grouped by generation, in the order the generations need to be restored
+     */
+    List<List<File>> generationFiles(File manifestFile) {
+        SortedMap<Integer, List<File>> generations = new TreeMap<Integer, List<File>>();
+        for (Part part : parts()) {
+            List<File> files = generations.get(part.generation);
+            if (files == null) {
+                files = new ArrayList<File>();
+                generations.put(part.generation, files);
+            }
+            files.add(new File(manifestFile.getAbsoluteFile().getParentFile(), part.file));
+        }
+        return new ArrayList<List<File>>(generations.values());
+    }
+
+    void write(File file) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().prettyPrint().startObject();
+        builder.field("documents", documents());
+        Map<String, Object> partial = partial();
+        if (partial != null) {
+            builder.field("partial", partial);
+        }
+        if (incrementalField() != null) {
+            builder.startObject("incremental").field("field", incrementalField());
+            if (highWaterMark() != null) {
+                builder.field("high_water_mark", highWaterMark().longValue());
+            }
+            builder.endObject();
+        }
+        builder.startObject("indices");
+        for (IndexEntry index : indices()) {
+            builder.startObject(index.name, XContentBuilder.FieldCaseConversion.NONE);
+            builder.field("documents", index.documents);
+            builder.startObject("settings");
+            for (Map.Entry<String, String> setting : index.settings.entrySet()) {
+                builder.field(setting.getKey(), setting.getValue());
+            }
+            builder.endObject();
+            writeMaps(builder, "mappings", index.mappings);
+            writeMaps(builder, "aliases", index.aliases);
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.startArray("parts");
+        for (Part part : parts()) {
+            builder.startObject().field("file", part.file).field("documents", part.documents)
+                    .field("generation", part.generation);
+            if (part.checksums != null) {
+                builder.field("length", part.checksums.length()).field("crc32", part.checksums.checksum());
+                //chunks are written as arrays of offset, length, documents and checksum to keep the manifest compact
+                builder.startArray("chunks");
+                for (DumpChecksums.Chunk chunk : part.checksums.chunks()) {
+                    builder.startArray().value(chunk.offset).value(chunk.length).value(chunk.documents)
+                            .value(chunk.checksum).endArray();
+                }
+                builder.endArray();
+            }
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            builder.bytes().writeTo(outputStream);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static DumpManifest read(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        Map<String, Object> map;
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            new DataInputStream(inputStream).readFully(bytes);
+            map = XContentFactory.xContent(XContentType.JSON).createParser(bytes).mapAndClose();
+        } finally {
+            inputStream.close();
+        }
+        DumpManifest manifest = new DumpManifest();
+        Object parts = map.get("parts");
+        if (!(parts instanceof List)) {
+            throw new IOException("Invalid manifest " + file + ", parts are missing");
+        }
+        for (Map<String, Object> part : (List<Map<String, Object>>) parts) {
+            Object generation = part.get("generation");
+            manifest.parts.add(new Part(part.get("file").toString(), ((Number) part.get("documents")).longValue(),
+                    generation instanceof Number ? ((Number) generation).intValue() : 0, readChecksums(part)));
+        }
+        if (map.get("partial") instanceof Map) {
+            manifest.partial = asMap(map.get("partial"));
+        }
+        if (map.get("incremental") instanceof Map) {
+            Map<String, Object> incremental = asMap(map.get("incremental"));
+            manifest.incrementalField = String.valueOf(incremental.get("field"));
+            Object highWaterMark = incremental.get("high_water_mark");
+            manifest.highWaterMark = highWaterMark instanceof Number ? ((Number) highWaterMark).longValue() : null;
+        }
+        //manifests written by older versions don't hold the indices
+        Object indices = map.get("indices");
+        if (indices instanceof Map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) indices).entrySet()) {
+                Map<String, Object> index = (Map<String, Object>) entry.getValue();
+                Map<String, String> settings = new TreeMap<String, String>();
+                for (Map.Entry<String, Object> setting : asMap(index.get("settings")).entrySet()) {
+                    settings.put(setting.getKey(), String.valueOf(setting.getValue()));
+                }
+                IndexEntry indexEntry = new IndexEntry(entry.getKey(), settings,
+                        readMaps(index.get("mappings")), readMaps(index.get("aliases")));
+                Object documents = index.get("documents");
+                indexEntry.documents = documents instanceof Number ? ((Number) documents).longValue() : 0;
+                manifest.indices.put(indexEntry.name, indexEntry);
+            }
+        }
+        return manifest;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DumpChecksums readChecksums(Map<String, Object> part) {
+        if (!(part.get("crc32") instanceof Number)) {
+            return null;
+        }
+        List<DumpChecksums.Chunk> chunks = new ArrayList<DumpChecksums.Chunk>();
+        if (part.get("chunks") instanceof List) {
+            for (List<Number> chunk : (List<List<Number>>) part.get("chunks")) {
+                chunks.add(new DumpChecksums.Chunk(chunk.get(0).longValue(), chunk.get(1).longValue(),
+                        chunk.get(2).intValue(), chunk.get(3).longValue()));
+            }
+        }
+        return new DumpChecksums(((Number) part.get("length")).longValue(), ((Number) part.get("crc32")).longValue(), chunks);
+    }
+
+    private static void writeMaps(XContentBuilder builder, String name, Map<String, Map<String, Object>> maps)
+            throws IOException {
+        builder.startObject(name);
+        for (Map.Entry<String, Map<String, Object>> entry : maps.entrySet()) {
+            builder.field(entry.getKey(), entry.getValue());
+        }
+        builder.endObject();
+    }
+
+    private static Map<String, Map<String, Object>> readMaps(Object value) {
+        Map<String, Map<String, Object>> maps = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, Object> entry : asMap(value).entrySet()) {
+            maps.put(entry.getKey(), asMap(entry.getValue()));
+        }
+        return maps;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        if (value instanceof Map) {
+            return (Map<String, Object>) value;
+        }
+        return Collections.emptyMap();
+    }
+
+    static class IndexEntry {
+        final String name;
+        final Map<String, String> settings;
+        final Map<String, Map<String, Object>> mappings;
+        final Map<String, Map<String, Object>> aliases;
+        long documents;
+
+        IndexEntry(String name, Map<String, String> settings, Map<String, Map<String, Object>> mappings,
+                   Map<String, Map<String, Object>> aliases) {
+            this.name = name;
+            this.settings = settings;
+            this.mappings = mappings;
+            this.aliases = aliases;
+        }
+    }
+
+    static class Part {
+        final String file;
+        final long documents;
+        final int generation;
+        final DumpChecksums checksums;
+
+        Part(String file, long documents, int generation, DumpChecksums checksums) {
+            this.file = file;
+            this.documents = documents;
+            this.generation = generation;
+            this.checksums = checksums;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Restricts the part of the documents that gets dumped, either through source filtering (include and exclude patterns,
+ * requested as a partial field) or through a list of fields, so that only the needed data is fetched and written.
+ */
+class DumpProjection {
+
+    private static final String PARTIAL_FIELD = "_dump";
+
+    private final String[] includes;
+    private final String[] excludes;
+    private final String[] fields;
+
+    DumpProjection(String[] includes, String[] excludes, String[] fields) {
+        if (fields.length > 0 && (includes.length > 0 || excludes.length > 0)) {
+            throw new IllegalArgumentException("fields cannot be provided together with includes or excludes");
+        }
+        this.includes = includes;
+        this.excludes = excludes;
+        this.fields = fields;
+    }
+
+    /**
+     * @return true if the whole source of the documents is dumped
+     */
+    boolean isEmpty() {
+        return includes.length == 0 && excludes.length == 0 && fields.length == 0;
+    }
+
+    /**
+     * Requests the projected fields in place of the whole source
+     */
+    void apply(SearchRequestBuilder searchRequest) {
+        if (fields.length > 0) {
+            searchRequest.addFields(fields);
+        } else if (!isEmpty()) {
+            searchRequest.addPartialField(PARTIAL_FIELD, includes, excludes);
+        }
+    }
+
+    /**
+     * Creates the document to be written out given a search hit, which contains the projected fields only
+     */
+    Document toDocument(SearchHit hit, DumpEncoding encoding) throws IOException {
+        if (isEmpty()) {
+            return encoding.fromHit(hit);
+        }
+        XContentBuilder builder = encoding == DumpEncoding.SMILE ? XContentFactory.smileBuilder() : XContentFactory.jsonBuilder();
+        builder.map(projectedSource(hit));
+        return encoding.fromSource(builder.bytes(), hit.index(), hit.type(), hit.id());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> projectedSource(SearchHit hit) {
+        if (fields.length == 0) {
+            SearchHitField partialField = hit.field(PARTIAL_FIELD);
+            if (partialField == null || partialField.getValue() == null) {
+                return Collections.emptyMap();
+            }
+            return partialField.getValue();
+        }
+        Map<String, Object> source = new LinkedHashMap<String, Object>();
+        for (SearchHitField field : hit.fields().values()) {
+            source.put(field.getName(), field.getValues().size() == 1 ? field.getValue() : field.getValues());
+        }
+        return source;
+    }
+
+    /**
+     * @return the projection as recorded in the dump manifest
+     */
+    Map<String, Object> asMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("includes", Arrays.asList(includes));
+        map.put("excludes", Arrays.asList(excludes));
+        map.put("fields", Arrays.asList(fields));
+        return map;
+    }
+}
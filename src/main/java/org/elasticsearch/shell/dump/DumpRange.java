@@ -0,0 +1,116 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Range of a dump that can be restored independently from the rest of the dump
+ */
+class DumpRange {
+
+    final long start;
+    final long end;
+
+    DumpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits a plain dump into ranges of roughly the same size, each one starting at the beginning of a line
+     */
+    static List<DumpRange> splitLines(File file, int count) throws IOException {
+        List<DumpRange> ranges = new ArrayList<DumpRange>(count);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length();
+            long start = 0;
+            for (int i = 1; i <= count && start < length; i++) {
+                long end = i == count ? length : lineStart(randomAccessFile, Math.max(start, length * i / count));
+                if (end > start) {
+                    ranges.add(new DumpRange(start, end));
+                    start = end;
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the offset of the first line that starts at or after the given offset
+     */
+    private static long lineStart(RandomAccessFile file, long offset) throws IOException {
+        if (offset == 0) {
+            return 0;
+        }
+        //looks for the new line from the previous byte, since the offset might be the beginning of a line already
+        long position = offset - 1;
+        file.seek(position);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = file.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return file.length();
+    }
+
+    /**
+     * Splits a binary dump into ranges of contiguous blocks, containing roughly the same number of documents
+     */
+    static List<DumpRange> splitBlocks(File file, int count) throws IOException {
+        List<BlockDumpReader.BlockInfo> blocks = BlockDumpReader.readIndex(file);
+        long totalDocuments = 0;
+        for (BlockDumpReader.BlockInfo block : blocks) {
+            totalDocuments += block.documents;
+        }
+        List<DumpRange> ranges = new ArrayList<DumpRange>(count);
+        long documents = 0;
+        int range = 1;
+        long start = -1;
+        for (BlockDumpReader.BlockInfo block : blocks) {
+            if (start < 0) {
+                start = block.offset;
+            } else if (documents >= totalDocuments * range / count) {
+                ranges.add(new DumpRange(start, block.offset));
+                start = block.offset;
+                range++;
+            }
+            documents += block.documents;
+        }
+        if (start >= 0) {
+            //the last range ends where the blocks end
+            ranges.add(new DumpRange(start, Long.MAX_VALUE));
+        }
+        return ranges;
+    }
+}
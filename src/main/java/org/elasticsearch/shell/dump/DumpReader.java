@@ -0,0 +1,55 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Reads the documents contained in a dump, a batch at a time. Reading a batch is meant to be cheap,
+ * while the expensive work (e.g. decompression and parsing) is deferred to {@link Batch#documents()}, so that it can
+ * happen on a different thread.
+ */
+interface DumpReader extends Closeable {
+
+    /**
+     * @return the next batch of documents, null if the end of the dump has been reached
+     * @throws IOException if the dump couldn't be read
+     */
+    Batch next() throws IOException;
+
+    /**
+     * Group of documents read from the dump
+     */
+    interface Batch {
+        /**
+         * @return the documents contained in the batch
+         * @throws IOException if the batch couldn't be decoded
+         */
+        List<Document> documents() throws IOException;
+
+        /**
+         * @return the offset within the dump right after the last document of the batch
+         */
+        long endOffset();
+    }
+}
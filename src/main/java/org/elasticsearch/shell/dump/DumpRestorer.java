@@ -20,13 +20,34 @@ package org.elasticsearch.shell.dump;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.AliasAction;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.shell.bulk.AdaptiveBulkProcessor;
+import org.elasticsearch.shell.bulk.FastLoad;
+import org.elasticsearch.shell.bulk.RetryingBulkListener;
 import org.elasticsearch.shell.console.Console;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +62,21 @@ public class DumpRestorer {
 
     private static final Logger logger = LoggerFactory.getLogger(DumpRestorer.class);
 
+    private static final int BATCH_SIZE = 100;
+    static final String CHECKPOINT_SUFFIX = ".restore-checkpoint";
+    static final String DEAD_LETTER_SUFFIX = ".failed";
+    private static final DumpReader.Batch END_OF_DUMP = new DumpReader.Batch() {
+        @Override
+        public List<Document> documents() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long endOffset() {
+            return -1;
+        }
+    };
+
     private final Console<PrintStream> console;
 
     @Inject
@@ -50,56 +86,606 @@ public class DumpRestorer {
 
     protected void dumpRestore(Client client, Builder builder) throws IOException {
 
-        BulkProcessor bulkProcessor = buildBulkProcessor(client);
-        BufferedReader reader = null;
+        if (builder.createIndices()) {
+            createIndices(client, builder);
+        }
+
+        if (!builder.fastLoad()) {
+            restore(client, builder);
+            return;
+        }
+
+        FastLoad fastLoad = FastLoad.start(client, fastLoadIndices(builder));
+        console.println("Disabled refresh and replicas of indices " + Arrays.toString(fastLoad.indices()) + " while restoring");
+        boolean completed = false;
+        try {
+            restore(client, builder);
+            completed = true;
+        } finally {
+            try {
+                fastLoad.close();
+                console.println("Restored the original settings of indices " + Arrays.toString(fastLoad.indices()));
+            } catch (IOException e) {
+                //the failure that made the restore stop is the one to be thrown
+                if (completed) {
+                    throw e;
+                }
+                logger.error("Error while restoring the original settings of indices {}", Arrays.toString(fastLoad.indices()), e);
+                console.println(e.getMessage());
+            }
+        }
+        if (builder.maxNumSegments() > 0) {
+            console.println("Optimizing indices " + Arrays.toString(fastLoad.indices()) + " to " + builder.maxNumSegments()
+                    + " segments");
+            fastLoad.optimize(builder.maxNumSegments());
+        }
+    }
+
+    /**
+     * @return the indices the documents are restored into: the index provided or the ones listed in the manifest
+     */
+    private String[] fastLoadIndices(Builder builder) throws IOException {
+        if (builder.index() != null) {
+            return new String[]{builder.index()};
+        }
+        File manifestFile = DumpFiles.manifest(builder.path());
+        if (manifestFile == null) {
+            throw new IllegalArgumentException("Unable to determine the indices to fast load, no index provided and "
+                    + "no manifest found for " + builder.path());
+        }
+        List<String> indices = new ArrayList<String>();
+        for (DumpManifest.IndexEntry indexEntry : DumpManifest.read(manifestFile).indices()) {
+            indices.add(indexEntry.name);
+        }
+        return indices.toArray(new String[indices.size()]);
+    }
+
+    /**
+     * Restores the dump displaying its progress. The number of documents to restore is known only when the dump has a manifest,
+     * otherwise the progress relies on the bytes read out of the size of the dump.
+     */
+    private void restore(final Client client, final Builder builder) throws IOException {
+        final TransferProgress progress = new TransferProgress("Restored", builder.metricsPath());
+        File manifestFile = DumpFiles.manifest(builder.path());
+        if (manifestFile != null) {
+            DumpManifest manifest = DumpManifest.read(manifestFile);
+            if (manifest.partial() != null) {
+                console.println("Warning: restoring a partial dump, which only contains " + manifest.partial());
+            }
+            if (!builder.resume()) {
+                progress.expectedDocuments(manifest.documents());
+            }
+        }
+        try {
+            progress.run(console, new TransferProgress.Task() {
+                @Override
+                public void run() throws IOException {
+                    restore(client, builder, progress);
+                }
+            });
+        } finally {
+            progress.close();
+        }
+    }
+
+    private void restore(Client client, Builder builder, TransferProgress progress) throws IOException {
+
+        List<File> parts = DumpFiles.resolve(builder.path());
+        if (parts.size() != 1 || !parts.get(0).getAbsoluteFile().equals(new File(builder.path()).getAbsoluteFile())) {
+            if (builder.resume()) {
+                throw new IllegalArgumentException("resume is not supported when restoring a dump made of multiple parts");
+            }
+            //incremental dumps are restored one generation after another, starting from the base
+            File manifestFile = DumpFiles.manifest(builder.path());
+            List<List<File>> generations = manifestFile == null ? Collections.singletonList(parts)
+                    : DumpManifest.read(manifestFile).generationFiles(manifestFile);
+            partsDumpRestore(client, builder, generations, progress);
+            return;
+        }
+
+        if (builder.workers() > 1) {
+            if (builder.resume()) {
+                throw new IllegalArgumentException("resume is not supported when restoring with multiple workers");
+            }
+            parallelDumpRestore(client, builder, progress);
+            return;
+        }
+
+        File dump = new File(builder.path());
+        File checkpointFile = new File(builder.path() + CHECKPOINT_SUFFIX);
+        long startOffset = builder.resume() ? RestoreCheckpoint.load(checkpointFile, dump) : 0;
+        if (startOffset > 0) {
+            progress.println("Resuming restore of " + dump + " from offset " + startOffset);
+        }
+        RestoreCheckpoint checkpoint = new RestoreCheckpoint(checkpointFile, dump, startOffset);
+        progress.expectedBytes(dump.length() - startOffset);
+
+        RetryingBulkListener bulkListener = bulkListenerBuilder(client, builder, checkpoint, progress).build();
+        AdaptiveBulkProcessor bulkProcessor = buildBulkProcessor(client, bulkListener, builder);
+        bulkListener.retryThrough(bulkProcessor);
+        BlockingQueue<DumpReader.Batch> queue = new ArrayBlockingQueue<DumpReader.Batch>(builder.queueSize());
+        AtomicReference<Throwable> parseFailure = new AtomicReference<Throwable>();
+        ExecutorService parsers = Executors.newFixedThreadPool(builder.parsers());
+        for (int i = 0; i < builder.parsers(); i++) {
+            parsers.execute(new Parser(queue, bulkProcessor, checkpoint, builder.index(), builder.type(), parseFailure));
+        }
+
+        DumpReader reader = null;
+        long endOffset = startOffset;
+        boolean fullyRead = false;
+        try {
+            reader = openReader(dump, builder.charset(), startOffset);
+            DumpReader.Batch batch;
+            while ((batch = reader.next()) != null) {
+                checkpoint.read(batch);
+                handOver(queue, batch, parseFailure);
+                progress.bytes(batch.endOffset() - endOffset);
+                endOffset = batch.endOffset();
+            }
+            fullyRead = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the dump", e);
+        } finally {
+            try {
+                stopParsers(queue, parsers, builder.parsers(), parseFailure);
+            } finally {
+                bulkProcessor.close();
+                bulkListener.close();
+                RestoreSummary summary = new RestoreSummary();
+                summary.add(bulkListener);
+                printSummary(summary, builder, progress);
+                if (reader != null) {
+                    reader.close();
+                }
+                if (fullyRead && checkpoint.acknowledgedOffset() >= endOffset) {
+                    checkpoint.delete();
+                } else {
+                    checkpoint.write();
+                    progress.println("The restore didn't complete, it can be resumed from offset "
+                            + checkpoint.acknowledgedOffset() + " using resume(true)");
+                }
+            }
+        }
+        ensureParsed(parseFailure);
+    }
+
+    /**
+     * Creates the indices recorded in the manifest of the dump, with their settings, mappings and aliases,
+     * and waits for them to be allocated. Indices that already exist are left untouched.
+     * When the index (or type) is overridden, the manifest is required to hold a single index (or type).
+     */
+    private void createIndices(Client client, Builder builder) throws IOException {
+        File manifestFile = DumpFiles.manifest(builder.path());
+        if (manifestFile == null) {
+            throw new IllegalArgumentException("Unable to create the indices, no manifest found for " + builder.path());
+        }
+        List<DumpManifest.IndexEntry> indices = DumpManifest.read(manifestFile).indices();
+        if (builder.index() != null && indices.size() > 1) {
+            throw new IllegalArgumentException("Unable to create index [" + builder.index() + "], the dump contains "
+                    + indices.size() + " indices");
+        }
+
+        for (DumpManifest.IndexEntry indexEntry : indices) {
+            String index = builder.index() == null ? indexEntry.name : builder.index();
+            if (client.admin().indices().prepareExists(index).execute().actionGet().isExists()) {
+                console.println("Index [" + index + "] already exists, skipping its creation");
+                continue;
+            }
+
+            CreateIndexRequestBuilder createIndexRequest = client.admin().indices().prepareCreate(index)
+                    .setSettings(ImmutableSettings.settingsBuilder().put(creationSettings(indexEntry.settings)));
+            if (builder.type() != null && indexEntry.mappings.size() > 1) {
+                throw new IllegalArgumentException("Unable to create the mapping for type [" + builder.type()
+                        + "], index [" + indexEntry.name + "] contains " + indexEntry.mappings.size() + " types");
+            }
+            for (Map.Entry<String, Map<String, Object>> mapping : indexEntry.mappings.entrySet()) {
+                createIndexRequest.addMapping(builder.type() == null ? mapping.getKey() : builder.type(), mapping.getValue());
+            }
+            createIndexRequest.execute().actionGet();
+
+            if (!indexEntry.aliases.isEmpty()) {
+                IndicesAliasesRequestBuilder aliasesRequest = client.admin().indices().prepareAliases();
+                for (Map.Entry<String, Map<String, Object>> alias : indexEntry.aliases.entrySet()) {
+                    aliasesRequest.addAliasAction(aliasAction(index, alias.getKey(), alias.getValue()));
+                }
+                aliasesRequest.execute().actionGet();
+            }
+
+            client.admin().cluster().prepareHealth(index).setWaitForYellowStatus().execute().actionGet();
+            console.println("Created index [" + index + "] with " + indexEntry.mappings.size() + " mappings and "
+                    + indexEntry.aliases.size() + " aliases");
+        }
+    }
+
+    /**
+     * @return the settings that can be provided when creating an index, without the ones set by elasticsearch itself
+     */
+    private static Map<String, String> creationSettings(Map<String, String> settings) {
+        Map<String, String> creationSettings = new HashMap<String, String>(settings);
+        creationSettings.remove(IndexMetaData.SETTING_VERSION_CREATED);
+        return creationSettings;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AliasAction aliasAction(String index, String alias, Map<String, Object> aliasMap) {
+        AliasAction aliasAction = AliasAction.newAddAliasAction(index, alias);
+        if (aliasMap.get("filter") instanceof Map) {
+            aliasAction.filter((Map<String, Object>) aliasMap.get("filter"));
+        }
+        if (aliasMap.get("index_routing") != null) {
+            aliasAction.indexRouting(aliasMap.get("index_routing").toString());
+        }
+        if (aliasMap.get("search_routing") != null) {
+            aliasAction.searchRouting(aliasMap.get("search_routing").toString());
+        }
+        return aliasAction;
+    }
+
+    /**
+     * Splits the dump into ranges and restores each of them on its own worker, with its own bulk processor.
+     * Plain dumps are split into ranges of lines read through memory mapping, binary dumps into ranges of blocks.
+     */
+    private void parallelDumpRestore(final Client client, final Builder builder, final TransferProgress progress)
+            throws IOException {
+        final File dump = new File(builder.path());
+        final boolean blockDump = BlockDumpReader.isBlockDump(dump);
+        List<DumpRange> ranges = blockDump ? DumpRange.splitBlocks(dump, builder.workers())
+                : DumpRange.splitLines(dump, builder.workers());
+        if (ranges.isEmpty()) {
+            progress.println("Dump " + dump + " is empty, nothing to restore");
+            return;
+        }
+
+        progress.expectedBytes(dump.length());
+        final RetryingBulkListener.Builder bulkListenerBuilder = bulkListenerBuilder(client, builder, null, progress);
+        final RestoreSummary summary = new RestoreSummary();
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
         try {
-            FileInputStream fis = new FileInputStream(builder.path());
-            reader = new BufferedReader(new InputStreamReader(fis, builder.charset()));
-            String line;
-            while( (line=reader.readLine()) != null) {
-                indexLine(bulkProcessor, builder.index(), builder.type(), line);
+            for (final DumpRange range : ranges) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        DumpReader reader = blockDump ? new BlockDumpReader(dump, range.start, range.end)
+                                : new MappedDumpReader(dump, builder.charset(), BATCH_SIZE, range.start, range.end);
+                        return restoreRange(client, reader, range.start, bulkListenerBuilder, summary, progress, builder);
+                    }
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> future : futures) {
+                total += DumpSaver.waitFor(future);
             }
+            progress.println("Restored " + total + " documents using " + ranges.size() + " workers");
+        } finally {
+            executor.shutdownNow();
+            printSummary(summary, builder, progress);
+        }
+    }
 
+    /**
+     * Restores the documents read through the given reader using its own bulk processor and listener, which have both
+     * completed, retries included, when this method returns. The parts of the dump that cannot be decoded are counted
+     * as failures and skipped, as there's no checkpoint that could be resumed from them.
+     */
+    private int restoreRange(Client client, DumpReader reader, long startOffset,
+                             RetryingBulkListener.Builder bulkListenerBuilder, RestoreSummary summary,
+                             TransferProgress progress, Builder builder) throws IOException {
+        RetryingBulkListener bulkListener = bulkListenerBuilder.build();
+        AdaptiveBulkProcessor bulkProcessor = buildBulkProcessor(client, bulkListener, builder);
+        bulkListener.retryThrough(bulkProcessor);
+        int restored = 0;
+        long offset = startOffset;
+        try {
+            DumpReader.Batch batch;
+            while ((batch = reader.next()) != null) {
+                progress.bytes(batch.endOffset() - offset);
+                offset = batch.endOffset();
+                List<Document> documents;
+                try {
+                    documents = batch.documents();
+                } catch (IOException e) {
+                    summary.undecodableBatches.incrementAndGet();
+                    progress.println("Error reading from dump: " + e.getMessage());
+                    logger.error("Error reading from dump", e);
+                    continue;
+                }
+                summary.undecodableLines.addAndGet(invalidLines(batch, documents));
+                for (Document document : documents) {
+                    indexDocument(bulkProcessor, null, batch, builder.index(), builder.type(), document);
+                    restored++;
+                }
+            }
         } finally {
-            bulkProcessor.close();
-            if (reader != null) {
+            try {
+                bulkProcessor.close();
+                bulkListener.close();
+            } finally {
+                summary.add(bulkListener);
                 reader.close();
             }
         }
+        return restored;
+    }
+
+    /**
+     * Restores the parts of a dump concurrently, by default using as many threads as available processors.
+     * Parts belonging to different generations are restored in order, a generation starts once the previous one got indexed.
+     */
+    private void partsDumpRestore(final Client client, final Builder builder, List<List<File>> generations,
+                                  final TransferProgress progress) throws IOException {
+        int numParts = 0;
+        for (List<File> parts : generations) {
+            numParts += parts.size();
+            for (File part : parts) {
+                progress.expectedBytes(part.length());
+            }
+        }
+        if (numParts == 0) {
+            progress.println("No dump found at " + builder.path() + ", nothing to restore");
+            return;
+        }
+
+        int threads = builder.workers() > 1 ? builder.workers() : Runtime.getRuntime().availableProcessors();
+        final RetryingBulkListener.Builder bulkListenerBuilder = bulkListenerBuilder(client, builder, null, progress);
+        final RestoreSummary summary = new RestoreSummary();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, numParts));
+        try {
+            int total = 0;
+            for (List<File> parts : generations) {
+                List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+                for (final File part : parts) {
+                    futures.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            int restored = restoreRange(client, openReader(part, builder.charset(), 0), 0,
+                                    bulkListenerBuilder, summary, progress, builder);
+                            progress.println("Restored " + restored + " documents from " + part);
+                            return restored;
+                        }
+                    }));
+                }
+                //each part waits for its own retries, so the generation has been fully indexed once all its parts are done
+                for (Future<Integer> future : futures) {
+                    total += DumpSaver.waitFor(future);
+                }
+            }
+            progress.println("Restored " + total + " documents from " + numParts + " parts"
+                    + (generations.size() > 1 ? " in " + generations.size() + " generations" : ""));
+        } finally {
+            executor.shutdownNow();
+            printSummary(summary, builder, progress);
+        }
+    }
+
+    /**
+     * Opens the dump detecting its format: binary (smile and/or compressed blocks) or plain json lines
+     */
+    private static DumpReader openReader(File file, Charset charset, long offset) throws IOException {
+        if (BlockDumpReader.isBlockDump(file)) {
+            return offset > 0 ? new BlockDumpReader(file, offset) : new BlockDumpReader(file);
+        }
+        return new PlainDumpReader(file, charset, BATCH_SIZE, offset);
+    }
+
+    /**
+     * Hands the given batch over to the parsers, giving up as soon as one of them failed as the queue might never be drained
+     */
+    private static void handOver(BlockingQueue<DumpReader.Batch> queue, DumpReader.Batch batch,
+                                 AtomicReference<Throwable> parseFailure) throws IOException, InterruptedException {
+        do {
+            ensureParsed(parseFailure);
+        } while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS));
     }
 
-    private void indexLine(BulkProcessor bulkProcessor, String index, String type, String line) {
+    private static void ensureParsed(AtomicReference<Throwable> parseFailure) throws IOException {
+        Throwable failure = parseFailure.get();
+        if (failure != null) {
+            throw new IOException("Error while parsing the dump: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Lets the parsers drain the queue and waits for them, or interrupts them straight away if one of them failed
+     */
+    private void stopParsers(BlockingQueue<DumpReader.Batch> queue, ExecutorService parsers, int numParsers,
+                             AtomicReference<Throwable> parseFailure) throws IOException {
         try {
-            Document document = Document.fromDump(line);
-            bulkProcessor.add(Requests.indexRequest(index == null ? document.getIndex() : index)
+            for (int i = 0; i < numParsers; i++) {
+                try {
+                    handOver(queue, END_OF_DUMP, parseFailure);
+                } catch (IOException e) {
+                    parsers.shutdownNow();
+                    break;
+                }
+            }
+            parsers.shutdown();
+            parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            parsers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the dump to be parsed", e);
+        }
+    }
+
+    private void indexDocument(AdaptiveBulkProcessor bulkProcessor, RestoreCheckpoint checkpoint, DumpReader.Batch batch,
+                               String index, String type, Document document) {
+        try {
+            IndexRequest indexRequest = Requests.indexRequest(index == null ? document.getIndex() : index)
                     .type(type == null ? document.getType() : type)
-                    .id(document.getId()).source(document.getDocument()));
+                    .id(document.getId()).source(document.getSource(), false);
+            if (checkpoint != null) {
+                checkpoint.add(batch, indexRequest);
+            }
+            bulkProcessor.add(indexRequest);
         } catch(Exception e) {
-            logger.error("Error while indexing document {}", line, e);
+            logger.error("Error while indexing document {}", document.getId(), e);
         }
     }
 
-    private BulkProcessor buildBulkProcessor(Client client) {
-        return BulkProcessor.builder(client, new BulkProcessor.Listener() {
-            @Override
-            public void beforeBulk(long executionId, BulkRequest request) {
+    private AdaptiveBulkProcessor buildBulkProcessor(Client client, BulkProcessor.Listener bulkListener, Builder builder) {
+        return AdaptiveBulkProcessor.builder(client, bulkListener).maxConcurrentRequests(builder.concurrentRequests())
+                .shardAware(builder.shardAware()).build();
+    }
 
-            }
+    /**
+     * Configures the listeners that retry the rejected documents and acknowledge to the checkpoint (if any)
+     * the documents that got indexed or failed permanently. Every bulk processor needs its own listener.
+     */
+    private RetryingBulkListener.Builder bulkListenerBuilder(Client client, Builder builder,
+                                                             final RestoreCheckpoint checkpoint, TransferProgress progress) {
+        RetryingBulkListener.Builder listenerBuilder = RetryingBulkListener.builder(client, new BulkListener(progress))
+                .maxRetries(builder.maxRetries()).deadLetterPath(builder.deadLetterPath());
+        if (checkpoint != null) {
+            listenerBuilder.completionListener(new RetryingBulkListener.CompletionListener() {
+                @Override
+                public void completed(List<ActionRequest<?>> requests) {
+                    try {
+                        checkpoint.acknowledged(requests);
+                    } catch (IOException e) {
+                        logger.error("Error while writing the restore checkpoint", e);
+                    }
+                }
+            });
+        }
+        return listenerBuilder;
+    }
+
+    private void printSummary(RestoreSummary summary, Builder builder, TransferProgress progress) {
+        progress.println("Indexed " + summary.indexed.get() + " documents, " + summary.retried.get() + " retries, "
+                + summary.failed.get() + " failed");
+        if (summary.failed.get() > 0) {
+            progress.println("The failed documents have been written to " + builder.deadLetterPath());
+        }
+        if (summary.undecodableBatches.get() > 0 || summary.undecodableLines.get() > 0) {
+            progress.println("Failed to decode " + summary.undecodableBatches.get() + " batches and "
+                    + summary.undecodableLines.get() + " lines of the dump, the documents they contain have not been restored");
+        }
+    }
 
-            @Override
-            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
-                console.println("Executed bulk of " + response.getItems().length + " items");
-                if (response.hasFailures()) {
-                    console.println(response.buildFailureMessage());
+    /**
+     * @return the number of lines of the given batch that have been skipped since they couldn't be parsed as documents
+     */
+    private static int invalidLines(DumpReader.Batch batch, List<Document> documents) {
+        if (batch instanceof LineBatch) {
+            return ((LineBatch) batch).nonBlankLines() - documents.size();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the documents contained in the given batch
+     * @throws IOException if the batch cannot be decoded or some of its lines cannot be parsed as documents
+     */
+    private static List<Document> decode(DumpReader.Batch batch) throws IOException {
+        List<Document> documents = batch.documents();
+        int invalidLines = invalidLines(batch, documents);
+        if (invalidLines > 0) {
+            throw new IOException(invalidLines + " lines of the batch ending at offset " + batch.endOffset()
+                    + " cannot be parsed, dumpVerify can point them out");
+        }
+        return documents;
+    }
+
+    /**
+     * Parse stage of the restore: takes batches of lines read from the dump, converts them to index requests
+     * and hands them over to the bulk processor, which blocks when too many bulks are in flight.
+     * Any failure, including a batch that cannot be decoded, is recorded so that the whole restore stops.
+     */
+    private class Parser implements Runnable {
+
+        private final BlockingQueue<DumpReader.Batch> queue;
+        private final AdaptiveBulkProcessor bulkProcessor;
+        private final RestoreCheckpoint checkpoint;
+        private final String index;
+        private final String type;
+        private final AtomicReference<Throwable> parseFailure;
+
+        Parser(BlockingQueue<DumpReader.Batch> queue, AdaptiveBulkProcessor bulkProcessor, RestoreCheckpoint checkpoint,
+               String index, String type, AtomicReference<Throwable> parseFailure) {
+            this.queue = queue;
+            this.bulkProcessor = bulkProcessor;
+            this.checkpoint = checkpoint;
+            this.index = index;
+            this.type = type;
+            this.parseFailure = parseFailure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                DumpReader.Batch batch;
+                while ((batch = queue.take()) != END_OF_DUMP) {
+                    //a batch that cannot be decoded is never submitted, so that the checkpoint doesn't move past it
+                    for (Document document : decode(batch)) {
+                        indexDocument(bulkProcessor, checkpoint, batch, index, type, document);
+                    }
+                    checkpoint.submitted(batch);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                //stops the reader, which would otherwise block forever on the queue that nobody drains
+                parseFailure.compareAndSet(null, t);
+                logger.error("Error while parsing the dump", t);
             }
+        }
+    }
+
+    /**
+     * Totals of a restore across all its bulk listeners, together with the parts of the dump that couldn't be decoded:
+     * whole batches (e.g. corrupted blocks) and single lines that are not valid documents
+     */
+    private static class RestoreSummary {
+        private final AtomicLong indexed = new AtomicLong();
+        private final AtomicLong retried = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicInteger undecodableBatches = new AtomicInteger();
+        private final AtomicLong undecodableLines = new AtomicLong();
+
+        void add(RetryingBulkListener bulkListener) {
+            indexed.addAndGet(bulkListener.indexed());
+            retried.addAndGet(bulkListener.retried());
+            failed.addAndGet(bulkListener.failed());
+        }
+    }
+
+    /**
+     * Bulk listener that reports the failures and keeps track of documents indexed and bulk latencies
+     */
+    private class BulkListener implements BulkProcessor.Listener {
+
+        private final TransferProgress progress;
 
-            @Override
-            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
-                console.println("Error executing bulk: " + failure.getMessage());
-                logger.error("Error executing bulk", failure);
+        BulkListener(TransferProgress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            progress.latency(response.getTookInMillis());
+            int indexed = 0;
+            for (BulkItemResponse item : response.getItems()) {
+                if (!item.isFailed()) {
+                    indexed++;
+                }
+            }
+            progress.documents(indexed);
+            if (response.hasFailures()) {
+                progress.println(response.buildFailureMessage());
             }
-        }).setConcurrentRequests(0).build();
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            progress.println("Error executing bulk: " + failure.getMessage());
+            logger.error("Error executing bulk", failure);
+        }
     }
 
     public class Builder {
@@ -108,6 +694,18 @@ public class DumpRestorer {
         private String type;
         private Charset charset;
         private String path;
+        private int parsers = 1;
+        private int concurrentRequests = 4;
+        private int queueSize = 10;
+        private boolean resume;
+        private int workers = 1;
+        private int maxRetries = 5;
+        private String deadLetterPath;
+        private boolean createIndices;
+        private boolean fastLoad;
+        private int maxNumSegments;
+        private String metricsPath;
+        private boolean shardAware;
 
         public Builder(Client client) {
             this.client = client;
@@ -151,6 +749,117 @@ public class DumpRestorer {
             return charset;
         }
 
+        public Builder parsers(int parsers) {
+            this.parsers = parsers;
+            return this;
+        }
+
+        public int parsers() {
+            return parsers;
+        }
+
+        public Builder concurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public int concurrentRequests() {
+            return concurrentRequests;
+        }
+
+        public Builder queueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public int queueSize() {
+            return queueSize;
+        }
+
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public boolean resume() {
+            return resume;
+        }
+
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        public int workers() {
+            return workers;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public int maxRetries() {
+            return maxRetries;
+        }
+
+        public Builder deadLetterPath(String deadLetterPath) {
+            this.deadLetterPath = deadLetterPath;
+            return this;
+        }
+
+        public String deadLetterPath() {
+            if (deadLetterPath == null) {
+                return path + DEAD_LETTER_SUFFIX;
+            }
+            return deadLetterPath;
+        }
+
+        public Builder createIndices(boolean createIndices) {
+            this.createIndices = createIndices;
+            return this;
+        }
+
+        public boolean createIndices() {
+            return createIndices;
+        }
+
+        public Builder fastLoad(boolean fastLoad) {
+            this.fastLoad = fastLoad;
+            return this;
+        }
+
+        public boolean fastLoad() {
+            return fastLoad;
+        }
+
+        public Builder maxNumSegments(int maxNumSegments) {
+            this.maxNumSegments = maxNumSegments;
+            return this;
+        }
+
+        public int maxNumSegments() {
+            return maxNumSegments;
+        }
+
+        public Builder metricsPath(String metricsPath) {
+            this.metricsPath = metricsPath;
+            return this;
+        }
+
+        public String metricsPath() {
+            return metricsPath;
+        }
+
+        public Builder shardAware(boolean shardAware) {
+            this.shardAware = shardAware;
+            return this;
+        }
+
+        public boolean shardAware() {
+            return shardAware;
+        }
+
         public void execute() throws IOException {
             DumpRestorer.this.dumpRestore(client, this);
         }
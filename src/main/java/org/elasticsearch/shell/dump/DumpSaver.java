@@ -20,16 +20,37 @@ package org.elasticsearch.shell.dump;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsGroup;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsRequest;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableSet;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeFilterBuilder;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.facet.FacetBuilders;
+import org.elasticsearch.search.facet.statistical.StatisticalFacet;
 import org.elasticsearch.shell.console.Console;
 import org.elasticsearch.shell.json.JsonToString;
 
@@ -40,6 +61,11 @@ import org.elasticsearch.shell.json.JsonToString;
  */
 public class DumpSaver<JsonInput> {
 
+    private static final TimeValue DEFAULT_SCROLL = TimeValue.timeValueSeconds(30);
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final int WRITE_QUEUE_SIZE = 4;
+    private static final String HIGH_WATER_MARK_FACET = "high_water_mark";
+
     private final Console<PrintStream> console;
     private final JsonToString<JsonInput> jsonToString;
 
@@ -49,37 +75,393 @@ public class DumpSaver<JsonInput> {
         this.jsonToString = jsonToString;
     }
 
-    void dumpSave(Client client, Builder builder) throws IOException {
+    void dumpSave(final Client client, final Builder builder) throws IOException {
+        if (builder.resume() && builder.rotates()) {
+            throw new IllegalArgumentException("resume is not supported when rotating the dump into parts");
+        }
+        File manifestFile = new File(builder.path() + DumpManifest.SUFFIX);
+        final DumpManifest manifest;
+        final BytesReference query;
+        final AtomicInteger nextPart = new AtomicInteger();
+        if (builder.incrementalField() != null) {
+            manifest = manifestFile.exists() ? DumpManifest.read(manifestFile) : new DumpManifest();
+            query = incrementalQuery(client, builder, manifest);
+            if (query == null) {
+                return;
+            }
+            //every run writes its own parts, numbered after the existing ones
+            nextPart.set(manifest.parts().size());
+            manifest.nextGeneration();
+        } else {
+            manifest = new DumpManifest();
+            query = builder.query();
+        }
+
+        addIndicesMetaData(client, builder, manifest);
+        if (builder.query() != null || !builder.projection().isEmpty()) {
+            Map<String, Object> partial = builder.projection().asMap();
+            if (builder.query() != null) {
+                partial.put("query", XContentHelper.convertToMap(builder.query(), true).v2());
+            }
+            manifest.partial(partial);
+        }
+        final TransferProgress progress = new TransferProgress("Saved", builder.metricsPath());
+        try {
+            progress.run(console, new TransferProgress.Task() {
+                @Override
+                public void run() throws IOException {
+                    //the layout only depends on the concurrency, while a single dump file is saved shard by shard
+                    //with checkpoints only when resume is requested, otherwise a single scan is cheaper
+                    if (builder.concurrency() > 1) {
+                        parallelDumpSave(client, builder, query, manifest, nextPart, progress);
+                    } else if (builder.resume()) {
+                        sequentialDumpSave(client, builder, query, manifest, progress);
+                    } else {
+                        //when rotating, the writer takes care of numbering the parts
+                        String path = builder.incrementalField() == null || builder.rotates() ? builder.path()
+                                : partPath(builder.path(), nextPart.getAndIncrement());
+                        DumpWriter writer = newDumpWriter(path, builder, manifest, nextPart);
+                        int saved = save(client, scanRequest(client, builder, query, builder.indices()), writer, path,
+                                manifest, progress, builder);
+                        if (!builder.rotates()) {
+                            manifest.addPart(path, saved, writer.checksums());
+                        }
+                    }
+                }
+            });
+        } finally {
+            progress.close();
+        }
+        manifest.write(manifestFile);
+    }
+
+    /**
+     * Reads the current high water mark of the incremental field and records it in the manifest
+     * @return the query that selects the documents from the previous high water mark (included) up to the current one
+     * (excluded), or null if there are no new documents to save
+     */
+    private BytesReference incrementalQuery(Client client, Builder builder, DumpManifest manifest) throws IOException {
+        if (builder.concurrency() > 1 || builder.resume()) {
+            throw new IllegalArgumentException("concurrency and resume are not supported by incremental dumps");
+        }
+        String field = builder.incrementalField();
+        if (!manifest.parts().isEmpty() && !field.equals(manifest.incrementalField())) {
+            throw new IllegalArgumentException("The existing dump at " + builder.path()
+                    + " is not an incremental dump based on field [" + field + "]");
+        }
 
-        TimeValue scrollDuration = TimeValue.timeValueSeconds(30);
-        SearchResponse searchResponse = client.prepareSearch(builder.indices())
-                .setTypes(builder.types()).setSearchType(SearchType.SCAN)
-                .setQuery(builder.query()).setSize(100).setScroll(scrollDuration).execute().actionGet();
+        Long previous = manifest.highWaterMark();
+        SearchResponse searchResponse = client.prepareSearch(builder.indices()).setTypes(builder.types())
+                .setQuery(builder.query()).setSize(0)
+                .addFacet(FacetBuilders.statisticalFacet(HIGH_WATER_MARK_FACET).field(field)).execute().actionGet();
+        StatisticalFacet facet = searchResponse.getFacets().facet(StatisticalFacet.class, HIGH_WATER_MARK_FACET);
+        if (facet.getCount() > 0 && facet.getMax() != Math.rint(facet.getMax())) {
+            throw new IllegalArgumentException("Incremental dumps need an integral field (e.g. long or date), ["
+                    + field + "] has value " + facet.getMax());
+        }
+        if (facet.getCount() == 0 || (previous != null && (long) facet.getMax() <= previous)) {
+            console.println("No documents newer than " + previous + " on field [" + field + "], nothing to save");
+            return null;
+        }
+        long current = (long) facet.getMax();
+        manifest.incremental(field, current);
+        console.println("Saving documents with [" + field + "] " + (previous == null ? "" : "from " + previous + " ")
+                + "up to " + current + " excluded");
 
-        OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(builder.path(), true), builder.charset());
+        //the documents with the current value are left to the next run, together with any added later with the same value,
+        //so that every document is saved exactly once unless it gets a value lower than the high water mark
+        RangeFilterBuilder rangeFilter = FilterBuilders.rangeFilter(field).lt(current);
+        if (previous != null) {
+            rangeFilter.gte(previous);
+        }
+        QueryBuilder query = builder.query() == null ? QueryBuilders.matchAllQuery()
+                : QueryBuilders.wrapperQuery(builder.query().toBytes(), 0, builder.query().length());
+        return QueryBuilders.filteredQuery(query, rangeFilter).buildAsBytes();
+    }
 
-        int i = 0;
+    /**
+     * Drains a scan per shard, using the _shards preference, one after the other into the single dump file.
+     * Every completed shard is synced to disk and recorded in a checkpoint file together with the length of the dump file,
+     * which allows to resume a plain dump by truncating it to that length and appending the remaining shards.
+     */
+    private void sequentialDumpSave(Client client, Builder builder, BytesReference query, DumpManifest manifest,
+                                    TransferProgress progress) throws IOException {
+        ClusterSearchShardsResponse shardsResponse = searchShards(client, builder);
+
+        String path = builder.path();
+        File checkpointFile = new File(path + CHECKPOINT_SUFFIX);
+        SaveCheckpoint checkpoint = builder.resume() ? SaveCheckpoint.load(checkpointFile) : SaveCheckpoint.create(checkpointFile);
+        long savedLength = checkpoint.savedLength(path);
+        if (savedLength > 0 && !canAppend(new File(path), savedLength, builder.compress(), builder.encoding())) {
+            progress.println("Unable to resume the dump " + path + ", saving it from the beginning");
+            checkpoint = SaveCheckpoint.create(checkpointFile);
+            savedLength = 0;
+        }
+
+        DumpWriter dumpWriter = savedLength > 0 ? PlainDumpWriter.append(path, builder.charset(), savedLength)
+                : newWriter(path, builder);
+        AsyncDumpWriter writer = new AsyncDumpWriter(dumpWriter, WRITE_QUEUE_SIZE, path);
+        int total = 0;
+        int resumedShards = 0;
         try {
-            while (true) {
-                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
-                        .setScroll(scrollDuration).execute().actionGet();
+            for (ClusterSearchShardsGroup group : shardsResponse.getGroups()) {
+                String index = group.getIndex();
+                int shard = group.getShardId();
+                if (savedLength > 0 && checkpoint.isSaved(index, shard, path)) {
+                    resumedShards++;
+                    total += checkpoint.documents(index, shard);
+                    manifest.addDocuments(index, checkpoint.documents(index, shard));
+                    progress.expectedDocuments(checkpoint.documents(index, shard));
+                    progress.documents(checkpoint.documents(index, shard));
+                    continue;
+                }
+                SearchRequestBuilder scanRequest = scanRequest(client, builder, query, index).setPreference("_shards:" + shard);
+                int saved = drain(client, scanRequest, writer, manifest, progress, builder);
+                writer.sync();
+                checkpoint.completed(index, shard, path, saved);
+                total += saved;
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (resumedShards > 0) {
+            progress.println("Skipped " + resumedShards + " shards already saved");
+        }
+        //the checksums of an appended dump would cover only the last shards
+        manifest.addPart(path, total, savedLength > 0 ? null : writer.checksums());
+        checkpoint.delete();
+        progress.println("Saved " + total + " documents to " + path);
+    }
+
+    /**
+     * @return true if the given dump can be resumed by truncating it to the saved length and appending to it,
+     * false if it needs to be saved again from the beginning
+     */
+    static boolean canAppend(File dump, long savedLength, boolean compress, DumpEncoding encoding) {
+        //binary dumps can't be appended to as their block index is written at the end
+        return !compress && encoding == DumpEncoding.JSON && dump.length() >= savedLength;
+    }
+
+    /**
+     * Opens a scan per shard, using the _shards preference, and drains them concurrently.
+     * Every shard is written to its own part file next to the requested path.
+     * Completed shards are recorded in a checkpoint file, which allows to resume the dump if it fails.
+     */
+    private void parallelDumpSave(final Client client, final Builder builder, BytesReference query, final DumpManifest manifest,
+                                  final AtomicInteger nextPart, final TransferProgress progress) throws IOException {
+        ClusterSearchShardsResponse shardsResponse = searchShards(client, builder);
+
+        File checkpointFile = new File(builder.path() + CHECKPOINT_SUFFIX);
+        final SaveCheckpoint checkpoint = builder.resume() ? SaveCheckpoint.load(checkpointFile) : SaveCheckpoint.create(checkpointFile);
 
-                if (searchResponse.getHits().hits().length == 0) {
-                    break;
+        ExecutorService executor = Executors.newFixedThreadPool(builder.concurrency());
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        try {
+            int part = 0;
+            int resumed = 0;
+            for (ClusterSearchShardsGroup group : shardsResponse.getGroups()) {
+                final String index = group.getIndex();
+                final int shard = group.getShardId();
+                final String partPath = partPath(builder.path(), part++);
+                if (checkpoint.isCompleted(index, shard, partPath)) {
+                    resumed += checkpoint.documents(index, shard);
+                    //parts saved by a previous run are not verified again, thus no checksums are available
+                    manifest.addPart(partPath, checkpoint.documents(index, shard), null);
+                    manifest.addDocuments(index, checkpoint.documents(index, shard));
+                    progress.expectedDocuments(checkpoint.documents(index, shard));
+                    progress.documents(checkpoint.documents(index, shard));
+                    continue;
                 }
+                final SearchRequestBuilder scanRequest = scanRequest(client, builder, query, index)
+                        .setPreference("_shards:" + shard);
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        DumpWriter writer = newDumpWriter(partPath, builder, manifest, nextPart);
+                        int saved = save(client, scanRequest, writer, partPath, manifest, progress, builder);
+                        //when rotating, the parts of a shard are numbered along with the others and not tracked
+                        if (!builder.rotates()) {
+                            checkpoint.completed(index, shard, partPath, saved);
+                            manifest.addPart(partPath, saved, writer.checksums());
+                        }
+                        return saved;
+                    }
+                }));
+            }
 
-                for (SearchHit hit : searchResponse.getHits()) {
-                    Document document = Document.fromSource(hit.sourceAsString(), hit.index(), hit.type(), hit.id());
-                    writer.write(document.getDump());
-                    i++;
-                    writer.write('\n');
+            if (resumed > 0) {
+                progress.println("Skipped " + (part - futures.size()) + " shards already saved (" + resumed + " documents)");
+            }
+            int total = resumed;
+            for (Future<Integer> future : futures) {
+                total += waitFor(future);
+            }
+            checkpoint.delete();
+            progress.println("Saved " + total + " documents to " + manifest.parts().size() + " part files");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ClusterSearchShardsResponse searchShards(Client client, Builder builder) {
+        return client.admin().cluster().searchShards(new ClusterSearchShardsRequest()
+                .indices(builder.indices()).types(builder.types())).actionGet();
+    }
+
+    /**
+     * Records in the manifest settings, mappings and aliases of the indices being dumped, read from the cluster state.
+     * Only the mappings of the requested types are recorded.
+     */
+    private void addIndicesMetaData(Client client, Builder builder, DumpManifest manifest) throws IOException {
+        ClusterStateRequest request = new ClusterStateRequest().filterRoutingTable(true).filterNodes(true)
+                .filteredIndices(builder.indices());
+        MetaData metaData = client.admin().cluster().state(request).actionGet().getState().metaData();
+        Set<String> types = ImmutableSet.copyOf(builder.types());
+        for (IndexMetaData indexMetaData : metaData) {
+            Map<String, Map<String, Object>> mappings = new TreeMap<String, Map<String, Object>>();
+            for (MappingMetaData mappingMd : indexMetaData.mappings().values()) {
+                if (types.isEmpty() || types.contains(mappingMd.type())) {
+                    mappings.put(mappingMd.type(), mappingMd.sourceAsMap());
                 }
             }
+            Map<String, Map<String, Object>> aliases = new TreeMap<String, Map<String, Object>>();
+            for (AliasMetaData aliasMd : indexMetaData.aliases().values()) {
+                Map<String, Object> alias = new HashMap<String, Object>();
+                if (aliasMd.filter() != null) {
+                    alias.put("filter", XContentHelper.convertToMap(aliasMd.filter().uncompressed(), true).v2());
+                }
+                if (aliasMd.indexRouting() != null) {
+                    alias.put("index_routing", aliasMd.indexRouting());
+                }
+                if (aliasMd.searchRouting() != null) {
+                    alias.put("search_routing", aliasMd.searchRouting());
+                }
+                aliases.put(aliasMd.alias(), alias);
+            }
+            manifest.addIndex(indexMetaData.index(), new TreeMap<String, String>(indexMetaData.settings().getAsMap()),
+                    mappings, aliases);
+        }
+    }
+
+    private SearchRequestBuilder scanRequest(Client client, Builder builder, BytesReference query, String... indices) {
+        SearchRequestBuilder scanRequest = client.prepareSearch(indices).setTypes(builder.types()).setSearchType(SearchType.SCAN)
+                .setQuery(query).setSize(builder.size()).setScroll(builder.scroll());
+        builder.projection().apply(scanRequest);
+        return scanRequest;
+    }
+
+    /**
+     * Drains the given scan into the given writer, which gets closed
+     */
+    private int save(Client client, SearchRequestBuilder scanRequest, DumpWriter dumpWriter, String path,
+                     DumpManifest manifest, TransferProgress progress, Builder builder) throws IOException {
+        AsyncDumpWriter writer = new AsyncDumpWriter(dumpWriter, WRITE_QUEUE_SIZE, path);
+        int saved;
+        try {
+            saved = drain(client, scanRequest, writer, manifest, progress, builder);
         } finally {
             writer.close();
-            console.println("Saved " + i + " documents to " + builder.path());
         }
+        progress.println("Saved " + saved + " documents to " + path);
+        return saved;
+    }
+
+    /**
+     * Drains the given scan. The next page is requested before encoding the current one, and the encoded documents are
+     * written on a dedicated thread, so that fetching, encoding and writing overlap.
+     */
+    private int drain(Client client, SearchRequestBuilder scanRequest, AsyncDumpWriter writer,
+                      DumpManifest manifest, TransferProgress progress, Builder builder) throws IOException {
+
+        SearchResponse searchResponse = scanRequest.execute().actionGet();
+        progress.expectedDocuments(searchResponse.getHits().getTotalHits());
+        DumpProjection projection = builder.projection();
+
+        int i = 0;
+        ListenableActionFuture<SearchResponse> nextPage = nextPage(client, searchResponse, builder);
+        while (true) {
+            searchResponse = nextPage.actionGet();
+
+            SearchHit[] hits = searchResponse.getHits().hits();
+            if (hits.length == 0) {
+                break;
+            }
+            nextPage = nextPage(client, searchResponse, builder);
+
+            List<Document> documents = new ArrayList<Document>(hits.length);
+            Map<String, Integer> indexDocuments = new HashMap<String, Integer>();
+            long bytes = 0;
+            for (SearchHit hit : hits) {
+                Document document = projection.toDocument(hit, builder.encoding());
+                documents.add(document);
+                bytes += document.getSource().length();
+                Integer count = indexDocuments.get(hit.getIndex());
+                indexDocuments.put(hit.getIndex(), count == null ? 1 : count + 1);
+            }
+            writer.write(documents);
+            progress.documents(hits.length);
+            progress.bytes(bytes);
+            for (Map.Entry<String, Integer> entry : indexDocuments.entrySet()) {
+                manifest.addDocuments(entry.getKey(), entry.getValue());
+            }
+            i += hits.length;
+        }
+        return i;
+    }
+
+    private ListenableActionFuture<SearchResponse> nextPage(Client client, SearchResponse searchResponse, Builder builder) {
+        return client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(builder.scroll()).execute();
+    }
+
+    /**
+     * Creates the writer for the given path, or for the parts that the dump gets rotated into when requested
+     */
+    private DumpWriter newDumpWriter(String path, final Builder builder, DumpManifest manifest,
+                                            final AtomicInteger nextPart) throws IOException {
+        if (!builder.rotates()) {
+            return newWriter(path, builder);
+        }
+        return new RotatingDumpWriter(new RotatingDumpWriter.PartFactory() {
+            @Override
+            public String nextPartPath() {
+                return partPath(builder.path(), nextPart.getAndIncrement());
+            }
+
+            @Override
+            public DumpWriter newWriter(String path) throws IOException {
+                return DumpSaver.this.newWriter(path, builder);
+            }
+        }, builder.maxPartDocuments(), builder.maxPartSize() == null ? 0 : builder.maxPartSize().bytes(), manifest);
+    }
+
+    private DumpWriter newWriter(String path, Builder builder) throws IOException {
+        if (builder.compress() || builder.encoding() != DumpEncoding.JSON) {
+            return new BlockDumpWriter(path, builder.blockSize(), builder.encoding(), builder.compress());
+        }
+        return new PlainDumpWriter(path, builder.charset());
+    }
+
+    static String partPath(String path, int part) {
+        return String.format(Locale.ROOT, "%s.part-%04d", path, part);
+    }
 
+    static <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the dump to complete", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
     }
 
     public class Builder {
@@ -89,6 +471,20 @@ public class DumpSaver<JsonInput> {
         private Charset charset;
         private String path;
         private BytesReference query;
+        private int concurrency = 1;
+        private int size = 100;
+        private boolean compress;
+        private int blockSize = 1000;
+        private DumpEncoding encoding = DumpEncoding.JSON;
+        private TimeValue scroll = DEFAULT_SCROLL;
+        private boolean resume;
+        private long maxPartDocuments;
+        private ByteSizeValue maxPartSize;
+        private String metricsPath;
+        private String[] includes = new String[0];
+        private String[] excludes = new String[0];
+        private String[] fields = new String[0];
+        private String incrementalField;
 
         public Builder(Client client) {
             this.client = client;
@@ -139,7 +535,7 @@ public class DumpSaver<JsonInput> {
         }
 
         public Builder query(JsonInput query) {
-            this.query = new BytesArray(jsonToString.jsonToString(query, false));
+            this.query = jsonToString.jsonToBytes(query, XContentType.JSON);
             return this;
         }
 
@@ -147,6 +543,140 @@ public class DumpSaver<JsonInput> {
             return query;
         }
 
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public int concurrency() {
+            return concurrency;
+        }
+
+        public Builder size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder compress(boolean compress) {
+            this.compress = compress;
+            return this;
+        }
+
+        public boolean compress() {
+            return compress;
+        }
+
+        public Builder blockSize(int blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        public int blockSize() {
+            return blockSize;
+        }
+
+        public Builder encoding(String encoding) {
+            this.encoding = DumpEncoding.fromString(encoding);
+            return this;
+        }
+
+        DumpEncoding encoding() {
+            return encoding;
+        }
+
+        public Builder scroll(String keepAlive) {
+            this.scroll = TimeValue.parseTimeValue(keepAlive, DEFAULT_SCROLL);
+            return this;
+        }
+
+        public TimeValue scroll() {
+            return scroll;
+        }
+
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public boolean resume() {
+            return resume;
+        }
+
+        public Builder maxPartDocuments(long maxPartDocuments) {
+            this.maxPartDocuments = maxPartDocuments;
+            return this;
+        }
+
+        public long maxPartDocuments() {
+            return maxPartDocuments;
+        }
+
+        public Builder maxPartSize(String maxPartSize) {
+            this.maxPartSize = ByteSizeValue.parseBytesSizeValue(maxPartSize);
+            return this;
+        }
+
+        public ByteSizeValue maxPartSize() {
+            return maxPartSize;
+        }
+
+        public Builder metricsPath(String metricsPath) {
+            this.metricsPath = metricsPath;
+            return this;
+        }
+
+        public String metricsPath() {
+            return metricsPath;
+        }
+
+        public Builder includes(String... includes) {
+            this.includes = includes;
+            return this;
+        }
+
+        public String[] includes() {
+            return includes;
+        }
+
+        public Builder excludes(String... excludes) {
+            this.excludes = excludes;
+            return this;
+        }
+
+        public String[] excludes() {
+            return excludes;
+        }
+
+        public Builder fields(String... fields) {
+            this.fields = fields;
+            return this;
+        }
+
+        public String[] fields() {
+            return fields;
+        }
+
+        public Builder incrementalField(String incrementalField) {
+            this.incrementalField = incrementalField;
+            return this;
+        }
+
+        public String incrementalField() {
+            return incrementalField;
+        }
+
+        DumpProjection projection() {
+            return new DumpProjection(includes, excludes, fields);
+        }
+
+        boolean rotates() {
+            return maxPartDocuments > 0 || (maxPartSize != null && maxPartSize.bytes() > 0);
+        }
+
         public void execute() throws IOException {
             DumpSaver.this.dumpSave(client, this);
         }
@@ -0,0 +1,332 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.shell.console.Console;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Verifies a dump without talking to any cluster. Parts that have checksums in the manifest are verified chunk by chunk,
+ * reading them through memory mapping, which points out the corrupted blocks or line ranges.
+ * Parts without checksums are fully read instead, parsing every line of plain dumps and decoding every block of binary dumps.
+ * The work is split between multiple threads.
+ */
+public class DumpVerifier {
+
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int BATCH_SIZE = 1000;
+
+    private final Console<PrintStream> console;
+
+    @Inject
+    public DumpVerifier(Console<PrintStream> console) {
+        this.console = console;
+    }
+
+    /**
+     * Verifies the dump at the given path, which can be provided as a single file, directory, glob pattern or
+     * as the path the dump has been saved to, like when restoring it.
+     * Plain dumps are read using the default charset, the same used when saving them unless a different one was provided.
+     * @return true if the dump is valid, false otherwise
+     */
+    public boolean verify(String path, int threads) throws IOException {
+        return verify(path, threads, Charset.defaultCharset());
+    }
+
+    /**
+     * Verifies the dump at the given path, reading plain dumps using the given charset
+     * @return true if the dump is valid, false otherwise
+     */
+    public boolean verify(String path, int threads, Charset charset) throws IOException {
+        File manifestFile = DumpFiles.manifest(path);
+        Map<String, DumpManifest.Part> manifestParts = new HashMap<String, DumpManifest.Part>();
+        if (manifestFile != null) {
+            for (DumpManifest.Part part : DumpManifest.read(manifestFile).parts()) {
+                manifestParts.put(part.file, part);
+            }
+        }
+        List<File> files = DumpFiles.resolve(path);
+        if (files.isEmpty()) {
+            console.println("No dump found at " + path);
+            return false;
+        }
+
+        console.println("Verifying " + files.size() + " files using " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<FileReport> reports = new ArrayList<FileReport>();
+        try {
+            for (File file : files) {
+                reports.add(verify(executor, file, manifestParts.get(file.getName()), threads, charset));
+            }
+            long documents = 0;
+            int corrupted = 0;
+            for (FileReport report : reports) {
+                report.await();
+                documents += report.documents.get();
+                if (!report.isValid()) {
+                    corrupted++;
+                }
+                report.print();
+            }
+            console.println("Verified " + documents + " documents in " + files.size() + " files, " + corrupted + " corrupted");
+            return corrupted == 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private FileReport verify(ExecutorService executor, final File file, DumpManifest.Part part, int threads,
+                              Charset charset) throws IOException {
+        final FileReport report = new FileReport(file, part == null ? -1 : part.documents);
+        if (!file.exists()) {
+            report.problem("missing file");
+            return report;
+        }
+
+        boolean blockDump = BlockDumpReader.isBlockDump(file);
+        boolean validIndex = true;
+        if (blockDump) {
+            //reading the index validates the footer, which is not covered by the chunk checksums
+            try {
+                BlockDumpReader.readIndex(file);
+            } catch (IOException e) {
+                report.problem("invalid block index: " + e.getMessage());
+                validIndex = false;
+            }
+        }
+
+        if (part != null && part.checksums != null) {
+            if (file.length() != part.checksums.length()) {
+                report.problem("expected " + part.checksums.length() + " bytes, found " + file.length());
+            }
+            long firstLine = 1;
+            for (final DumpChecksums.Chunk chunk : part.checksums.chunks()) {
+                final String description = blockDump ? "block at offset " + chunk.offset + " (" + chunk.documents + " documents)"
+                        : "lines " + firstLine + "-" + (firstLine + chunk.documents - 1) + " (bytes " + chunk.offset + "-"
+                        + (chunk.offset + chunk.length - 1) + ")";
+                firstLine += chunk.documents;
+                report.submit(executor, new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (checksum(file, chunk.offset, chunk.length) == chunk.checksum) {
+                            report.documents.addAndGet(chunk.documents);
+                        } else {
+                            report.problem(description + ": checksum mismatch");
+                        }
+                        return null;
+                    }
+                });
+            }
+            return report;
+        }
+
+        if (blockDump) {
+            if (!validIndex) {
+                //without the index the blocks cannot be split, the file is already known to be corrupted anyway
+                return report;
+            }
+            for (final DumpRange range : DumpRange.splitBlocks(file, threads)) {
+                report.submit(executor, new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        BlockDumpReader reader = new BlockDumpReader(file, range.start, range.end);
+                        long offset = range.start;
+                        try {
+                            DumpReader.Batch batch;
+                            while ((batch = reader.next()) != null) {
+                                report.documents.addAndGet(batch.documents().size());
+                                offset = batch.endOffset();
+                            }
+                        } catch (IOException e) {
+                            report.problem("block at offset " + offset + ": " + e.getMessage());
+                        } finally {
+                            reader.close();
+                        }
+                        return null;
+                    }
+                });
+            }
+        } else {
+            verifyLines(executor, file, charset, DumpRange.splitLines(file, threads), report);
+        }
+        return report;
+    }
+
+    /**
+     * Parses every line of a plain dump, split into ranges verified concurrently. Since the ranges are aligned
+     * to new lines rather than to line numbers, the invalid lines get numbered once all the ranges have been read.
+     */
+    private void verifyLines(ExecutorService executor, final File file, final Charset charset, List<DumpRange> ranges,
+                             final FileReport report) {
+        final long[] rangeLines = new long[ranges.size()];
+        final List<List<Long>> rangeInvalidLines = new ArrayList<List<Long>>();
+        for (int i = 0; i < ranges.size(); i++) {
+            final int rangeIndex = i;
+            final DumpRange range = ranges.get(i);
+            final List<Long> invalidLines = new ArrayList<Long>();
+            rangeInvalidLines.add(invalidLines);
+            report.submit(executor, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    DumpReader reader = new MappedDumpReader(file, charset, BATCH_SIZE, range.start, range.end);
+                    long lines = 0;
+                    try {
+                        DumpReader.Batch batch;
+                        while ((batch = reader.next()) != null) {
+                            LineBatch lineBatch = (LineBatch) batch;
+                            List<Integer> invalidBatchLines = lineBatch.invalidLines();
+                            for (Integer invalidLine : invalidBatchLines) {
+                                invalidLines.add(lines + invalidLine);
+                            }
+                            report.documents.addAndGet(lineBatch.nonBlankLines() - invalidBatchLines.size());
+                            lines += lineBatch.lines();
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                    rangeLines[rangeIndex] = lines;
+                    return null;
+                }
+            });
+        }
+        report.onCompletion(new Runnable() {
+            @Override
+            public void run() {
+                long firstLine = 1;
+                for (int i = 0; i < rangeLines.length; i++) {
+                    for (Long invalidLine : rangeInvalidLines.get(i)) {
+                        report.invalidLine(firstLine + invalidLine);
+                    }
+                    firstLine += rangeLines[i];
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the checksum of the given range of a file, reading it through memory mapping a window at a time
+     */
+    private static long checksum(File file, long offset, long length) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long end = Math.min(offset + length, channel.size());
+            for (long position = offset; position < end; position += WINDOW_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+                while (window.hasRemaining()) {
+                    int read = Math.min(buffer.length, window.remaining());
+                    window.get(buffer, 0, read);
+                    crc32.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Outcome of the verification of a dump file, collected from the tasks verifying its parts
+     */
+    private class FileReport {
+
+        private final File file;
+        private final long expectedDocuments;
+        private final AtomicLong documents = new AtomicLong();
+        private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        private final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Long> invalidLines = new ArrayList<Long>();
+        private Runnable onCompletion;
+
+        FileReport(File file, long expectedDocuments) {
+            this.file = file;
+            this.expectedDocuments = expectedDocuments;
+        }
+
+        void submit(ExecutorService executor, Callable<Void> task) {
+            futures.add(executor.submit(task));
+        }
+
+        void onCompletion(Runnable onCompletion) {
+            this.onCompletion = onCompletion;
+        }
+
+        void problem(String problem) {
+            problems.add(problem);
+        }
+
+        void invalidLine(long line) {
+            invalidLines.add(line);
+        }
+
+        void await() throws IOException {
+            for (Future<Void> future : futures) {
+                try {
+                    DumpSaver.waitFor(future);
+                } catch (IOException e) {
+                    problem(e.getMessage());
+                }
+            }
+            if (onCompletion != null) {
+                onCompletion.run();
+            }
+            //invalid lines are reported as ranges of consecutive lines
+            for (int i = 0; i < invalidLines.size(); ) {
+                int j = i;
+                while (j + 1 < invalidLines.size() && invalidLines.get(j + 1) == invalidLines.get(j) + 1) {
+                    j++;
+                }
+                problem((i == j ? "line " + invalidLines.get(i) : "lines " + invalidLines.get(i) + "-" + invalidLines.get(j))
+                        + ": invalid document");
+                i = j + 1;
+            }
+            if (expectedDocuments >= 0 && documents.get() != expectedDocuments && problems.isEmpty()) {
+                problem("expected " + expectedDocuments + " documents, found " + documents.get());
+            }
+        }
+
+        boolean isValid() {
+            return problems.isEmpty();
+        }
+
+        void print() {
+            String documentsCount = documents.get() + (expectedDocuments >= 0 ? " of " + expectedDocuments : "") + " documents";
+            console.println((isValid() ? "OK      " : "CORRUPT ") + file + " (" + documentsCount + ")");
+            for (String problem : problems) {
+                console.println("        " + problem);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Writes documents to a dump, following a specific dump format
+ */
+interface DumpWriter extends Closeable {
+
+    /**
+     * Appends a document to the dump
+     * @param document the document to write
+     * @throws IOException if the document couldn't be written
+     */
+    void write(Document document) throws IOException;
+
+    /**
+     * Makes durable the documents written so far, so that the current length of the dump file can be checkpointed
+     * @throws IOException if the documents couldn't be written
+     */
+    void sync() throws IOException;
+
+    /**
+     * @return the checksums of the dump file, available once the writer has been closed, null if not supported
+     */
+    DumpChecksums checksums();
+}
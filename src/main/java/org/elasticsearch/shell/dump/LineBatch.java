@@ -0,0 +1,165 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Batch of lines read from a plain dump, which holds a copy of its lines in a single byte array
+ */
+class LineBatch implements DumpReader.Batch {
+
+    private final Charset charset;
+    private byte[] data = new byte[8 * 1024];
+    private int length;
+    private final int[] lineEnds;
+    private int lines;
+    private int pendingStart = -1;
+    private long endOffset;
+
+    LineBatch(Charset charset, int batchSize) {
+        this.charset = charset;
+        this.lineEnds = new int[batchSize];
+    }
+
+    /**
+     * Appends part of a line that doesn't fit in the read buffer
+     */
+    void append(byte[] bytes, int offset, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, offset, data, length, len);
+        if (pendingStart < 0) {
+            pendingStart = length;
+        }
+        length += len;
+    }
+
+    boolean hasPendingLine() {
+        return pendingStart >= 0;
+    }
+
+    void add(byte[] bytes, int offset, int len) {
+        append(bytes, offset, len);
+        endLine();
+    }
+
+    /**
+     * Adds a line reading it from the current position of the given buffer
+     */
+    void add(ByteBuffer buffer, int len) {
+        ensureCapacity(len);
+        buffer.get(data, length, len);
+        length += len;
+        endLine();
+    }
+
+    private void endLine() {
+        pendingStart = -1;
+        lineEnds[lines++] = length;
+    }
+
+    private void ensureCapacity(int len) {
+        if (length + len > data.length) {
+            byte[] newData = new byte[Math.max(data.length * 2, length + len)];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+    }
+
+    int lines() {
+        return lines;
+    }
+
+    void endOffset(long endOffset) {
+        this.endOffset = endOffset;
+    }
+
+    @Override
+    public long endOffset() {
+        return endOffset;
+    }
+
+    @Override
+    public List<Document> documents() {
+        List<BytesReference> dumps = new ArrayList<BytesReference>(lines);
+        for (int i = 0; i < lines; i++) {
+            BytesReference line = line(i);
+            if (line != null) {
+                dumps.add(line);
+            }
+        }
+        return Document.fromDumps(dumps);
+    }
+
+    /**
+     * @return the number of lines in the batch that are not blank
+     */
+    int nonBlankLines() {
+        int nonBlankLines = 0;
+        for (int i = 0; i < lines; i++) {
+            if (line(i) != null) {
+                nonBlankLines++;
+            }
+        }
+        return nonBlankLines;
+    }
+
+    /**
+     * @return the indexes within the batch of the lines that cannot be parsed as documents, blank lines excluded
+     */
+    List<Integer> invalidLines() {
+        List<Integer> invalidLines = new ArrayList<Integer>();
+        for (int i = 0; i < lines; i++) {
+            BytesReference line = line(i);
+            if (line != null) {
+                try {
+                    Document.fromDump(line);
+                } catch (Exception e) {
+                    invalidLines.add(i);
+                }
+            }
+        }
+        return invalidLines;
+    }
+
+    /**
+     * @return the line with the given index, null if blank
+     */
+    private BytesReference line(int i) {
+        int start = i == 0 ? 0 : lineEnds[i - 1];
+        int end = lineEnds[i];
+        //skips blank lines and windows line endings
+        int lineEnd = end > start && data[end - 1] == '\r' ? end - 1 : end;
+        if (lineEnd <= start) {
+            return null;
+        }
+        if (Document.UTF8.equals(charset)) {
+            return new BytesArray(data, start, lineEnd - start);
+        }
+        return new BytesArray(new String(data, start, lineEnd - start, charset));
+    }
+}
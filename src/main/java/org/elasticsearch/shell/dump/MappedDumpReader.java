@@ -0,0 +1,111 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Reads a range of lines of a plain dump through memory mapping, a window at a time.
+ * The range is expected to start at the beginning of a line and to end right after a new line or at the end of the file.
+ */
+class MappedDumpReader implements DumpReader {
+
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Charset charset;
+    private final int batchSize;
+    private final long end;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    MappedDumpReader(File file, Charset charset, int batchSize, long start, long end) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.charset = charset;
+        this.batchSize = batchSize;
+        this.position = start;
+        this.end = Math.min(end, channel.size());
+    }
+
+    @Override
+    public Batch next() throws IOException {
+        if (position >= end) {
+            return null;
+        }
+        LineBatch batch = new LineBatch(charset, batchSize);
+        while (batch.lines() < batchSize && position < end) {
+            long newLine = nextNewLine();
+            window.position((int) (position - windowStart));
+            batch.add(window, (int) (newLine - position));
+            position = Math.min(newLine + 1, end);
+        }
+        batch.endOffset(position);
+        return batch;
+    }
+
+    /**
+     * Finds the new line that ends the line starting at the current position, remapping the window if needed
+     * @return the offset of the new line, or the end of the range if the last line doesn't end with a new line
+     */
+    private long nextNewLine() throws IOException {
+        if (window == null || position >= windowStart + window.limit()) {
+            map(WINDOW_SIZE);
+        }
+        int from = (int) (position - windowStart);
+        while (true) {
+            for (int i = from; i < window.limit(); i++) {
+                if (window.get(i) == '\n') {
+                    return windowStart + i;
+                }
+            }
+            long windowEnd = windowStart + window.limit();
+            if (windowEnd >= end) {
+                return end;
+            }
+            //the line goes beyond the current window: remaps it starting from the line, big enough to move forward
+            long lineLength = windowEnd - position;
+            if (lineLength >= Integer.MAX_VALUE) {
+                throw new IOException("Line starting at offset " + position + " is too long");
+            }
+            from = (int) lineLength;
+            map(Math.max(WINDOW_SIZE, lineLength * 2));
+        }
+    }
+
+    private void map(long size) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Math.min(size, end - position), Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Reads a plain dump, made of a json document per line.
+ * Lines are split on the raw bytes in order to keep track of their offsets, thus the charset
+ * needs to encode the new line character as a single byte (e.g. UTF-8 or ISO-8859-1).
+ */
+class PlainDumpReader implements DumpReader {
+
+    private final InputStream inputStream;
+    private final Charset charset;
+    private final int batchSize;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferStart;
+    private int bufferEnd;
+    private long position;
+    private boolean eof;
+
+    PlainDumpReader(File file, Charset charset, int batchSize) throws IOException {
+        this(file, charset, batchSize, 0);
+    }
+
+    /**
+     * Creates a reader that starts reading from the given offset, which must be the beginning of a line
+     */
+    PlainDumpReader(File file, Charset charset, int batchSize, long offset) throws IOException {
+        FileInputStream fileInputStream = new FileInputStream(file);
+        fileInputStream.getChannel().position(offset);
+        this.inputStream = fileInputStream;
+        this.charset = charset;
+        this.batchSize = batchSize;
+        this.position = offset;
+    }
+
+    @Override
+    public Batch next() throws IOException {
+        LineBatch batch = new LineBatch(charset, batchSize);
+        while (batch.lines() < batchSize) {
+            int newLine = -1;
+            for (int i = bufferStart; i < bufferEnd; i++) {
+                if (buffer[i] == '\n') {
+                    newLine = i;
+                    break;
+                }
+            }
+            if (newLine >= 0) {
+                batch.add(buffer, bufferStart, newLine - bufferStart);
+                position += newLine + 1 - bufferStart;
+                bufferStart = newLine + 1;
+            } else if (eof) {
+                //last line without new line
+                if (bufferEnd > bufferStart || batch.hasPendingLine()) {
+                    batch.add(buffer, bufferStart, bufferEnd - bufferStart);
+                    position += bufferEnd - bufferStart;
+                    bufferStart = bufferEnd;
+                }
+                break;
+            } else {
+                fill(batch);
+            }
+        }
+        if (batch.lines() == 0) {
+            return null;
+        }
+        batch.endOffset(position);
+        return batch;
+    }
+
+    /**
+     * Reads more bytes into the buffer. A line longer than the buffer is moved over to the batch
+     * a piece at a time, since the batch holds its own copy of the lines.
+     */
+    private void fill(LineBatch batch) throws IOException {
+        if (bufferStart == 0 && bufferEnd == buffer.length) {
+            batch.append(buffer, 0, bufferEnd);
+            position += bufferEnd;
+            bufferStart = bufferEnd = 0;
+        } else if (bufferStart > 0) {
+            System.arraycopy(buffer, bufferStart, buffer, 0, bufferEnd - bufferStart);
+            bufferEnd -= bufferStart;
+            bufferStart = 0;
+        }
+        int read = inputStream.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read < 0) {
+            eof = true;
+        } else {
+            bufferEnd += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+import org.elasticsearch.common.bytes.BytesReference;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Writes a plain dump, made of a json document per line.
+ * Checksums are computed for the whole file and for every {@link #CHUNK_LINES} lines.
+ */
+class PlainDumpWriter implements DumpWriter {
+
+    static final int CHUNK_LINES = 10000;
+
+    private final FileOutputStream fileOutputStream;
+    private final ChecksumOutputStream outputStream;
+    private final Charset charset;
+    private int chunkLines;
+
+    PlainDumpWriter(String path, Charset charset) throws IOException {
+        this(new FileOutputStream(path), charset);
+    }
+
+    private PlainDumpWriter(FileOutputStream fileOutputStream, Charset charset) {
+        this.fileOutputStream = fileOutputStream;
+        this.outputStream = new ChecksumOutputStream(new BufferedOutputStream(fileOutputStream, 1024 * 1024));
+        this.charset = charset;
+    }
+
+    @Override
+    public void write(Document document) throws IOException {
+        BytesReference line = document.getDump();
+        if (Document.UTF8.equals(charset)) {
+            line.writeTo(outputStream);
+        } else {
+            outputStream.write(line.toUtf8().getBytes(charset));
+        }
+        outputStream.write('\n');
+        if (++chunkLines == CHUNK_LINES) {
+            outputStream.endChunk(chunkLines);
+            chunkLines = 0;
+        }
+    }
+
+    /**
+     * Creates a writer that appends to an existing dump, truncated to the given length first.
+     * The checksums cover only the appended documents, thus they can't be used to verify the whole file.
+     */
+    static PlainDumpWriter append(String path, Charset charset, long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+        return new PlainDumpWriter(new FileOutputStream(path, true), charset);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        outputStream.flush();
+        fileOutputStream.getFD().sync();
+    }
+
+    @Override
+    public DumpChecksums checksums() {
+        return outputStream.checksums();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            outputStream.endChunk(chunkLines);
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
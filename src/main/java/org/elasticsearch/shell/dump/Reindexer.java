@@ -0,0 +1,534 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsGroup;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsRequest;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.shell.bulk.AdaptiveBulkProcessor;
+import org.elasticsearch.shell.bulk.FastLoad;
+import org.elasticsearch.shell.bulk.RetryingBulkListener;
+import org.elasticsearch.shell.console.Console;
+import org.elasticsearch.shell.json.JsonToString;
+import org.elasticsearch.shell.json.StringToJson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Copies documents from an index to another one, possibly on a different cluster, streaming the hits returned by a scan
+ * straight into bulk requests without going through the disk.
+ * The optional transform function is always called on the calling thread, since the objects it works on belong to the
+ * script engine, while scrolling and indexing can happen on multiple threads.
+ *
+ * @param <JsonInput> the shell native object that represents a json object received as input from the shell
+ * @param <JsonOutput> the shell native object that represents a json object that we give as output to the shell
+ */
+public class Reindexer<JsonInput, JsonOutput> {
+
+    private static final Logger logger = LoggerFactory.getLogger(Reindexer.class);
+
+    private static final TimeValue DEFAULT_SCROLL = TimeValue.timeValueSeconds(30);
+    private static final SearchHit[] END_OF_SCAN = new SearchHit[0];
+
+    private final Console<PrintStream> console;
+    private final JsonToString<JsonInput> jsonToString;
+    private final StringToJson<JsonOutput> stringToJson;
+
+    @Inject
+    Reindexer(Console<PrintStream> console, JsonToString<JsonInput> jsonToString, StringToJson<JsonOutput> stringToJson) {
+        this.console = console;
+        this.jsonToString = jsonToString;
+        this.stringToJson = stringToJson;
+    }
+
+    protected void reindex(Builder builder) throws IOException {
+        if (!builder.fastLoad()) {
+            copy(builder);
+            return;
+        }
+
+        //documents keep their own index unless a target index is provided
+        String[] targetIndices = builder.targetIndex() == null ? sourceIndices(builder) : new String[]{builder.targetIndex()};
+        if (targetIndices.length == 0) {
+            //nothing to speed up, the scan won't find any documents either
+            copy(builder);
+            return;
+        }
+        FastLoad fastLoad = FastLoad.start(builder.targetClient(), targetIndices);
+        console.println("Disabled refresh and replicas of indices " + Arrays.toString(fastLoad.indices()) + " while reindexing");
+        boolean completed = false;
+        try {
+            copy(builder);
+            completed = true;
+        } finally {
+            try {
+                fastLoad.close();
+                console.println("Restored the original settings of indices " + Arrays.toString(fastLoad.indices()));
+            } catch (IOException e) {
+                //the failure that made the reindex stop is the one to be thrown
+                if (completed) {
+                    throw e;
+                }
+                logger.error("Error while restoring the original settings of indices {}", Arrays.toString(fastLoad.indices()), e);
+                console.println(e.getMessage());
+            }
+        }
+        if (builder.maxNumSegments() > 0) {
+            console.println("Optimizing indices " + Arrays.toString(fastLoad.indices()) + " to " + builder.maxNumSegments()
+                    + " segments");
+            fastLoad.optimize(builder.maxNumSegments());
+        }
+    }
+
+    /**
+     * @return the concrete indices the documents are read from, which are the target ones when no target index is provided
+     */
+    private String[] sourceIndices(Builder builder) {
+        ClusterStateRequest request = new ClusterStateRequest().filterRoutingTable(true).filterNodes(true)
+                .filteredIndices(builder.indices());
+        MetaData metaData = builder.sourceClient().admin().cluster().state(request).actionGet().getState().metaData();
+        List<String> indices = new ArrayList<String>();
+        for (IndexMetaData indexMetaData : metaData) {
+            indices.add(indexMetaData.index());
+        }
+        return indices.toArray(new String[indices.size()]);
+    }
+
+    /**
+     * Copies the documents displaying the progress, then prints the summary
+     */
+    private void copy(final Builder builder) throws IOException {
+        final TransferProgress progress = new TransferProgress("Reindexed", null);
+        final RetryingBulkListener bulkListener = RetryingBulkListener.builder(builder.targetClient(), new BulkListener(progress))
+                .maxRetries(builder.maxRetries()).deadLetterPath(builder.deadLetterPath()).build();
+        final AtomicLong skipped = new AtomicLong();
+        long startTime = System.currentTimeMillis();
+        try {
+            progress.run(console, new TransferProgress.Task() {
+                @Override
+                public void run() throws IOException {
+                    copy(builder, bulkListener, progress, skipped);
+                }
+            });
+        } finally {
+            progress.close();
+            console.println("Reindexed " + bulkListener.indexed() + " documents in "
+                    + TimeValue.timeValueMillis(System.currentTimeMillis() - startTime) + ", " + skipped.get()
+                    + " skipped, " + bulkListener.retried() + " retries, " + bulkListener.failed() + " failed");
+        }
+    }
+
+    private void copy(final Builder builder, RetryingBulkListener bulkListener, final TransferProgress progress,
+                      final AtomicLong skipped) throws IOException {
+        final AdaptiveBulkProcessor bulkProcessor = AdaptiveBulkProcessor.builder(builder.targetClient(), bulkListener)
+                .maxConcurrentRequests(builder.concurrentRequests()).build();
+        bulkListener.retryThrough(bulkProcessor);
+
+        List<SearchRequestBuilder> scanRequests = scanRequests(builder);
+        final BlockingQueue<SearchHit[]> pages = builder.transform() == null ? null
+                : new ArrayBlockingQueue<SearchHit[]>(scanRequests.size() * 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(builder.slices(), scanRequests.size()));
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        try {
+            for (final SearchRequestBuilder scanRequest : scanRequests) {
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        try {
+                            return scan(scanRequest, builder, bulkProcessor, pages, progress);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw e;
+                        } finally {
+                            //nobody is waiting for the pages anymore if we got interrupted
+                            if (pages != null && !Thread.currentThread().isInterrupted()) {
+                                pages.put(END_OF_SCAN);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            if (pages != null) {
+                transformPages(pages, scanRequests.size(), builder, bulkProcessor, progress, skipped);
+            }
+
+            for (Future<Long> future : futures) {
+                DumpSaver.waitFor(future);
+            }
+        } finally {
+            executor.shutdownNow();
+            bulkProcessor.close();
+            bulkListener.close();
+        }
+    }
+
+    /**
+     * @return a single scan, or a scan per shard when slices are requested, which are then drained by as many threads as slices
+     */
+    private List<SearchRequestBuilder> scanRequests(Builder builder) {
+        List<SearchRequestBuilder> scanRequests = new ArrayList<SearchRequestBuilder>();
+        if (builder.slices() <= 1) {
+            scanRequests.add(scanRequest(builder, builder.indices()));
+            return scanRequests;
+        }
+        ClusterSearchShardsResponse shardsResponse = builder.sourceClient().admin().cluster().searchShards(
+                new ClusterSearchShardsRequest().indices(builder.indices()).types(builder.types())).actionGet();
+        for (ClusterSearchShardsGroup group : shardsResponse.getGroups()) {
+            scanRequests.add(scanRequest(builder, group.getIndex()).setPreference("_shards:" + group.getShardId()));
+        }
+        return scanRequests;
+    }
+
+    private SearchRequestBuilder scanRequest(Builder builder, String... indices) {
+        return builder.sourceClient().prepareSearch(indices).setTypes(builder.types()).setSearchType(SearchType.SCAN)
+                .setQuery(builder.query()).setSize(builder.size()).setScroll(builder.scroll());
+    }
+
+    /**
+     * Drains a scan, fetching the next page while the current one is being indexed or handed over to the transform stage
+     */
+    private long scan(SearchRequestBuilder scanRequest, Builder builder, AdaptiveBulkProcessor bulkProcessor,
+                      BlockingQueue<SearchHit[]> pages, TransferProgress progress) throws InterruptedException {
+        Client client = builder.sourceClient();
+        SearchResponse searchResponse = scanRequest.execute().actionGet();
+        progress.expectedDocuments(searchResponse.getHits().getTotalHits());
+        long scanned = 0;
+        ListenableActionFuture<SearchResponse> nextPage = nextPage(client, searchResponse, builder);
+        while (true) {
+            searchResponse = nextPage.actionGet();
+            SearchHit[] hits = searchResponse.getHits().hits();
+            if (hits.length == 0) {
+                return scanned;
+            }
+            nextPage = nextPage(client, searchResponse, builder);
+            long bytes = 0;
+            for (SearchHit hit : hits) {
+                bytes += hit.sourceRef().length();
+            }
+            if (pages != null) {
+                pages.put(hits);
+            } else {
+                for (SearchHit hit : hits) {
+                    bulkProcessor.add(indexRequest(builder, hit.index(), hit.type(), hit.id(), hit.sourceRef()));
+                }
+            }
+            progress.bytes(bytes);
+            scanned += hits.length;
+        }
+    }
+
+    private ListenableActionFuture<SearchResponse> nextPage(Client client, SearchResponse searchResponse, Builder builder) {
+        return client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(builder.scroll()).execute();
+    }
+
+    /**
+     * Applies the transform function to the pages produced by the scans, on the calling thread
+     */
+    private void transformPages(BlockingQueue<SearchHit[]> pages, int scans, Builder builder,
+                                AdaptiveBulkProcessor bulkProcessor, TransferProgress progress, AtomicLong skipped)
+            throws IOException {
+        int completedScans = 0;
+        try {
+            while (completedScans < scans) {
+                SearchHit[] hits = pages.take();
+                if (hits == END_OF_SCAN) {
+                    completedScans++;
+                    continue;
+                }
+                for (SearchHit hit : hits) {
+                    IndexRequest indexRequest = transform(builder, hit);
+                    if (indexRequest == null) {
+                        //the documents dropped by the transform won't ever be indexed
+                        skipped.incrementAndGet();
+                        progress.expectedDocuments(-1);
+                    } else {
+                        bulkProcessor.add(indexRequest);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reindexing", e);
+        }
+    }
+
+    /**
+     * Calls the transform function providing the document in the same format used for dumps, which contains the
+     * metadata fields too, so that the function can change them as well
+     * @return the index request for the transformed document, null if the function dropped the document
+     */
+    private IndexRequest transform(Builder builder, SearchHit hit) throws IOException {
+        String index = builder.targetIndex() == null ? hit.index() : builder.targetIndex();
+        String type = builder.targetType() == null ? hit.type() : builder.targetType();
+        Document document = Document.fromSource(hit.sourceRef(), index, type, hit.id());
+        JsonInput transformed = builder.transform().transform(stringToJson.bytesToJson(document.getDump()));
+        if (transformed == null) {
+            return null;
+        }
+        Document result = Document.fromDump(jsonToString.jsonToBytes(transformed, XContentType.JSON));
+        return Requests.indexRequest(result.getIndex()).type(result.getType()).id(result.getId())
+                .source(result.getSource(), false);
+    }
+
+    private IndexRequest indexRequest(Builder builder, String index, String type, String id, BytesReference source) {
+        return Requests.indexRequest(builder.targetIndex() == null ? index : builder.targetIndex())
+                .type(builder.targetType() == null ? type : builder.targetType())
+                .id(id).source(source, false);
+    }
+
+    /**
+     * Bulk listener that reports the bulks that couldn't be executed and keeps track of documents indexed and bulk latencies
+     */
+    private class BulkListener implements BulkProcessor.Listener {
+
+        private final TransferProgress progress;
+
+        BulkListener(TransferProgress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            progress.latency(response.getTookInMillis());
+            int indexed = 0;
+            for (BulkItemResponse item : response.getItems()) {
+                if (!item.isFailed()) {
+                    indexed++;
+                }
+            }
+            progress.documents(indexed);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            progress.println("Error executing bulk: " + failure.getMessage());
+            logger.error("Error executing bulk", failure);
+        }
+    }
+
+    /**
+     * Function that transforms a document before it gets indexed, returns null to skip the document
+     */
+    public interface Transform<JsonInput, JsonOutput> {
+        JsonInput transform(JsonOutput document);
+    }
+
+    public class Builder {
+        private final Client sourceClient;
+        private final Client targetClient;
+        private String[] indices = new String[0];
+        private String[] types = new String[0];
+        private BytesReference query;
+        private String targetIndex;
+        private String targetType;
+        private int size = 100;
+        private TimeValue scroll = DEFAULT_SCROLL;
+        private int slices = 1;
+        private int concurrentRequests = 4;
+        private int maxRetries = 5;
+        private String deadLetterPath;
+        private Transform<JsonInput, JsonOutput> transform;
+        private boolean fastLoad;
+        private int maxNumSegments;
+
+        public Builder(Client sourceClient, Client targetClient) {
+            this.sourceClient = sourceClient;
+            this.targetClient = targetClient;
+        }
+
+        public Client sourceClient() {
+            return sourceClient;
+        }
+
+        public Client targetClient() {
+            return targetClient;
+        }
+
+        public Builder indices(String... indices) {
+            this.indices = indices;
+            return this;
+        }
+
+        public String[] indices() {
+            return indices;
+        }
+
+        public Builder types(String... types) {
+            this.types = types;
+            return this;
+        }
+
+        public String[] types() {
+            return types;
+        }
+
+        public Builder queryBuilder(QueryBuilder queryBuilder) {
+            this.query = queryBuilder.buildAsBytes();
+            return this;
+        }
+
+        public Builder query(JsonInput query) {
+            this.query = jsonToString.jsonToBytes(query, XContentType.JSON);
+            return this;
+        }
+
+        public BytesReference query() {
+            return query;
+        }
+
+        public Builder targetIndex(String targetIndex) {
+            this.targetIndex = targetIndex;
+            return this;
+        }
+
+        public String targetIndex() {
+            return targetIndex;
+        }
+
+        public Builder targetType(String targetType) {
+            this.targetType = targetType;
+            return this;
+        }
+
+        public String targetType() {
+            return targetType;
+        }
+
+        public Builder size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder scroll(String scroll) {
+            this.scroll = TimeValue.parseTimeValue(scroll, DEFAULT_SCROLL);
+            return this;
+        }
+
+        public TimeValue scroll() {
+            return scroll;
+        }
+
+        public Builder slices(int slices) {
+            this.slices = slices;
+            return this;
+        }
+
+        public int slices() {
+            return slices;
+        }
+
+        public Builder concurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public int concurrentRequests() {
+            return concurrentRequests;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public int maxRetries() {
+            return maxRetries;
+        }
+
+        public Builder deadLetterPath(String deadLetterPath) {
+            this.deadLetterPath = deadLetterPath;
+            return this;
+        }
+
+        public String deadLetterPath() {
+            return deadLetterPath;
+        }
+
+        public Builder transform(Transform<JsonInput, JsonOutput> transform) {
+            this.transform = transform;
+            return this;
+        }
+
+        public Transform<JsonInput, JsonOutput> transform() {
+            return transform;
+        }
+
+        public Builder fastLoad(boolean fastLoad) {
+            this.fastLoad = fastLoad;
+            return this;
+        }
+
+        public boolean fastLoad() {
+            return fastLoad;
+        }
+
+        public Builder maxNumSegments(int maxNumSegments) {
+            this.maxNumSegments = maxNumSegments;
+            return this;
+        }
+
+        public int maxNumSegments() {
+            return maxNumSegments;
+        }
+
+        public void execute() throws IOException {
+            Reindexer.this.reindex(this);
+        }
+    }
+}
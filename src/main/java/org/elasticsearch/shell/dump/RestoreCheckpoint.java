@@ -0,0 +1,193 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Keeps track of the batches read from a dump till all their documents have been acknowledged by the cluster,
+ * and periodically records to a checkpoint file the offset up to which the dump has been fully restored.
+ * Since batches are parsed and sent concurrently, the offset only moves forward when all the previous
+ * batches have been acknowledged as well.
+ */
+class RestoreCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(RestoreCheckpoint.class);
+
+    private static final long WRITE_INTERVAL_MILLIS = 1000;
+
+    private final File file;
+    private final File dump;
+
+    private final Map<DumpReader.Batch, PendingBatch> pendingBatches = new IdentityHashMap<DumpReader.Batch, PendingBatch>();
+    private final Map<ActionRequest<?>, PendingBatch> pendingRequests = new IdentityHashMap<ActionRequest<?>, PendingBatch>();
+    private final TreeMap<Long, PendingBatch> batchesInOrder = new TreeMap<Long, PendingBatch>();
+    private long sequence;
+    private long acknowledgedOffset;
+    private long writtenOffset;
+    private long lastWrite;
+
+    RestoreCheckpoint(File file, File dump, long startOffset) {
+        this.file = file;
+        this.dump = dump;
+        this.acknowledgedOffset = startOffset;
+        this.writtenOffset = startOffset;
+    }
+
+    /**
+     * Reads the offset recorded in the given checkpoint file
+     * @return the offset from which the restore can be resumed, 0 if there's no valid checkpoint for the given dump
+     */
+    static long load(File file, File dump) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            new DataInputStream(inputStream).readFully(bytes);
+            Map<String, Object> map = XContentFactory.xContent(XContentType.JSON).createParser(bytes).mapAndClose();
+            long length = ((Number) map.get("length")).longValue();
+            if (length != dump.length()) {
+                logger.warn("Ignoring checkpoint {} since dump {} has changed", file, dump);
+                return 0;
+            }
+            long offset = ((Number) map.get("offset")).longValue();
+            if (offset < 0 || offset > length) {
+                logger.warn("Ignoring checkpoint {} since its offset {} is not within dump {}", file, offset, dump);
+                return 0;
+            }
+            return offset;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Registers a batch that has just been read from the dump. Needs to be called in reading order.
+     */
+    synchronized void read(DumpReader.Batch batch) {
+        PendingBatch pendingBatch = new PendingBatch(batch.endOffset());
+        pendingBatches.put(batch, pendingBatch);
+        batchesInOrder.put(sequence++, pendingBatch);
+    }
+
+    /**
+     * Registers a request created from a document that belongs to the given batch, before it gets sent
+     */
+    synchronized void add(DumpReader.Batch batch, ActionRequest<?> request) {
+        PendingBatch pendingBatch = pendingBatches.get(batch);
+        pendingBatch.pendingRequests++;
+        pendingRequests.put(request, pendingBatch);
+    }
+
+    /**
+     * Signals that all the documents contained in the given batch have been handed over to the bulk processor
+     */
+    synchronized void submitted(DumpReader.Batch batch) throws IOException {
+        PendingBatch pendingBatch = pendingBatches.remove(batch);
+        pendingBatch.submitted = true;
+        advance();
+    }
+
+    /**
+     * Signals that the given requests have been acknowledged by the cluster
+     */
+    synchronized void acknowledged(List<? extends ActionRequest<?>> requests) throws IOException {
+        for (ActionRequest<?> request : requests) {
+            PendingBatch pendingBatch = pendingRequests.remove(request);
+            if (pendingBatch != null) {
+                pendingBatch.pendingRequests--;
+            }
+        }
+        advance();
+    }
+
+    synchronized long acknowledgedOffset() {
+        return acknowledgedOffset;
+    }
+
+    private void advance() throws IOException {
+        while (!batchesInOrder.isEmpty() && batchesInOrder.firstEntry().getValue().isCompleted()) {
+            acknowledgedOffset = batchesInOrder.pollFirstEntry().getValue().endOffset;
+        }
+        if (acknowledgedOffset > writtenOffset && System.currentTimeMillis() - lastWrite >= WRITE_INTERVAL_MILLIS) {
+            write();
+        }
+    }
+
+    /**
+     * Writes the current acknowledged offset to the checkpoint file, replacing it atomically
+     */
+    synchronized void write() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+        try {
+            XContentFactory.jsonBuilder().startObject()
+                    .field("dump", dump.getPath()).field("length", dump.length()).field("offset", acknowledgedOffset)
+                    .endObject().bytes().writeTo(outputStream);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            //rename doesn't replace existing files on every platform
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Unable to write the checkpoint file " + file);
+            }
+        }
+        writtenOffset = acknowledgedOffset;
+        lastWrite = System.currentTimeMillis();
+    }
+
+    /**
+     * Removes the checkpoint once the dump has been completely restored
+     */
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete the checkpoint file {}", file);
+        }
+    }
+
+    private static class PendingBatch {
+        final long endOffset;
+        int pendingRequests;
+        boolean submitted;
+
+        PendingBatch(long endOffset) {
+            this.endOffset = endOffset;
+        }
+
+        boolean isCompleted() {
+            return submitted && pendingRequests == 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.IOException;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Writer that splits a dump into part files, moving on to a new part when the current one reaches either the maximum
+ * number of documents or the maximum size. The size is estimated from the sources of the documents written, thus the
+ * actual file size differs depending on the dump format. Every completed part is recorded in the manifest.
+ */
+class RotatingDumpWriter implements DumpWriter {
+
+    private final PartFactory partFactory;
+    private final long maxDocuments;
+    private final long maxBytes;
+    private final DumpManifest manifest;
+
+    private DumpWriter current;
+    private String currentPath;
+    private long documents;
+    private long bytes;
+
+    RotatingDumpWriter(PartFactory partFactory, long maxDocuments, long maxBytes, DumpManifest manifest) {
+        this.partFactory = partFactory;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public void write(Document document) throws IOException {
+        if (current != null && ((maxDocuments > 0 && documents >= maxDocuments) || (maxBytes > 0 && bytes >= maxBytes))) {
+            closeCurrent();
+        }
+        if (current == null) {
+            currentPath = partFactory.nextPartPath();
+            current = partFactory.newWriter(currentPath);
+        }
+        current.write(document);
+        documents++;
+        bytes += document.getSource().length();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (current != null) {
+            current.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrent();
+    }
+
+    /**
+     * @return null as checksums are recorded per part in the manifest
+     */
+    @Override
+    public DumpChecksums checksums() {
+        return null;
+    }
+
+    private void closeCurrent() throws IOException {
+        if (current != null) {
+            current.close();
+            manifest.addPart(currentPath, documents, current.checksums());
+            current = null;
+            documents = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Creates the part files
+     */
+    interface PartFactory {
+        String nextPartPath();
+
+        DumpWriter newWriter(String path) throws IOException;
+    }
+}
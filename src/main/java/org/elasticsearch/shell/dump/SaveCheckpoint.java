@@ -0,0 +1,166 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Sidecar file that keeps track of the shards that have been completely saved during a dump,
+ * so that a failed dump can be resumed without saving them again.
+ * Every shard is either saved to its own part file or appended to the single dump file, in which case
+ * the recorded length is the one of the dump file once the shard was complete.
+ * Every completed shard is appended as a json line and synced to disk.
+ */
+class SaveCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(SaveCheckpoint.class);
+
+    private final File file;
+    private final Map<String, Part> completedParts = new HashMap<String, Part>();
+
+    private SaveCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a new empty checkpoint, replacing the existing one if any
+     */
+    static SaveCheckpoint create(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete the checkpoint file " + file);
+        }
+        return new SaveCheckpoint(file);
+    }
+
+    /**
+     * Loads an existing checkpoint, or creates an empty one if the checkpoint file doesn't exist
+     */
+    static SaveCheckpoint load(File file) throws IOException {
+        SaveCheckpoint checkpoint = new SaveCheckpoint(file);
+        if (!file.exists()) {
+            return checkpoint;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Document.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Map<String, Object> map = XContentFactory.xContent(XContentType.JSON).createParser(line).mapAndClose();
+                    Part part = new Part(map.get("part").toString(), ((Number) map.get("documents")).intValue(),
+                            ((Number) map.get("length")).longValue());
+                    checkpoint.completedParts.put(key(map.get("index").toString(), ((Number) map.get("shard")).intValue()), part);
+                } catch (Exception e) {
+                    //the last line might have been partially written
+                    logger.warn("Ignoring invalid checkpoint entry {}", line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return true if the given shard has been completely saved to the given part file, which is still intact
+     */
+    synchronized boolean isCompleted(String index, int shard, String partPath) {
+        Part part = completedParts.get(key(index, shard));
+        return part != null && part.path.equals(partPath) && new File(partPath).length() == part.length;
+    }
+
+    /**
+     * @return true if the given shard has been completely saved to the given file, which might have grown since then
+     * as other shards got saved to the same file
+     */
+    synchronized boolean isSaved(String index, int shard, String path) {
+        Part part = completedParts.get(key(index, shard));
+        return part != null && part.path.equals(path);
+    }
+
+    /**
+     * @return the length of the given file once the last shard saved to it was complete, 0 if no shard was saved to it
+     */
+    synchronized long savedLength(String path) {
+        long length = 0;
+        for (Part part : completedParts.values()) {
+            if (part.path.equals(path)) {
+                length = Math.max(length, part.length);
+            }
+        }
+        return length;
+    }
+
+    synchronized int documents(String index, int shard) {
+        Part part = completedParts.get(key(index, shard));
+        return part == null ? 0 : part.documents;
+    }
+
+    /**
+     * Durably records that the given shard has been completely saved to the given part file
+     */
+    synchronized void completed(String index, int shard, String partPath, int documents) throws IOException {
+        Part part = new Part(partPath, documents, new File(partPath).length());
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            XContentFactory.jsonBuilder().startObject()
+                    .field("index", index).field("shard", shard).field("part", part.path)
+                    .field("documents", part.documents).field("length", part.length)
+                    .endObject().bytes().writeTo(outputStream);
+            outputStream.write('\n');
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        completedParts.put(key(index, shard), part);
+    }
+
+    /**
+     * Removes the checkpoint once the dump has been completed
+     */
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete the checkpoint file {}", file);
+        }
+    }
+
+    private static String key(String index, int shard) {
+        return index + "/" + shard;
+    }
+
+    private static class Part {
+        final String path;
+        final int documents;
+        final long length;
+
+        Part(String path, int documents, long length) {
+            this.path = path;
+            this.documents = documents;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.shell.ExecutorWithProgress;
+import org.elasticsearch.shell.console.Console;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Keeps track of a dump being saved or restored: documents and bytes transferred together with their throughput,
+ * latency percentiles of the bulk requests and estimated time left, given the expected number of documents or bytes.
+ * The status is displayed on a single console line, and can also be appended to a metrics file as comma separated values.
+ */
+class TransferProgress implements ExecutorWithProgress.ProgressStatus, Closeable {
+
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final double MB = 1024 * 1024;
+
+    private final String action;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong expectedDocuments = new AtomicLong();
+    private final AtomicLong expectedBytes = new AtomicLong();
+    //ring buffer with the latest latencies
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+    private final Writer metricsWriter;
+    private volatile ExecutorWithProgress<Void> executor;
+
+    /**
+     * @param action the past tense of the action whose progress is tracked (e.g. Saved), used as prefix of the status
+     * @param metricsPath the optional path of the metrics file, null if no metrics file is needed
+     */
+    TransferProgress(String action, String metricsPath) throws IOException {
+        this.action = action;
+        if (metricsPath == null) {
+            this.metricsWriter = null;
+        } else {
+            this.metricsWriter = new BufferedWriter(new FileWriter(metricsPath));
+            this.metricsWriter.write("timestamp,elapsed_ms,documents,expected_documents,bytes,expected_bytes,"
+                    + "documents_per_sec,mb_per_sec,latency_p50_ms,latency_p90_ms,latency_p99_ms\n");
+        }
+    }
+
+    void documents(long documents) {
+        this.documents.addAndGet(documents);
+    }
+
+    void bytes(long bytes) {
+        this.bytes.addAndGet(bytes);
+    }
+
+    void expectedDocuments(long expectedDocuments) {
+        this.expectedDocuments.addAndGet(expectedDocuments);
+    }
+
+    void expectedBytes(long expectedBytes) {
+        this.expectedBytes.addAndGet(expectedBytes);
+    }
+
+    void latency(long millis) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = millis;
+        }
+    }
+
+    @Override
+    public synchronized String status() {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(1, now - startTime);
+        long documents = this.documents.get();
+        long bytes = this.bytes.get();
+        long expectedDocuments = this.expectedDocuments.get();
+        long expectedBytes = this.expectedBytes.get();
+        double documentsPerSec = documents * 1000d / elapsed;
+        double mbPerSec = bytes / MB * 1000d / elapsed;
+        long[] percentiles = latencyPercentiles(50, 90, 99);
+
+        StringBuilder status = new StringBuilder(action).append(' ').append(documents);
+        if (expectedDocuments > 0) {
+            status.append(" of ").append(expectedDocuments);
+        }
+        status.append(String.format(Locale.ROOT, " docs (%.0f docs/s)", documentsPerSec));
+        if (bytes > 0) {
+            status.append(String.format(Locale.ROOT, ", %.1f", bytes / MB));
+            if (expectedBytes > 0) {
+                status.append(String.format(Locale.ROOT, " of %.1f", expectedBytes / MB));
+            }
+            status.append(String.format(Locale.ROOT, " MB (%.1f MB/s)", mbPerSec));
+        }
+        if (percentiles != null) {
+            status.append(String.format(Locale.ROOT, ", bulk p50/p90/p99 %d/%d/%d ms",
+                    percentiles[0], percentiles[1], percentiles[2]));
+        }
+        //the estimate relies on documents when their total is known, on bytes otherwise
+        double remainingMillis = -1;
+        if (expectedDocuments > 0 && documents > 0) {
+            remainingMillis = Math.max(0, expectedDocuments - documents) * (double) elapsed / documents;
+        } else if (expectedBytes > 0 && bytes > 0) {
+            remainingMillis = Math.max(0, expectedBytes - bytes) * (double) elapsed / bytes;
+        }
+        if (remainingMillis >= 0) {
+            status.append(", ETA ").append(TimeValue.timeValueMillis((long) remainingMillis));
+        }
+
+        if (metricsWriter != null) {
+            try {
+                metricsWriter.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%.1f,%.3f,%s,%s,%s\n", now, elapsed,
+                        documents, expectedDocuments, bytes, expectedBytes, documentsPerSec, mbPerSec,
+                        percentiles == null ? "" : percentiles[0], percentiles == null ? "" : percentiles[1],
+                        percentiles == null ? "" : percentiles[2]));
+                metricsWriter.flush();
+            } catch (IOException e) {
+                //the metrics file is a best effort, failing to write it doesn't stop the transfer
+            }
+        }
+        return status.toString();
+    }
+
+    /**
+     * @return the requested percentiles of the latest bulk latencies, null if no latency has been recorded yet
+     */
+    private long[] latencyPercentiles(int... percentiles) {
+        long[] samples;
+        synchronized (latencies) {
+            if (latencyCount == 0) {
+                return null;
+            }
+            samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(samples);
+        long[] values = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(percentiles[i] / 100d * samples.length) - 1;
+            values[i] = samples[Math.max(0, rank)];
+        }
+        return values;
+    }
+
+    /**
+     * Runs the given task displaying its progress on the console till it completes
+     */
+    void run(Console<PrintStream> console, final Task task) throws IOException {
+        final IOException[] failure = new IOException[1];
+        executor = new ExecutorWithProgress<Void>(console, new ExecutorWithProgress.ActionCallback<Void>() {
+            @Override
+            public Void execute() {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                return null;
+            }
+        }, this);
+        executor.execute();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Prints a message below the status line, which is safe to do from any thread while the progress is displayed
+     */
+    void println(String message) {
+        if (executor == null) {
+            throw new IllegalStateException("The progress is not being displayed");
+        }
+        executor.println(message);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (metricsWriter != null) {
+            metricsWriter.close();
+        }
+    }
+
+    interface Task {
+        void run() throws IOException;
+    }
+}
@@ -18,6 +18,9 @@
  */
 package org.elasticsearch.shell.json;
 
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
+
 /**
  * @author Luca Cavanna
  *
@@ -32,4 +35,12 @@ public interface JsonToString<JsonInput> {
      * @return the created string
      */
     public String jsonToString(JsonInput json, boolean prettify);
+
+    /**
+     * Serializes a native json object straight to bytes, without going through an intermediate string
+     * @param json the given native json object
+     * @param contentType the format to serialize the json to (e.g. json or smile)
+     * @return the serialized json
+     */
+    public BytesReference jsonToBytes(JsonInput json, XContentType contentType);
 }
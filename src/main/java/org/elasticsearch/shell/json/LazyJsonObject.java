@@ -0,0 +1,263 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.jackson.core.JsonFactory;
+import org.elasticsearch.common.jackson.core.JsonLocation;
+import org.elasticsearch.common.jackson.core.JsonParser;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContentParser;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Native json object backed by its serialized form, which gets parsed only when one of its properties is accessed.
+ * Only one level is parsed at a time: nested objects and arrays are skipped and kept as slices of the original json buffer
+ * until the property that holds them is read, then objects become lazy objects themselves and arrays get lazy elements.
+ * Slices need to be self-contained json, thus an object serialized in a different format gets converted to json first.
+ * Reading the total hits of a huge search response doesn't require to convert all of its hits, which only get
+ * converted one by one when accessed.
+ */
+class LazyJsonObject extends NativeObject {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private BytesReference bytes;
+
+    LazyJsonObject(Scriptable scope, BytesReference bytes) {
+        this.bytes = bytes;
+        setParentScope(scope);
+        setPrototype(ScriptableObject.getObjectPrototype(scope));
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        load();
+        Object value = super.get(name, start);
+        if (value instanceof Subtree) {
+            value = ((Subtree) value).toJson(getParentScope());
+            super.put(name, this, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object get(int index, Scriptable start) {
+        load();
+        Object value = super.get(index, start);
+        if (value instanceof Subtree) {
+            value = ((Subtree) value).toJson(getParentScope());
+            super.put(index, this, value);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        load();
+        return super.has(name, start);
+    }
+
+    @Override
+    public boolean has(int index, Scriptable start) {
+        load();
+        return super.has(index, start);
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+        load();
+        super.put(name, start, value);
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value) {
+        load();
+        super.put(index, start, value);
+    }
+
+    @Override
+    public void delete(String name) {
+        load();
+        super.delete(name);
+    }
+
+    @Override
+    public void delete(int index) {
+        load();
+        super.delete(index);
+    }
+
+    @Override
+    public Object[] getIds() {
+        load();
+        return super.getIds();
+    }
+
+    @Override
+    public Object[] getAllIds() {
+        load();
+        return super.getAllIds();
+    }
+
+    /**
+     * Parses the first level of the object, unless already done
+     */
+    private void load() {
+        if (bytes == null) {
+            return;
+        }
+        BytesReference toLoad = bytes;
+        //cleared first since setting the properties goes through this method too
+        bytes = null;
+        SliceParser parser = null;
+        try {
+            BytesArray json = toJson(toLoad);
+            parser = createParser(json);
+            parser.nextToken();
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                String name = parser.currentName();
+                Object value = readValue(json, parser, parser.nextToken());
+                int index = RhinoStringToJson.arrayIndex(name);
+                if (index < 0) {
+                    super.put(name, this, value);
+                } else {
+                    super.put(index, this, value);
+                }
+            }
+            if (token != XContentParser.Token.END_OBJECT) {
+                throw new IOException("Expected field name but got " + token);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read json object: " + e.getMessage(), e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+    }
+
+    private static BytesArray toJson(BytesReference bytes) throws IOException {
+        if (XContentFactory.xContentType(bytes) != XContentType.JSON) {
+            return new BytesArray(XContentHelper.convertToJson(bytes, false));
+        }
+        return bytes.toBytesArray();
+    }
+
+    private static SliceParser createParser(BytesArray json) throws IOException {
+        return new SliceParser(jsonFactory.createParser(json.array(), json.arrayOffset(), json.length()));
+    }
+
+    /**
+     * Reads the current value, skipping it and keeping its slice of the given json if it's an object or an array
+     */
+    private static Object readValue(BytesArray json, SliceParser parser, XContentParser.Token token) throws IOException {
+        if (token == XContentParser.Token.START_OBJECT || token == XContentParser.Token.START_ARRAY) {
+            int start = parser.bracketPosition();
+            parser.skipChildren();
+            int end = parser.bracketPosition() + 1;
+            return new Subtree(new BytesArray(json.array(), start, end - start), token == XContentParser.Token.START_ARRAY);
+        }
+        return RhinoStringToJson.readScalar(parser, token);
+    }
+
+    /**
+     * Json parser that exposes the xcontent tokens together with the position of the current bracket within the buffer
+     */
+    private static class SliceParser extends JsonXContentParser {
+        private final JsonParser jsonParser;
+
+        SliceParser(JsonParser jsonParser) {
+            super(jsonParser);
+            this.jsonParser = jsonParser;
+        }
+
+        /**
+         * The token location of a value starts at its field name, while the current location of the byte based parser
+         * is the absolute position of the last character read, which is the bracket itself if the current token is one.
+         * The position is exposed as character offset, the byte offset is left unset.
+         */
+        int bracketPosition() {
+            JsonLocation location = jsonParser.getCurrentLocation();
+            return (int) (location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset());
+        }
+    }
+
+    /**
+     * Json object or array held by a lazy object until the property that holds it gets accessed
+     */
+    private static class Subtree {
+        private final BytesArray bytes;
+        private final boolean array;
+
+        Subtree(BytesArray bytes, boolean array) {
+            this.bytes = bytes;
+            this.array = array;
+        }
+
+        Object toJson(Scriptable scope) {
+            if (!array) {
+                return new LazyJsonObject(scope, bytes);
+            }
+            SliceParser parser = null;
+            try {
+                parser = createParser(bytes);
+                parser.nextToken();
+                return readArray(scope, bytes, parser);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to read json array: " + e.getMessage(), e);
+            } finally {
+                if (parser != null) {
+                    parser.close();
+                }
+            }
+        }
+
+        /**
+         * Reads an array whose objects are lazy, nested arrays are read straight away
+         */
+        private static Scriptable readArray(Scriptable scope, BytesArray json, SliceParser parser) throws IOException {
+            List<Object> values = new ArrayList<Object>();
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                if (token == XContentParser.Token.START_ARRAY) {
+                    values.add(readArray(scope, json, parser));
+                } else {
+                    Object value = readValue(json, parser, token);
+                    values.add(value instanceof Subtree ? ((Subtree) value).toJson(scope) : value);
+                }
+            }
+            return Context.getCurrentContext().newArray(scope, values.toArray());
+        }
+    }
+}
@@ -18,22 +18,119 @@
  */
 package org.elasticsearch.shell.json;
 
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.NativeJSON;
-import org.mozilla.javascript.NativeObject;
-import org.mozilla.javascript.ScriptRuntime;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.mozilla.javascript.*;
 
 /**
  * @author Luca Cavanna
  *
  * Handles the conversion from native json to string depending on the rhino engine
- * A {@link NativeObject} is received as input and converted to a <code>String</code>
+ * A {@link NativeObject} is received as input and converted to a <code>String</code>, or straight to bytes walking
+ * the object graph into an {@link XContentBuilder}, following the same rules as <code>JSON.stringify</code>
  */
 public class RhinoJsonToString implements JsonToString<NativeObject> {
+
+    //doubles beyond this value cannot represent all the integers, thus they're not written as such
+    private static final double MAX_SAFE_INTEGER = 9007199254740992d;
+
     @Override
     public String jsonToString(NativeObject json, boolean prettify) {
         Context context = Context.getCurrentContext();
         Object jsonString = NativeJSON.stringify(context, ScriptRuntime.getGlobal(context), json, null, prettify ? "  " : null);
         return jsonString.toString();
     }
+
+    @Override
+    public BytesReference jsonToBytes(NativeObject json, XContentType contentType) {
+        Context context = Context.getCurrentContext();
+        try {
+            XContentBuilder builder = XContentFactory.contentBuilder(contentType);
+            writeValue(context, ScriptRuntime.getGlobal(context), builder, json, new IdentityHashMap<Object, Object>());
+            return builder.bytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to serialize the json object: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeValue(Context context, Scriptable scope, XContentBuilder builder, Object value,
+                            Map<Object, Object> stack) throws IOException {
+        value = toJson(context, scope, value);
+        if (value == null || value instanceof Undefined || value instanceof Callable) {
+            builder.nullValue();
+        } else if (value instanceof CharSequence) {
+            builder.value(value.toString());
+        } else if (value instanceof Boolean) {
+            builder.value(((Boolean) value).booleanValue());
+        } else if (value instanceof Number) {
+            writeNumber(builder, ((Number) value).doubleValue());
+        } else if (value instanceof NativeArray) {
+            NativeArray array = (NativeArray) value;
+            enter(stack, array);
+            builder.startArray();
+            for (int i = 0; i < array.getLength(); i++) {
+                writeValue(context, scope, builder, array.get(i, array), stack);
+            }
+            builder.endArray();
+            stack.remove(array);
+        } else if (value instanceof Scriptable) {
+            Scriptable object = (Scriptable) value;
+            enter(stack, object);
+            builder.startObject();
+            for (Object id : object.getIds()) {
+                Object property = id instanceof Number ? object.get(((Number) id).intValue(), object)
+                        : object.get(id.toString(), object);
+                //like JSON.stringify, undefined values and functions are left out of objects
+                if (property instanceof Undefined || property instanceof Callable) {
+                    continue;
+                }
+                builder.field(id.toString());
+                writeValue(context, scope, builder, property, stack);
+            }
+            builder.endObject();
+            stack.remove(object);
+        } else {
+            builder.value(value.toString());
+        }
+    }
+
+    /**
+     * Unwraps java objects and applies the toJSON function if available (e.g. dates), as JSON.stringify does
+     */
+    private static Object toJson(Context context, Scriptable scope, Object value) {
+        if (value instanceof Wrapper) {
+            return ((Wrapper) value).unwrap();
+        }
+        if (value instanceof Scriptable) {
+            Scriptable object = (Scriptable) value;
+            Object toJson = ScriptableObject.getProperty(object, "toJSON");
+            if (toJson instanceof Callable) {
+                return ((Callable) toJson).call(context, scope, object, new Object[0]);
+            }
+        }
+        return value;
+    }
+
+    private static void writeNumber(XContentBuilder builder, double number) throws IOException {
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            builder.nullValue();
+        } else if (number == Math.rint(number) && Math.abs(number) <= MAX_SAFE_INTEGER) {
+            //integral numbers are written without decimals as JSON.stringify does, so that they're not mapped as doubles
+            builder.value((long) number);
+        } else {
+            builder.value(number);
+        }
+    }
+
+    private static void enter(Map<Object, Object> stack, Object object) {
+        if (stack.put(object, object) != null) {
+            throw new IllegalArgumentException("Unable to serialize a cyclic json object");
+        }
+    }
 }
@@ -18,8 +18,18 @@
  */
 package org.elasticsearch.shell.json;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.json.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +38,10 @@ import org.slf4j.LoggerFactory;
  * @author Luca Cavanna
  *
  * Handles the conversion from string to native json depending on the rhino engine
- * A generic <code>Object</code> is produced from a String
+ * A generic <code>Object</code> is produced from a String, or straight from the xcontent token stream when the json is
+ * available in its serialized form, without going through an intermediate string that needs to be parsed again.
+ * Objects can also be created lazily through {@link LazyJsonObject}, parsed only when their properties get accessed.
+ * The objects produced are the same as the ones produced by the rhino json parser (e.g. all numbers are doubles).
  */
 public class RhinoStringToJson implements StringToJson<Object> {
     private static final Logger logger = LoggerFactory.getLogger(RhinoStringToJson.class);
@@ -43,4 +56,132 @@ public class RhinoStringToJson implements StringToJson<Object> {
             throw new IllegalArgumentException(e.getMessage(), e);
         }
     }
+
+    @Override
+    public Object bytesToJson(BytesReference json) {
+        Context context = Context.getCurrentContext();
+        XContentParser parser = null;
+        try {
+            parser = createParser(json);
+            XContentParser.Token token = parser.nextToken();
+            if (token == null) {
+                throw new IllegalArgumentException("Unable to create a json object from empty content");
+            }
+            return readValue(context, ScriptRuntime.getGlobal(context), parser, token);
+        } catch (IOException e) {
+            logger.error("Unable to create a json object from xcontent", e);
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+    }
+
+    @Override
+    public Object lazyBytesToJson(BytesReference json) {
+        XContentParser parser = null;
+        try {
+            parser = createParser(json);
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                //only objects can be lazy
+                return bytesToJson(json);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to create a json object from xcontent", e);
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+        Context context = Context.getCurrentContext();
+        return new LazyJsonObject(ScriptRuntime.getGlobal(context), json);
+    }
+
+    /**
+     * Only objects and smile content can be detected, anything else (e.g. arrays and scalar values) is read as json
+     */
+    private static XContentParser createParser(BytesReference json) throws IOException {
+        XContentType contentType = XContentFactory.xContentType(json);
+        return XContentFactory.xContent(contentType != null ? contentType : XContentType.JSON).createParser(json);
+    }
+
+    private Object readValue(Context context, Scriptable scope, XContentParser parser, XContentParser.Token token)
+            throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return readObject(context, scope, parser);
+            case START_ARRAY:
+                return readArray(context, scope, parser);
+            default:
+                return readScalar(parser, token);
+        }
+    }
+
+    /**
+     * Reads the current value of the parser, which is expected not to be an object or an array
+     */
+    static Object readScalar(XContentParser parser, XContentParser.Token token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.text();
+            case VALUE_NUMBER:
+                return parser.doubleValue();
+            case VALUE_BOOLEAN:
+                return parser.booleanValue();
+            case VALUE_NULL:
+                return null;
+            case VALUE_EMBEDDED_OBJECT:
+                //binary values are base64 encoded as they would be in json
+                return Base64.encodeBytes(parser.binaryValue());
+            default:
+                throw new IOException("Unexpected token " + token);
+        }
+    }
+
+    private Scriptable readObject(Context context, Scriptable scope, XContentParser parser) throws IOException {
+        Scriptable object = context.newObject(scope);
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                throw new IOException("Expected field name but got " + token);
+            }
+            String name = parser.currentName();
+            Object value = readValue(context, scope, parser, parser.nextToken());
+            //array indexes need to be set as such, like the rhino json parser does
+            int index = arrayIndex(name);
+            if (index < 0) {
+                object.put(name, object, value);
+            } else {
+                object.put(index, object, value);
+            }
+        }
+        return object;
+    }
+
+    private Scriptable readArray(Context context, Scriptable scope, XContentParser parser) throws IOException {
+        List<Object> values = new ArrayList<Object>();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            values.add(readValue(context, scope, parser, token));
+        }
+        return context.newArray(scope, values.toArray());
+    }
+
+    static int arrayIndex(String name) {
+        int length = name.length();
+        if (length == 0 || length > 9 || (length > 1 && name.charAt(0) == '0')) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + c - '0';
+        }
+        return index;
+    }
 }
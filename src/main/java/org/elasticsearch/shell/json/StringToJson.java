@@ -18,6 +18,8 @@
  */
 package org.elasticsearch.shell.json;
 
+import org.elasticsearch.common.bytes.BytesReference;
+
 /**
  * @author Luca Cavanna
  *
@@ -31,4 +33,18 @@ public interface StringToJson<JsonOutput> {
      * @return the created native json object
      */
     public JsonOutput stringToJson(String json);
+
+    /**
+     * Creates a native json object given its serialized form in any of the supported xcontent formats (json, smile...)
+     * @param json the given serialized json
+     * @return the created native json object
+     */
+    public JsonOutput bytesToJson(BytesReference json);
+
+    /**
+     * Creates a native json object given its serialized form, which gets parsed only when its properties are accessed
+     * @param json the given serialized json object
+     * @return the created native json object
+     */
+    public JsonOutput lazyBytesToJson(BytesReference json);
 }
@@ -0,0 +1,166 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Requests;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class AdaptiveBulkProcessorTest {
+
+    //long enough for the latency per item not to be affected by the noise
+    private static final long NANOS_PER_ITEM = 200000;
+
+    MockBulkClient mockClient;
+    AdaptiveBulkProcessor bulkProcessor;
+
+    @BeforeMethod
+    public void init() {
+        mockClient = new MockBulkClient();
+        mockClient.bulkHandler(MockBulkClient.succeed(NANOS_PER_ITEM));
+        bulkProcessor = AdaptiveBulkProcessor.builder(mockClient.client(), NOOP_LISTENER)
+                .initialBulkActions(50).minBulkActions(50).maxBulkActions(150).maxConcurrentRequests(3)
+                .maxBulkSize("100mb").build();
+    }
+
+    @Test
+    public void testIncreaseBulkSizeThenConcurrency() throws Exception {
+        Assert.assertEquals(bulkProcessor.bulkActions(), 50);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+
+        add(50);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 100);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+        add(100);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 150);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+
+        //once the bulks are as big as allowed, the concurrency grows up to its maximum
+        add(150);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 150);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 2);
+        add(150);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 3);
+        add(150);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 3);
+        Assert.assertEquals(mockClient.bulkRequests().size(), 5);
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testDecreaseOnRejections() throws Exception {
+        add(50 + 100 + 150 + 150);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 150);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 3);
+
+        mockClient.bulkHandler(MockBulkClient.reject(1));
+        add(150);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 75);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+        //never below the minimum
+        add(75);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 50);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testDecreaseOnLatency() throws Exception {
+        add(50 + 100 + 150);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 150);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 2);
+
+        mockClient.bulkHandler(MockBulkClient.succeed(NANOS_PER_ITEM * 5));
+        add(150);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 75);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testDecreaseOnFailure() throws Exception {
+        add(50 + 100);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 150);
+
+        mockClient.bulkHandler(MockBulkClient.fail("no node available"));
+        add(150);
+        Assert.assertEquals(bulkProcessor.bulkActions(), 75);
+        Assert.assertEquals(bulkProcessor.concurrentRequests(), 1);
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testCloseFlushesPendingRequests() throws Exception {
+        add(30);
+        Assert.assertEquals(mockClient.bulkRequests().size(), 0);
+        bulkProcessor.close();
+        Assert.assertEquals(mockClient.bulkRequests().size(), 1);
+        Assert.assertEquals(mockClient.bulkRequests().get(0).numberOfActions(), 30);
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        bulkProcessor.close();
+        bulkProcessor = AdaptiveBulkProcessor.builder(mockClient.client(), NOOP_LISTENER).flushInterval("50ms").build();
+        add(10);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (mockClient.bulkRequests().isEmpty() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(mockClient.bulkRequests().size(), 1);
+        Assert.assertEquals(mockClient.bulkRequests().get(0).numberOfActions(), 10);
+        bulkProcessor.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testAddAfterClose() throws Exception {
+        bulkProcessor.close();
+        add(1);
+    }
+
+    private void add(int documents) {
+        for (int i = 0; i < documents; i++) {
+            IndexRequest indexRequest = Requests.indexRequest("twitter").type("tweet").id(Integer.toString(i))
+                    .source("{\"user\":\"kimchy\"}");
+            bulkProcessor.add(indexRequest);
+        }
+    }
+
+    static final BulkProcessor.Listener NOOP_LISTENER = new BulkProcessor.Listener() {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        }
+    };
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Client that only supports bulk requests, answered on the calling thread by the current {@link BulkHandler}.
+ * Every bulk request received is recorded.
+ */
+public class MockBulkClient implements InvocationHandler {
+
+    public static final String REJECTED = "EsRejectedExecutionException[rejected execution of [TransportShardBulkAction]]";
+
+    private final List<BulkRequest> bulkRequests = Collections.synchronizedList(new ArrayList<BulkRequest>());
+    private volatile BulkHandler bulkHandler = succeed(0);
+
+    public Client client() {
+        return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class[]{Client.class}, this);
+    }
+
+    public void bulkHandler(BulkHandler bulkHandler) {
+        this.bulkHandler = bulkHandler;
+    }
+
+    public List<BulkRequest> bulkRequests() {
+        synchronized (bulkRequests) {
+            return new ArrayList<BulkRequest>(bulkRequests);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("bulk") && args != null && args.length == 2) {
+            BulkRequest bulkRequest = (BulkRequest) args[0];
+            bulkRequests.add(bulkRequest);
+            bulkHandler.handle(bulkRequest, (ActionListener<BulkResponse>) args[1]);
+            return null;
+        }
+        throw new UnsupportedOperationException(method.getName());
+    }
+
+    /**
+     * Answers the bulk requests sent to the client
+     */
+    public interface BulkHandler {
+        void handle(BulkRequest request, ActionListener<BulkResponse> listener);
+    }
+
+    /**
+     * @return a handler that makes every item succeed, taking the given time per item
+     */
+    public static BulkHandler succeed(final long nanosPerItem) {
+        return new BulkHandler() {
+            @Override
+            public void handle(BulkRequest request, ActionListener<BulkResponse> listener) {
+                spin(nanosPerItem * request.numberOfActions());
+                listener.onResponse(response(request, 0));
+            }
+        };
+    }
+
+    /**
+     * @return a handler that rejects the first given number of items of every bulk
+     */
+    public static BulkHandler reject(final int rejectedItems) {
+        return new BulkHandler() {
+            @Override
+            public void handle(BulkRequest request, ActionListener<BulkResponse> listener) {
+                listener.onResponse(response(request, rejectedItems));
+            }
+        };
+    }
+
+    /**
+     * @return a handler that makes the whole bulk fail
+     */
+    public static BulkHandler fail(final String message) {
+        return new BulkHandler() {
+            @Override
+            public void handle(BulkRequest request, ActionListener<BulkResponse> listener) {
+                listener.onFailure(new RuntimeException(message));
+            }
+        };
+    }
+
+    public static BulkResponse response(BulkRequest request, int rejectedItems) {
+        List<ActionRequest> requests = request.requests();
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            IndexRequest indexRequest = (IndexRequest) requests.get(i);
+            if (i < rejectedItems) {
+                items[i] = new BulkItemResponse(i, "index", new BulkItemResponse.Failure(indexRequest.index(),
+                        indexRequest.type(), indexRequest.id(), REJECTED));
+            } else {
+                items[i] = new BulkItemResponse(i, "index", new IndexResponse(indexRequest.index(), indexRequest.type(),
+                        indexRequest.id(), 1));
+            }
+        }
+        return new BulkResponse(items, 1);
+    }
+
+    /**
+     * Busy waits rather than sleeping, which wouldn't be precise enough to simulate short latencies
+     */
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            //busy waiting
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Requests;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class RetryingBulkListenerTest {
+
+    MockBulkClient mockClient;
+    File deadLetterFile;
+    List<ActionRequest<?>> completed;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        mockClient = new MockBulkClient();
+        deadLetterFile = File.createTempFile("dead-letter", ".json");
+        deadLetterFile.delete();
+        completed = Collections.synchronizedList(new ArrayList<ActionRequest<?>>());
+    }
+
+    @AfterMethod
+    public void destroy() {
+        deadLetterFile.delete();
+    }
+
+    @Test
+    public void testRejectedItemsRetried() throws Exception {
+        //only the first bulk gets some of its items rejected
+        final AtomicInteger bulks = new AtomicInteger();
+        mockClient.bulkHandler(new MockBulkClient.BulkHandler() {
+            @Override
+            public void handle(BulkRequest request, ActionListener<BulkResponse> listener) {
+                listener.onResponse(MockBulkClient.response(request, bulks.getAndIncrement() == 0 ? 3 : 0));
+            }
+        });
+        RetryingBulkListener bulkListener = index(10, 10, 5);
+        Assert.assertEquals(bulkListener.indexed(), 10);
+        Assert.assertEquals(bulkListener.retried(), 3);
+        Assert.assertEquals(bulkListener.failed(), 0);
+        Assert.assertEquals(mockClient.bulkRequests().size(), 2);
+        Assert.assertEquals(mockClient.bulkRequests().get(1).numberOfActions(), 3);
+        Assert.assertFalse(deadLetterFile.exists());
+        assertCompletedOnce(10);
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        mockClient.bulkHandler(MockBulkClient.reject(2));
+        RetryingBulkListener bulkListener = index(10, 10, 2);
+        Assert.assertEquals(bulkListener.indexed(), 8);
+        //the same two items retried twice
+        Assert.assertEquals(bulkListener.retried(), 4);
+        Assert.assertEquals(bulkListener.failed(), 2);
+        Assert.assertEquals(mockClient.bulkRequests().size(), 3);
+        List<String> deadLetters = readLines(deadLetterFile);
+        Assert.assertEquals(deadLetters.size(), 4);
+        Assert.assertEquals(deadLetters.get(0), "{\"index\":{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"0\"}}");
+        Assert.assertEquals(deadLetters.get(1), "{\"user\":\"kimchy\"}");
+        assertCompletedOnce(10);
+    }
+
+    @Test
+    public void testPermanentFailuresNotRetried() throws Exception {
+        mockClient.bulkHandler(new MockBulkClient.BulkHandler() {
+            @Override
+            public void handle(BulkRequest request, ActionListener<BulkResponse> listener) {
+                BulkResponse response = MockBulkClient.response(request, 0);
+                IndexRequest indexRequest = (IndexRequest) request.requests().get(0);
+                response.getItems()[0] = new BulkItemResponse(0, "index", new BulkItemResponse.Failure(indexRequest.index(),
+                        indexRequest.type(), indexRequest.id(), "MapperParsingException[failed to parse]"));
+                listener.onResponse(response);
+            }
+        });
+        RetryingBulkListener bulkListener = index(10, 10, 5);
+        Assert.assertEquals(bulkListener.indexed(), 9);
+        Assert.assertEquals(bulkListener.retried(), 0);
+        Assert.assertEquals(bulkListener.failed(), 1);
+        Assert.assertEquals(mockClient.bulkRequests().size(), 1);
+        Assert.assertEquals(readLines(deadLetterFile).size(), 2);
+        assertCompletedOnce(10);
+    }
+
+    @Test
+    public void testFailedBulkRetried() throws Exception {
+        final AtomicInteger bulks = new AtomicInteger();
+        mockClient.bulkHandler(new MockBulkClient.BulkHandler() {
+            @Override
+            public void handle(BulkRequest request, ActionListener<BulkResponse> listener) {
+                if (bulks.getAndIncrement() == 0) {
+                    listener.onFailure(new RuntimeException("no node available"));
+                } else {
+                    listener.onResponse(MockBulkClient.response(request, 0));
+                }
+            }
+        });
+        RetryingBulkListener bulkListener = index(10, 5, 5);
+        Assert.assertEquals(bulkListener.indexed(), 10);
+        Assert.assertEquals(bulkListener.retried(), 5);
+        Assert.assertEquals(bulkListener.failed(), 0);
+        assertCompletedOnce(10);
+    }
+
+    @Test
+    public void testRetriesGoThroughProcessor() throws Exception {
+        mockClient.bulkHandler(MockBulkClient.reject(1));
+        final RetryingBulkListener bulkListener = RetryingBulkListener.builder(mockClient.client(),
+                AdaptiveBulkProcessorTest.NOOP_LISTENER).maxRetries(1).initialBackoff("1ms").build();
+        AdaptiveBulkProcessor bulkProcessor = AdaptiveBulkProcessor.builder(mockClient.client(), bulkListener)
+                .initialBulkActions(5).minBulkActions(5).maxBulkActions(5).build();
+        final List<BulkRequest> retries = Collections.synchronizedList(new ArrayList<BulkRequest>());
+        final AdaptiveBulkProcessor processor = bulkProcessor;
+        bulkListener.retryThrough(new RetryingBulkListener.BulkExecutor() {
+            @Override
+            public void execute(BulkRequest request, ActionListener<BulkResponse> listener) {
+                retries.add(request);
+                processor.execute(request, listener);
+            }
+        });
+        add(bulkProcessor, 10);
+        bulkProcessor.close();
+        bulkListener.close();
+        Assert.assertEquals(retries.size(), 2);
+        Assert.assertEquals(bulkListener.retried(), 2);
+        Assert.assertEquals(bulkListener.failed(), 2);
+        Assert.assertEquals(bulkListener.indexed(), 8);
+    }
+
+    @Test
+    public void testListenersShareDeadLetterFile() throws Exception {
+        mockClient.bulkHandler(MockBulkClient.reject(1));
+        RetryingBulkListener.Builder builder = RetryingBulkListener.builder(mockClient.client(),
+                AdaptiveBulkProcessorTest.NOOP_LISTENER)
+                .maxRetries(1).initialBackoff("1ms").deadLetterPath(deadLetterFile.getAbsolutePath());
+        //one listener per processor, their execution ids are the same but they don't get mixed up
+        RetryingBulkListener firstListener = builder.build();
+        RetryingBulkListener secondListener = builder.build();
+        AdaptiveBulkProcessor firstProcessor = AdaptiveBulkProcessor.builder(mockClient.client(), firstListener)
+                .initialBulkActions(5).minBulkActions(5).maxBulkActions(5).build();
+        AdaptiveBulkProcessor secondProcessor = AdaptiveBulkProcessor.builder(mockClient.client(), secondListener)
+                .initialBulkActions(5).minBulkActions(5).maxBulkActions(5).build();
+        firstListener.retryThrough(firstProcessor);
+        secondListener.retryThrough(secondProcessor);
+        add(firstProcessor, 10);
+        firstProcessor.close();
+        firstListener.close();
+        //the file gets opened again after the first listener closed it
+        add(secondProcessor, 5);
+        secondProcessor.close();
+        secondListener.close();
+
+        Assert.assertEquals(firstListener.failed(), 2);
+        Assert.assertEquals(firstListener.indexed(), 8);
+        Assert.assertEquals(secondListener.failed(), 1);
+        Assert.assertEquals(secondListener.indexed(), 4);
+        Assert.assertEquals(readLines(deadLetterFile).size(), 6);
+    }
+
+    private RetryingBulkListener index(int documents, int bulkActions, int maxRetries) throws IOException {
+        RetryingBulkListener bulkListener = RetryingBulkListener.builder(mockClient.client(),
+                AdaptiveBulkProcessorTest.NOOP_LISTENER)
+                .maxRetries(maxRetries).initialBackoff("1ms").deadLetterPath(deadLetterFile.getAbsolutePath())
+                .completionListener(new RetryingBulkListener.CompletionListener() {
+                    @Override
+                    public void completed(List<ActionRequest<?>> requests) {
+                        completed.addAll(requests);
+                    }
+                }).build();
+        AdaptiveBulkProcessor bulkProcessor = AdaptiveBulkProcessor.builder(mockClient.client(), bulkListener)
+                .initialBulkActions(bulkActions).minBulkActions(bulkActions).maxBulkActions(bulkActions).build();
+        bulkListener.retryThrough(bulkProcessor);
+        add(bulkProcessor, documents);
+        bulkProcessor.close();
+        bulkListener.close();
+        return bulkListener;
+    }
+
+    private static void add(AdaptiveBulkProcessor bulkProcessor, int documents) {
+        for (int i = 0; i < documents; i++) {
+            bulkProcessor.add(Requests.indexRequest("twitter").type("tweet").id(Integer.toString(i))
+                    .source("{\"user\":\"kimchy\"}"));
+        }
+    }
+
+    private void assertCompletedOnce(int documents) {
+        Assert.assertEquals(completed.size(), documents);
+        Set<String> ids = new HashSet<String>();
+        for (ActionRequest<?> request : completed) {
+            ids.add(((IndexRequest) request).id());
+        }
+        Assert.assertEquals(ids.size(), documents);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
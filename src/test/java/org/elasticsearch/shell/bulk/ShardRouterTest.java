@@ -0,0 +1,191 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.bulk;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequest;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.AdminClient;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.ClusterAdminClient;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.routing.RoutingTable;
+import org.elasticsearch.cluster.routing.operation.OperationRouting;
+import org.elasticsearch.cluster.routing.operation.hash.djb.DjbHashFunction;
+import org.elasticsearch.cluster.routing.operation.plain.PlainOperationRouting;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class ShardRouterTest {
+
+    @Test
+    public void testSameShardAsElasticsearch() {
+        MetaData.Builder metaData = MetaData.builder();
+        RoutingTable.Builder routingTable = RoutingTable.builder();
+        int[] shards = new int[]{1, 2, 5, 7, 16};
+        for (int numberOfShards : shards) {
+            IndexMetaData indexMetaData = IndexMetaData.builder("index" + numberOfShards)
+                    .numberOfShards(numberOfShards).numberOfReplicas(1).build();
+            metaData.put(indexMetaData, false);
+            routingTable.addAsNew(indexMetaData);
+        }
+        ClusterState clusterState = ClusterState.builder().metaData(metaData).routingTable(routingTable).build();
+
+        ShardRouter shardRouter = new ShardRouter(new MockClusterStateClient(clusterState).client());
+        OperationRouting operationRouting = new PlainOperationRouting(ImmutableSettings.EMPTY, new DjbHashFunction(), null);
+        Random random = new Random(42);
+        for (int numberOfShards : shards) {
+            String index = "index" + numberOfShards;
+            for (int i = 0; i < 1000; i++) {
+                String id = i % 2 == 0 ? Integer.toString(i) : randomString(random);
+                String routing = i % 3 == 0 ? randomString(random) : null;
+                int expected = operationRouting.indexShards(clusterState, index, "tweet", id, routing).shardId().id();
+                Assert.assertEquals(shardRouter.shard(index, id, routing), expected, "id [" + id + "] routing [" + routing + "]");
+            }
+        }
+    }
+
+    @Test
+    public void testNumberOfShardsReadOnce() {
+        MockClusterStateClient mockClient = new MockClusterStateClient(clusterState(
+                IndexMetaData.builder("twitter").numberOfShards(5).numberOfReplicas(0)));
+        ShardRouter shardRouter = new ShardRouter(mockClient.client());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(shardRouter.shard("twitter", Integer.toString(i), null) >= 0);
+        }
+        Assert.assertEquals(mockClient.requests.get(), 1);
+    }
+
+    @Test
+    public void testUnknownShard() {
+        MockClusterStateClient mockClient = new MockClusterStateClient(clusterState(
+                IndexMetaData.builder("twitter").numberOfShards(5).numberOfReplicas(0)
+                        .putAlias(new AliasMetaData.Builder("tweets"))
+                        .putAlias(new AliasMetaData.Builder("kimchy").indexRouting("kimchy"))));
+        ShardRouter shardRouter = new ShardRouter(mockClient.client());
+
+        Assert.assertEquals(shardRouter.shard("twitter", null, null), ShardRouter.UNKNOWN_SHARD);
+        Assert.assertEquals(shardRouter.shard(null, "1", null), ShardRouter.UNKNOWN_SHARD);
+        Assert.assertEquals(shardRouter.shard("missing", "1", null), ShardRouter.UNKNOWN_SHARD);
+        //the routing of the alias would be applied by elasticsearch
+        Assert.assertEquals(shardRouter.shard("kimchy", "1", null), ShardRouter.UNKNOWN_SHARD);
+        Assert.assertEquals(shardRouter.shard("tweets", "1", null), shardRouter.shard("twitter", "1", null));
+        Assert.assertEquals(shardRouter.shard("twitter", null, "kimchy"), shardRouter.shard("twitter", "kimchy", null));
+    }
+
+    @Test
+    public void testClusterStateFailure() {
+        ShardRouter shardRouter = new ShardRouter(new MockClusterStateClient(null).client());
+        Assert.assertEquals(shardRouter.shard("twitter", "1", null), ShardRouter.UNKNOWN_SHARD);
+    }
+
+    private static ClusterState clusterState(IndexMetaData.Builder indexMetaData) {
+        return ClusterState.builder().metaData(MetaData.builder().put(indexMetaData)).build();
+    }
+
+    private static String randomString(Random random) {
+        char[] chars = new char[1 + random.nextInt(20)];
+        for (int i = 0; i < chars.length; i++) {
+            //includes characters outside of ascii, hashed as utf-16 code units
+            chars[i] = (char) (random.nextBoolean() ? 'a' + random.nextInt(26) : random.nextInt(0xD800));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Client that only supports cluster state requests, answered with the metadata of the requested indices,
+     * resolving aliases too. Fails every request if no cluster state is given.
+     */
+    private static class MockClusterStateClient implements InvocationHandler {
+
+        private final ClusterState clusterState;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        MockClusterStateClient(ClusterState clusterState) {
+            this.clusterState = clusterState;
+        }
+
+        Client client() {
+            return proxy(Client.class);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T proxy(Class<T> type) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("admin")) {
+                return proxy(AdminClient.class);
+            }
+            if (method.getName().equals("cluster")) {
+                return proxy(ClusterAdminClient.class);
+            }
+            if (method.getName().equals("state") && args != null && args.length == 1) {
+                requests.incrementAndGet();
+                if (clusterState == null) {
+                    throw new RuntimeException("cluster state not available");
+                }
+                final ClusterState filteredState = filter((ClusterStateRequest) args[0]);
+                return Proxy.newProxyInstance(ActionFuture.class.getClassLoader(), new Class[]{ActionFuture.class},
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                if (method.getName().equals("actionGet")) {
+                                    return new ClusterStateResponse() {
+                                        @Override
+                                        public ClusterState getState() {
+                                            return filteredState;
+                                        }
+                                    };
+                                }
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        });
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        private ClusterState filter(ClusterStateRequest request) {
+            MetaData.Builder metaData = MetaData.builder();
+            for (String name : request.filteredIndices()) {
+                for (IndexMetaData indexMetaData : clusterState.metaData()) {
+                    if (indexMetaData.index().equals(name) || indexMetaData.aliases().containsKey(name)) {
+                        metaData.put(indexMetaData, false);
+                    }
+                }
+            }
+            return ClusterState.builder().metaData(metaData).build();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainListenableActionFuture;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.internal.InternalClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchShardTarget;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.shell.client.builders.AsyncResponse;
+import org.elasticsearch.shell.json.StringToJson;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class ScanCursorTest {
+
+    private static final TimeValue SCROLL = TimeValue.timeValueMinutes(1);
+
+    MockScrollClient mockClient;
+
+    @BeforeMethod
+    public void init() {
+        mockClient = new MockScrollClient();
+    }
+
+    @Test
+    public void testPaging() {
+        mockClient.pages(5, 2, 2, 1);
+        ScanCursor<String> cursor = cursor(5);
+
+        Assert.assertEquals(cursor.total(), 5);
+        List<String> ids = new ArrayList<String>();
+        while (cursor.hasNext()) {
+            ids.add(cursor.next());
+        }
+        Assert.assertEquals(ids, Arrays.asList("0", "1", "2", "3", "4"));
+        //no further page is requested once all the hits have been fetched
+        Assert.assertEquals(mockClient.scrollIds, Arrays.asList("scroll-0", "scroll-1", "scroll-2"));
+        Assert.assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testNextPagePrefetched() {
+        mockClient.pages(4, 2, 2);
+        ScanCursor<String> cursor = cursor(4);
+
+        Assert.assertEquals(cursor.next(), "0");
+        //the second page is already being fetched while the first one is consumed
+        Assert.assertEquals(mockClient.scrollIds.size(), 2);
+        Assert.assertEquals(cursor.next(), "1");
+        Assert.assertEquals(cursor.next(), "2");
+        Assert.assertEquals(mockClient.scrollIds.size(), 2);
+    }
+
+    @Test
+    public void testEmptyPageStops() {
+        //documents deleted while scanning make the total higher than the number of hits returned
+        mockClient.pages(5, 2, 0);
+        ScanCursor<String> cursor = cursor(5);
+
+        int count = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            count++;
+        }
+        Assert.assertEquals(count, 2);
+        Assert.assertEquals(mockClient.scrollIds.size(), 2);
+    }
+
+    @Test
+    public void testNoHits() {
+        ScanCursor<String> cursor = cursor(0);
+        Assert.assertFalse(cursor.hasNext());
+        Assert.assertEquals(cursor.total(), 0);
+        Assert.assertTrue(mockClient.scrollIds.isEmpty());
+    }
+
+    @Test
+    public void testClose() {
+        mockClient.pages(6, 2, 2, 2);
+        ScanCursor<String> cursor = cursor(6);
+
+        Assert.assertEquals(cursor.next(), "0");
+        cursor.close();
+        Assert.assertFalse(cursor.hasNext());
+        try {
+            cursor.next();
+            Assert.fail("closed cursor must not return hits");
+        } catch (NoSuchElementException e) {
+            //expected
+        }
+        Assert.assertEquals(mockClient.scrollIds.size(), 2);
+        Assert.assertTrue(cursor.toString().contains("(closed)"), cursor.toString());
+    }
+
+    @Test
+    public void testForEach() {
+        mockClient.pages(3, 2, 1);
+        ScanCursor<String> cursor = cursor(3);
+        final List<String> ids = new ArrayList<String>();
+        cursor.forEach(new AsyncResponse.Callback<String>() {
+            @Override
+            public void call(String value) {
+                ids.add(value);
+            }
+        });
+        Assert.assertEquals(ids, Arrays.asList("0", "1", "2"));
+        Assert.assertFalse(cursor.hasNext());
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testRemove() {
+        mockClient.pages(1, 1);
+        ScanCursor<String> cursor = cursor(1);
+        cursor.next();
+        cursor.remove();
+    }
+
+    private ScanCursor<String> cursor(long totalHits) {
+        PlainListenableActionFuture<SearchResponse> scanResponse = new PlainListenableActionFuture<SearchResponse>(false, null);
+        scanResponse.onResponse(response("scroll-0", totalHits, 0, 0));
+        return new ScanCursor<String>(mockClient.client(), new IdStringToJson(), SCROLL, scanResponse);
+    }
+
+    private static SearchResponse response(String scrollId, long totalHits, int firstHit, int hits) {
+        InternalSearchHit[] searchHits = new InternalSearchHit[hits];
+        for (int i = 0; i < hits; i++) {
+            String id = Integer.toString(firstHit + i);
+            searchHits[i] = new InternalSearchHit(firstHit + i, id, new StringText("tweet"),
+                    new BytesArray("{\"user\":\"kimchy\"}"), Collections.<String, SearchHitField>emptyMap());
+            searchHits[i].shard(new SearchShardTarget("node", "twitter", 0));
+        }
+        InternalSearchResponse internalResponse = new InternalSearchResponse(
+                new InternalSearchHits(searchHits, totalHits, 0), null, null, false);
+        return new SearchResponse(internalResponse, scrollId, 1, 1, 1, new ShardSearchFailure[0]);
+    }
+
+    /**
+     * Converts a hit to its id, which is enough to check the order in which hits are returned
+     */
+    private static class IdStringToJson implements StringToJson<String> {
+        @Override
+        public String stringToJson(String json) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String bytesToJson(BytesReference json) {
+            String hit = json.toUtf8();
+            int start = hit.indexOf("\"_id\":\"") + 7;
+            return hit.substring(start, hit.indexOf('"', start));
+        }
+
+        @Override
+        public String lazyBytesToJson(BytesReference json) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Client that only supports scroll requests, answered on the calling thread with the configured pages.
+     * The scroll id of every request received is recorded.
+     */
+    private static class MockScrollClient implements InvocationHandler {
+
+        private final List<String> scrollIds = new ArrayList<String>();
+        private final Queue<SearchResponse> pages = new LinkedList<SearchResponse>();
+
+        Client client() {
+            return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class[]{InternalClient.class}, this);
+        }
+
+        /**
+         * Configures the pages returned after the scan response, given the number of hits of each one
+         */
+        void pages(long totalHits, int... pageSizes) {
+            int firstHit = 0;
+            for (int i = 0; i < pageSizes.length; i++) {
+                pages.add(response("scroll-" + (i + 1), totalHits, firstHit, pageSizes[i]));
+                firstHit += pageSizes[i];
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("prepareSearchScroll")) {
+                return new SearchScrollRequestBuilder((Client) proxy, (String) args[0]);
+            }
+            if (method.getName().equals("threadPool")) {
+                return null;
+            }
+            if (method.getName().equals("searchScroll") && args.length == 2) {
+                SearchScrollRequest request = (SearchScrollRequest) args[0];
+                Assert.assertEquals(request.scroll().keepAlive(), SCROLL);
+                scrollIds.add(request.scrollId());
+                SearchResponse page = pages.poll();
+                if (page == null) {
+                    ((ActionListener<SearchResponse>) args[1]).onFailure(new IllegalStateException("no more pages"));
+                } else {
+                    ((ActionListener<SearchResponse>) args[1]).onResponse(page);
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
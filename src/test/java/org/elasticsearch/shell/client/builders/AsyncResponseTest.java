@@ -0,0 +1,274 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.client.builders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class AsyncResponseTest {
+
+    @Test
+    public void testCallbacksInvokedOnJoin() {
+        TestRequestBuilder requestBuilder = new TestRequestBuilder(1);
+        AsyncResponse<TestRequest, TestResponse, String> asyncResponse = requestBuilder.executeAsync();
+        final List<String> calls = new ArrayList<String>();
+        asyncResponse.then(new RecordingCallback<String>(calls, "first")).then(new RecordingCallback<String>(calls, "second"))
+                .onFailure(new RecordingCallback<Throwable>(calls, "failure"));
+
+        //nothing happens till the response is joined, even if it has already been received
+        requestBuilder.respond();
+        Assert.assertTrue(asyncResponse.isDone());
+        Assert.assertTrue(calls.isEmpty());
+        Assert.assertEquals(requestBuilder.converted.get(), 0);
+
+        Assert.assertEquals(asyncResponse.join(), "output-1");
+        Assert.assertEquals(calls, Arrays.asList("first:output-1", "second:output-1"));
+
+        //joining again doesn't convert the response nor invoke the callbacks again
+        Assert.assertEquals(asyncResponse.join(), "output-1");
+        Assert.assertEquals(requestBuilder.converted.get(), 1);
+        Assert.assertEquals(calls.size(), 2);
+
+        //a callback registered after joining is invoked straight away
+        asyncResponse.then(new RecordingCallback<String>(calls, "third"));
+        Assert.assertEquals(calls, Arrays.asList("first:output-1", "second:output-1", "third:output-1"));
+    }
+
+    @Test
+    public void testFailureCallbacks() {
+        TestRequestBuilder requestBuilder = new TestRequestBuilder(1);
+        AsyncResponse<TestRequest, TestResponse, String> asyncResponse = requestBuilder.executeAsync();
+        final List<String> calls = new ArrayList<String>();
+        asyncResponse.then(new RecordingCallback<String>(calls, "then"))
+                .onFailure(new RecordingCallback<Throwable>(calls, "failure"));
+        requestBuilder.fail("shard not available");
+
+        //the failure is handled by the callback, thus not thrown
+        Assert.assertNull(asyncResponse.join());
+        Assert.assertEquals(calls.size(), 1);
+        Assert.assertTrue(calls.get(0).startsWith("failure:"), calls.get(0));
+        Assert.assertTrue(calls.get(0).contains("shard not available"), calls.get(0));
+
+        asyncResponse.onFailure(new RecordingCallback<Throwable>(calls, "late"));
+        Assert.assertEquals(calls.size(), 2);
+        Assert.assertTrue(calls.get(1).startsWith("late:"), calls.get(1));
+    }
+
+    @Test
+    public void testFailureThrownWithoutCallbacks() {
+        TestRequestBuilder requestBuilder = new TestRequestBuilder(1);
+        AsyncResponse<TestRequest, TestResponse, String> asyncResponse = requestBuilder.executeAsync();
+        requestBuilder.fail("shard not available");
+        for (int i = 0; i < 2; i++) {
+            try {
+                asyncResponse.join();
+                Assert.fail("the failure should have been thrown");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage().contains("shard not available"), e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testConversionFailure() {
+        TestRequestBuilder requestBuilder = new TestRequestBuilder(-1);
+        AsyncResponse<TestRequest, TestResponse, String> asyncResponse = requestBuilder.executeAsync();
+        final List<String> calls = new ArrayList<String>();
+        asyncResponse.then(new RecordingCallback<String>(calls, "then"))
+                .onFailure(new RecordingCallback<Throwable>(calls, "failure"));
+        requestBuilder.respond();
+        Assert.assertNull(asyncResponse.join());
+        Assert.assertEquals(calls, Arrays.asList("failure:unable to convert response -1"));
+    }
+
+    @Test(expectedExceptions = ActionRequestValidationException.class)
+    public void testInvalidRequestNotSent() {
+        TestRequestBuilder requestBuilder = new TestRequestBuilder(1);
+        requestBuilder.request().valid = false;
+        try {
+            requestBuilder.executeAsync();
+        } finally {
+            Assert.assertNull(requestBuilder.future);
+        }
+    }
+
+    @Test
+    public void testJoinInOrder() {
+        TestRequestBuilder first = new TestRequestBuilder(1);
+        TestRequestBuilder second = new TestRequestBuilder(2);
+        AsyncResponse<TestRequest, TestResponse, String> firstResponse = first.executeAsync();
+        AsyncResponse<TestRequest, TestResponse, String> secondResponse = second.executeAsync();
+        second.respond();
+        first.respond();
+        Assert.assertEquals(AsyncResponse.join(firstResponse, secondResponse), new Object[]{"output-1", "output-2"});
+    }
+
+    @Test
+    public void testAllLimitsConcurrency() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        TestRequestBuilder[] requestBuilders = new TestRequestBuilder[10];
+        for (int i = 0; i < requestBuilders.length; i++) {
+            requestBuilders[i] = new TestRequestBuilder(i, inFlight, maxInFlight);
+        }
+        Object[] outputs = AsyncResponse.all(3, requestBuilders);
+        Assert.assertEquals(outputs.length, 10);
+        for (int i = 0; i < outputs.length; i++) {
+            Assert.assertEquals(outputs[i], "output-" + i);
+        }
+        Assert.assertEquals(maxInFlight.get(), 3);
+        Assert.assertEquals(inFlight.get(), 0);
+    }
+
+    @Test
+    public void testAllPropagatesFailure() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        TestRequestBuilder[] requestBuilders = new TestRequestBuilder[5];
+        for (int i = 0; i < requestBuilders.length; i++) {
+            requestBuilders[i] = new TestRequestBuilder(i, inFlight, maxInFlight);
+        }
+        requestBuilders[2].failure = "index missing";
+        try {
+            AsyncResponse.all(2, requestBuilders);
+            Assert.fail("the failure should have been thrown");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("index missing"), e.getMessage());
+        }
+        //the requests after the failed one that didn't fit within the concurrency limit are never sent
+        Assert.assertNotNull(requestBuilders[3].future);
+        Assert.assertNull(requestBuilders[4].future);
+    }
+
+    private static class RecordingCallback<T> implements AsyncResponse.Callback<T> {
+
+        private final List<String> calls;
+        private final String name;
+
+        RecordingCallback(List<String> calls, String name) {
+            this.calls = calls;
+            this.name = name;
+        }
+
+        @Override
+        public void call(T value) {
+            calls.add(name + ":" + (value instanceof Throwable ? ((Throwable) value).getMessage() : value));
+        }
+    }
+
+    private static class TestRequest extends ActionRequest<TestRequest> {
+
+        private boolean valid = true;
+
+        @Override
+        public ActionRequestValidationException validate() {
+            if (valid) {
+                return null;
+            }
+            ActionRequestValidationException validationException = new ActionRequestValidationException();
+            validationException.addValidationError("invalid request");
+            return validationException;
+        }
+    }
+
+    private static class TestResponse extends ActionResponse {
+
+        private final int value;
+
+        TestResponse(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Request builder whose requests are answered by the test, or straight away when tracking the requests in flight.
+     * Responses with negative values can't be converted.
+     */
+    private static class TestRequestBuilder extends AbstractRequestBuilder<TestRequest, TestResponse, Object, String> {
+
+        private final int value;
+        private final AtomicInteger inFlight;
+        private final AtomicInteger maxInFlight;
+        private final AtomicInteger converted = new AtomicInteger();
+        private PlainActionFuture<TestResponse> future;
+        private String failure;
+
+        TestRequestBuilder(int value) {
+            this(value, null, null);
+        }
+
+        TestRequestBuilder(int value, AtomicInteger inFlight, AtomicInteger maxInFlight) {
+            super(null, new TestRequest(), null);
+            this.value = value;
+            this.inFlight = inFlight;
+            this.maxInFlight = maxInFlight;
+        }
+
+        void respond() {
+            future.onResponse(new TestResponse(value));
+        }
+
+        void fail(String message) {
+            future.onFailure(new ElasticSearchException(message));
+        }
+
+        @Override
+        protected ActionFuture<TestResponse> doExecute(TestRequest request) {
+            future = PlainActionFuture.newFuture();
+            if (inFlight != null) {
+                int current = inFlight.incrementAndGet();
+                if (current > maxInFlight.get()) {
+                    maxInFlight.set(current);
+                }
+                if (failure != null) {
+                    fail(failure);
+                } else {
+                    respond();
+                }
+            }
+            return future;
+        }
+
+        @Override
+        protected String responseToOutput(TestRequest request, TestResponse response) {
+            converted.incrementAndGet();
+            if (inFlight != null) {
+                inFlight.decrementAndGet();
+            }
+            if (response.value < 0) {
+                throw new ElasticSearchException("unable to convert response " + response.value);
+            }
+            return "output-" + response.value;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class BlockDumpTest {
+
+    File dump;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        dump = File.createTempFile("dump", ".bin");
+    }
+
+    @AfterMethod
+    public void destroy() {
+        dump.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        write(dump, DumpEncoding.JSON, false, 25, 10);
+        Assert.assertTrue(BlockDumpReader.isBlockDump(dump));
+        assertDocuments(readAll(new BlockDumpReader(dump)), 0, 25);
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws Exception {
+        write(dump, DumpEncoding.JSON, true, 25, 10);
+        Assert.assertTrue(BlockDumpReader.isBlockDump(dump));
+        assertDocuments(readAll(new BlockDumpReader(dump)), 0, 25);
+    }
+
+    @Test
+    public void testSmileRoundTrip() throws Exception {
+        write(dump, DumpEncoding.SMILE, true, 25, 10);
+        List<Document> documents = readAll(new BlockDumpReader(dump));
+        assertDocuments(documents, 0, 25);
+        for (int i = 0; i < documents.size(); i++) {
+            BytesReference source = documents.get(i).getSource();
+            Assert.assertEquals(XContentFactory.xContentType(source), XContentType.SMILE);
+            Assert.assertEquals(XContentHelper.convertToJson(source, false), "{\"user\":\"kimchy\",\"count\":" + i + "}");
+        }
+    }
+
+    @Test
+    public void testSmileSeekToBlock() throws Exception {
+        write(dump, DumpEncoding.SMILE, false, 25, 10);
+        List<BlockDumpReader.BlockInfo> blocks = BlockDumpReader.readIndex(dump);
+        assertDocuments(readAll(new BlockDumpReader(dump, blocks.get(2).offset)), 20, 5);
+    }
+
+    @Test
+    public void testSmileDocumentFromJsonSource() throws Exception {
+        //the source gets converted to smile, while the dump of the document is still json
+        Document document = DumpEncoding.SMILE.fromSource(new BytesArray("{\"user\":\"kimchy\"}"), "twitter", "tweet", "1");
+        Assert.assertEquals(XContentFactory.xContentType(document.getSource()), XContentType.SMILE);
+        Assert.assertEquals(document.getDump().toUtf8(), "{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"user\":\"kimchy\"}");
+    }
+
+    @Test
+    public void testFooterIndex() throws Exception {
+        write(dump, DumpEncoding.JSON, true, 25, 10);
+        List<BlockDumpReader.BlockInfo> blocks = BlockDumpReader.readIndex(dump);
+        Assert.assertEquals(blocks.size(), 3);
+        Assert.assertEquals(blocks.get(0).offset, (long) BlockDumpWriter.HEADER_LENGTH);
+        Assert.assertEquals(blocks.get(0).documents, 10);
+        Assert.assertEquals(blocks.get(1).documents, 10);
+        Assert.assertEquals(blocks.get(2).documents, 5);
+        Assert.assertTrue(blocks.get(1).offset > blocks.get(0).offset);
+        Assert.assertTrue(blocks.get(2).offset > blocks.get(1).offset);
+    }
+
+    @Test
+    public void testSeekToBlock() throws Exception {
+        write(dump, DumpEncoding.JSON, true, 25, 10);
+        List<BlockDumpReader.BlockInfo> blocks = BlockDumpReader.readIndex(dump);
+
+        assertDocuments(readAll(new BlockDumpReader(dump, blocks.get(1).offset)), 10, 15);
+        //the end offset is the offset of the first block that doesn't need to be read
+        assertDocuments(readAll(new BlockDumpReader(dump, blocks.get(1).offset, blocks.get(2).offset)), 10, 10);
+    }
+
+    @Test
+    public void testBatchEndOffsets() throws Exception {
+        write(dump, DumpEncoding.JSON, false, 25, 10);
+        List<BlockDumpReader.BlockInfo> blocks = BlockDumpReader.readIndex(dump);
+        BlockDumpReader reader = new BlockDumpReader(dump);
+        try {
+            Assert.assertEquals(reader.next().endOffset(), blocks.get(1).offset);
+            Assert.assertEquals(reader.next().endOffset(), blocks.get(2).offset);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncatedFooter() throws Exception {
+        FileWriter writer = new FileWriter(dump);
+        writer.write("{\"_id\":\"1\"}\n");
+        writer.close();
+        Assert.assertFalse(BlockDumpReader.isBlockDump(dump));
+        BlockDumpReader.readIndex(dump);
+    }
+
+    static void write(File file, DumpEncoding encoding, boolean compress, int documents, int blockSize) throws IOException {
+        BlockDumpWriter writer = new BlockDumpWriter(file.getAbsolutePath(), blockSize, encoding, compress);
+        try {
+            for (int i = 0; i < documents; i++) {
+                writer.write(encoding.fromSource(new BytesArray("{\"user\":\"kimchy\",\"count\":" + i + "}"),
+                        "twitter", "tweet", Integer.toString(i)));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    static List<Document> readAll(DumpReader reader) throws IOException {
+        List<Document> documents = new ArrayList<Document>();
+        try {
+            DumpReader.Batch batch;
+            while ((batch = reader.next()) != null) {
+                documents.addAll(batch.documents());
+            }
+        } finally {
+            reader.close();
+        }
+        return documents;
+    }
+
+    static void assertDocuments(List<Document> documents, int first, int count) throws IOException {
+        Assert.assertEquals(documents.size(), count);
+        for (int i = 0; i < count; i++) {
+            Document document = documents.get(i);
+            Assert.assertEquals(document.getIndex(), "twitter");
+            Assert.assertEquals(document.getType(), "tweet");
+            Assert.assertEquals(document.getId(), Integer.toString(first + i));
+        }
+    }
+}
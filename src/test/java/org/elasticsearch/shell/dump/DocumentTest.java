@@ -0,0 +1,104 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class DocumentTest {
+
+    @Test
+    public void testFromDump() throws Exception {
+        Document document = Document.fromDump("{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"user\":\"kimchy\",\"tags\":[\"a\",\"b\"]}");
+        Assert.assertEquals(document.getIndex(), "twitter");
+        Assert.assertEquals(document.getType(), "tweet");
+        Assert.assertEquals(document.getId(), "1");
+        Assert.assertEquals(document.getSource().toUtf8(), "{\"user\":\"kimchy\",\"tags\":[\"a\",\"b\"]}");
+    }
+
+    @Test
+    public void testFromDumpMetadataInBetween() throws Exception {
+        Document document = Document.fromDump("{ \"user\" : {\"name\":\"kim}chy\"}, \"_id\" : 1, \"count\":10 , \"_type\":\"tw\\\"eet\" }");
+        Assert.assertNull(document.getIndex());
+        Assert.assertEquals(document.getType(), "tw\"eet");
+        Assert.assertEquals(document.getId(), "1");
+        Assert.assertEquals(document.getSource().toUtf8(), "{\"user\" : {\"name\":\"kim}chy\"},\"count\":10}");
+    }
+
+    @Test
+    public void testFromDumpOnlyMetadata() throws Exception {
+        Document document = Document.fromDump("{\"_id\":\"1\"}");
+        Assert.assertEquals(document.getId(), "1");
+        Assert.assertEquals(document.getSource().toUtf8(), "{}");
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testFromDumpWithoutId() throws Exception {
+        Document.fromDump("{\"_index\":\"twitter\",\"user\":\"kimchy\"}");
+    }
+
+    @Test
+    public void testFromDumpFirstMetadataWins() throws Exception {
+        Document document = Document.fromDump("{\"_id\":\"1\",\"user\":\"kimchy\",\"_id\":\"2\",\"_type\":\"tweet\",\"_type\":\"other\"}");
+        Assert.assertEquals(document.getId(), "1");
+        Assert.assertEquals(document.getType(), "tweet");
+        Assert.assertEquals(document.getSource().toUtf8(), "{\"user\":\"kimchy\"}");
+    }
+
+    @Test
+    public void testFromDumpEscapedKeys() throws Exception {
+        Document document = Document.fromDump("{\"\\u005fid\":\"1\",\"us\\\"er\":\"kimchy\",\"_index\":\"twitter\"}");
+        Assert.assertEquals(document.getId(), "1");
+        Assert.assertEquals(document.getIndex(), "twitter");
+        Assert.assertEquals(document.getSource().toUtf8(), "{\"us\\\"er\":\"kimchy\"}");
+    }
+
+    @Test
+    public void testFromSourceWithMetadata() throws Exception {
+        Document document = Document.fromSource(new BytesArray("{\"_id\":\"2\",\"user\":\"kimchy\",\"_type\":\"other\"}"), "twitter", "tweet", "1");
+        Assert.assertEquals(document.getDump().toUtf8(), "{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"user\":\"kimchy\"}");
+        Document restored = Document.fromDump(document.getDump());
+        Assert.assertEquals(restored.getId(), "1");
+        Assert.assertEquals(restored.getType(), "tweet");
+    }
+
+    @Test
+    public void testFromSource() throws Exception {
+        Document document = Document.fromSource(new BytesArray("{\"user\":\"kimchy\"}"), "twitter", "tweet", "1");
+        Assert.assertEquals(document.getDump().toUtf8(), "{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"user\":\"kimchy\"}");
+    }
+
+    @Test
+    public void testFromSourceMultipleLines() throws Exception {
+        Document document = Document.fromSource(new BytesArray("{\n  \"user\" : \"kimchy\"\n}"), "twitter", "tweet", "1");
+        Assert.assertEquals(document.getDump().toUtf8(), "{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"1\",\"user\":\"kimchy\"}");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Document saved = Document.fromSource(new BytesArray("{}"), "twitter", "tweet", "1");
+        Document restored = Document.fromDump(saved.getDump());
+        Assert.assertEquals(restored.getId(), "1");
+        Assert.assertEquals(restored.getSource().toUtf8(), "{}");
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class DumpManifestTest {
+
+    File file;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        file = File.createTempFile("twitter", DumpManifest.SUFFIX);
+    }
+
+    @AfterMethod
+    public void destroy() {
+        file.delete();
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        Map<String, String> settings = new HashMap<String, String>();
+        settings.put("index.number_of_shards", "3");
+        Map<String, Map<String, Object>> mappings = new HashMap<String, Map<String, Object>>();
+        Map<String, Object> mapping = new HashMap<String, Object>();
+        mapping.put("properties", Collections.singletonMap("user", Collections.singletonMap("type", "string")));
+        mappings.put("tweet", mapping);
+        Map<String, Map<String, Object>> aliases = new HashMap<String, Map<String, Object>>();
+        aliases.put("kimchy_tweets", Collections.<String, Object>singletonMap("filter",
+                Collections.singletonMap("term", Collections.singletonMap("user", "kimchy"))));
+        manifest.addIndex("twitter", settings, mappings, aliases);
+        manifest.addDocuments("twitter", 7);
+        manifest.addDocuments("blog", 3);
+        List<DumpChecksums.Chunk> chunks = new ArrayList<DumpChecksums.Chunk>();
+        chunks.add(new DumpChecksums.Chunk(0, 100, 5, 12345));
+        chunks.add(new DumpChecksums.Chunk(100, 40, 2, 67890));
+        manifest.addPart("/tmp/twitter.json.part-0001", 7, new DumpChecksums(140, 4242, chunks));
+        manifest.addPart("/tmp/twitter.json.part-0000", 3, null);
+
+        manifest.write(file);
+        DumpManifest read = DumpManifest.read(file);
+
+        Assert.assertEquals(read.documents(), 10);
+        Assert.assertNull(read.partial());
+        Assert.assertNull(read.incrementalField());
+
+        List<DumpManifest.IndexEntry> indices = read.indices();
+        Assert.assertEquals(indices.size(), 2);
+        Assert.assertEquals(indices.get(0).name, "blog");
+        Assert.assertEquals(indices.get(0).documents, 3);
+        Assert.assertTrue(indices.get(0).settings.isEmpty());
+        DumpManifest.IndexEntry twitter = indices.get(1);
+        Assert.assertEquals(twitter.name, "twitter");
+        Assert.assertEquals(twitter.documents, 7);
+        Assert.assertEquals(twitter.settings, settings);
+        Assert.assertEquals(twitter.mappings, mappings);
+        Assert.assertEquals(twitter.aliases, aliases);
+
+        List<DumpManifest.Part> parts = read.parts();
+        Assert.assertEquals(parts.size(), 2);
+        Assert.assertEquals(parts.get(0).file, "twitter.json.part-0000");
+        Assert.assertEquals(parts.get(0).documents, 3);
+        Assert.assertNull(parts.get(0).checksums);
+        DumpManifest.Part part = parts.get(1);
+        Assert.assertEquals(part.file, "twitter.json.part-0001");
+        Assert.assertEquals(part.documents, 7);
+        Assert.assertEquals(part.checksums.length(), 140);
+        Assert.assertEquals(part.checksums.checksum(), 4242);
+        Assert.assertEquals(part.checksums.chunks().size(), 2);
+        DumpChecksums.Chunk chunk = part.checksums.chunks().get(1);
+        Assert.assertEquals(chunk.offset, 100);
+        Assert.assertEquals(chunk.length, 40);
+        Assert.assertEquals(chunk.documents, 2);
+        Assert.assertEquals(chunk.checksum, 67890);
+
+        List<File> partFiles = read.partFiles(file);
+        Assert.assertEquals(partFiles.get(0), new File(file.getAbsoluteFile().getParentFile(), "twitter.json.part-0000"));
+    }
+
+    @Test
+    public void testWriteReadPartial() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        Map<String, Object> partial = new HashMap<String, Object>();
+        partial.put("query", Collections.singletonMap("term", Collections.singletonMap("user", "kimchy")));
+        partial.put("fields", Arrays.asList("user", "message"));
+        manifest.partial(partial);
+
+        manifest.write(file);
+        DumpManifest read = DumpManifest.read(file);
+
+        Assert.assertEquals(read.partial(), partial);
+        Assert.assertEquals(read.documents(), 0);
+        Assert.assertTrue(read.parts().isEmpty());
+        Assert.assertTrue(read.indices().isEmpty());
+    }
+
+    @Test
+    public void testGenerations() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        manifest.addPart("twitter.json.part-0000", 10, null);
+        manifest.addPart("twitter.json.part-0001", 10, null);
+        manifest.incremental("timestamp", 1000L);
+        manifest.write(file);
+
+        //an incremental run reads the manifest back and appends a new generation
+        manifest = DumpManifest.read(file);
+        Assert.assertEquals(manifest.incrementalField(), "timestamp");
+        Assert.assertEquals(manifest.highWaterMark(), Long.valueOf(1000L));
+        manifest.nextGeneration();
+        manifest.addPart("twitter.json.part-0002", 4, null);
+        manifest.incremental("timestamp", 2000L);
+        manifest.write(file);
+
+        manifest = DumpManifest.read(file);
+        manifest.nextGeneration();
+        //part names don't need to follow the generations, restore order is given by the latter
+        manifest.addPart("twitter.json.a-part-0000", 1, null);
+        manifest.write(file);
+
+        DumpManifest read = DumpManifest.read(file);
+        Assert.assertEquals(read.highWaterMark(), Long.valueOf(2000L));
+        Assert.assertEquals(read.documents(), 25);
+        List<List<File>> generations = read.generationFiles(file);
+        Assert.assertEquals(generations.size(), 3);
+        Assert.assertEquals(generations.get(0).size(), 2);
+        Assert.assertEquals(generations.get(0).get(0).getName(), "twitter.json.part-0000");
+        Assert.assertEquals(generations.get(0).get(1).getName(), "twitter.json.part-0001");
+        Assert.assertEquals(generations.get(1).size(), 1);
+        Assert.assertEquals(generations.get(1).get(0).getName(), "twitter.json.part-0002");
+        Assert.assertEquals(generations.get(2).size(), 1);
+        Assert.assertEquals(generations.get(2).get(0).getName(), "twitter.json.a-part-0000");
+    }
+
+    @Test
+    public void testHighWaterMarkZero() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        manifest.incremental("timestamp", 0L);
+        manifest.write(file);
+        DumpManifest read = DumpManifest.read(file);
+        Assert.assertEquals(read.incrementalField(), "timestamp");
+        Assert.assertEquals(read.highWaterMark(), Long.valueOf(0L));
+
+        Assert.assertNull(new DumpManifest().highWaterMark());
+    }
+
+    @Test
+    public void testAddIndexKeepsDocuments() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        manifest.addDocuments("twitter", 5);
+        manifest.addIndex("twitter", Collections.<String, String>emptyMap(),
+                Collections.<String, Map<String, Object>>emptyMap(), Collections.<String, Map<String, Object>>emptyMap());
+        manifest.addDocuments("twitter", 2);
+        Assert.assertEquals(manifest.indices().get(0).documents, 7);
+    }
+}
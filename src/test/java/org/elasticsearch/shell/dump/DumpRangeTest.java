@@ -0,0 +1,162 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class DumpRangeTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File dump;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        dump = File.createTempFile("dump", ".json");
+    }
+
+    @AfterMethod
+    public void destroy() {
+        dump.delete();
+    }
+
+    @Test
+    public void testSplitLinesAtNewLines() throws Exception {
+        writeLines(dump, 100, true);
+        List<DumpRange> ranges = DumpRange.splitLines(dump, 4);
+        Assert.assertEquals(ranges.size(), 4);
+        Assert.assertEquals(ranges.get(0).start, 0L);
+        Assert.assertEquals(ranges.get(ranges.size() - 1).end, dump.length());
+        RandomAccessFile file = new RandomAccessFile(dump, "r");
+        try {
+            for (int i = 1; i < ranges.size(); i++) {
+                //contiguous ranges, each one starting right after a new line
+                Assert.assertEquals(ranges.get(i).start, ranges.get(i - 1).end);
+                file.seek(ranges.get(i).start - 1);
+                Assert.assertEquals(file.read(), (int) '\n');
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testSplitLinesMoreRangesThanLines() throws Exception {
+        writeLines(dump, 2, true);
+        List<DumpRange> ranges = DumpRange.splitLines(dump, 8);
+        Assert.assertTrue(ranges.size() <= 2);
+        Assert.assertEquals(readIds(ranges), ids(2));
+    }
+
+    @Test
+    public void testSplitLinesEmptyFile() throws Exception {
+        Assert.assertTrue(DumpRange.splitLines(dump, 4).isEmpty());
+    }
+
+    @Test
+    public void testMappedRangesReadEveryLineOnce() throws Exception {
+        writeLines(dump, 1000, false);
+        List<DumpRange> ranges = DumpRange.splitLines(dump, 7);
+        Assert.assertEquals(readIds(ranges), ids(1000));
+    }
+
+    @Test
+    public void testBatchEndOffsets() throws Exception {
+        writeLines(dump, 10, true);
+        MappedDumpReader reader = new MappedDumpReader(dump, UTF8, 4, 0, dump.length());
+        try {
+            DumpReader.Batch batch = reader.next();
+            Assert.assertEquals(batch.documents().size(), 4);
+            long endOffset = batch.endOffset();
+            //the next batch starts where the previous one ended
+            List<Document> documents = BlockDumpTest.readAll(new MappedDumpReader(dump, UTF8, 4, endOffset, dump.length()));
+            Assert.assertEquals(documents.size(), 6);
+            Assert.assertEquals(documents.get(0).getId(), "4");
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSplitBlocks() throws Exception {
+        BlockDumpTest.write(dump, DumpEncoding.JSON, true, 100, 10);
+        List<DumpRange> ranges = DumpRange.splitBlocks(dump, 3);
+        Assert.assertEquals(ranges.size(), 3);
+        List<Document> documents = new ArrayList<Document>();
+        for (DumpRange range : ranges) {
+            documents.addAll(BlockDumpTest.readAll(new BlockDumpReader(dump, range.start, range.end)));
+        }
+        BlockDumpTest.assertDocuments(documents, 0, 100);
+    }
+
+    private List<String> readIds(List<DumpRange> ranges) throws IOException {
+        List<String> ids = new ArrayList<String>();
+        for (DumpRange range : ranges) {
+            for (Document document : BlockDumpTest.readAll(new MappedDumpReader(dump, UTF8, 10, range.start, range.end))) {
+                ids.add(document.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            ids.add(Integer.toString(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Writes documents of different lengths, one per line, optionally with a new line after the last one
+     */
+    private static void writeLines(File file, int count, boolean lastNewLine) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append("{\"_index\":\"twitter\",\"_type\":\"tweet\",\"_id\":\"").append(i).append("\",\"message\":\"");
+            for (int j = 0; j < i % 17; j++) {
+                lines.append("trying out elasticsearch ");
+            }
+            lines.append("\"}");
+            if (i < count - 1 || lastNewLine) {
+                lines.append('\n');
+            }
+        }
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(lines.toString().getBytes(UTF8));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.shell.bulk.MockBulkClient;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class DumpRestorerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File directory;
+    String path;
+    TestConsole console;
+    MockBulkClient mockClient;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        directory = File.createTempFile("dump", "");
+        directory.delete();
+        directory.mkdir();
+        path = new File(directory, "twitter.json").getAbsolutePath();
+        console = new TestConsole();
+        mockClient = new MockBulkClient();
+    }
+
+    @AfterMethod
+    public void destroy() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test(timeOut = 30000)
+    public void testRestore() throws Exception {
+        write(new PlainDumpWriter(path, UTF8), 1000);
+
+        DumpRestorer dumpRestorer = new DumpRestorer(console);
+        dumpRestorer.dumpRestore(mockClient.client(), dumpRestorer.new Builder(mockClient.client()).path(path)
+                .charset("UTF-8").parsers(2).queueSize(1));
+
+        Assert.assertEquals(indexedDocuments(), 1000);
+        Assert.assertFalse(new File(path + DumpRestorer.CHECKPOINT_SUFFIX).exists());
+    }
+
+    @Test(timeOut = 30000)
+    public void testParserFailureStopsRestore() throws Exception {
+        //the first batch can't be parsed, while the reader has many more batches to hand over through a tiny queue
+        appendLine("{\"user\":\"kimchy\"}");
+        write(PlainDumpWriter.append(path, UTF8, new File(path).length()), 2000);
+
+        DumpRestorer dumpRestorer = new DumpRestorer(console);
+        try {
+            dumpRestorer.dumpRestore(mockClient.client(), dumpRestorer.new Builder(mockClient.client()).path(path)
+                    .charset("UTF-8").parsers(1).queueSize(1));
+            Assert.fail("the restore should have failed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Error while parsing the dump"), e.getMessage());
+        }
+        //the checkpoint can't move past the batch that failed
+        File checkpointFile = new File(path + DumpRestorer.CHECKPOINT_SUFFIX);
+        Assert.assertTrue(checkpointFile.exists());
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, new File(path)), 0);
+        Assert.assertTrue(indexedDocuments() < 2000);
+    }
+
+    private int indexedDocuments() {
+        int documents = 0;
+        for (BulkRequest bulkRequest : mockClient.bulkRequests()) {
+            documents += bulkRequest.numberOfActions();
+        }
+        return documents;
+    }
+
+    private void appendLine(String line) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(path, true);
+        try {
+            outputStream.write((line + "\n").getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void write(DumpWriter writer, int documents) throws IOException {
+        try {
+            for (int i = 0; i < documents; i++) {
+                writer.write(Document.fromSource(new BytesArray("{\"user\":\"kimchy\",\"count\":" + i + "}"),
+                        "twitter", "tweet", Integer.toString(i)));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class DumpVerifierTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File directory;
+    String path;
+    TestConsole console;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        directory = File.createTempFile("dump", "");
+        directory.delete();
+        directory.mkdir();
+        path = new File(directory, "twitter.json").getAbsolutePath();
+        console = new TestConsole();
+    }
+
+    @AfterMethod
+    public void destroy() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testValidPlainDump() throws Exception {
+        writeWithManifest(new PlainDumpWriter(path, UTF8), 25);
+        Assert.assertTrue(new DumpVerifier(console).verify(path, 2, UTF8), console.output());
+        Assert.assertTrue(console.output().contains("OK      " + path + " (25 of 25 documents)"), console.output());
+    }
+
+    @Test
+    public void testCorruptedPlainDump() throws Exception {
+        writeWithManifest(new PlainDumpWriter(path, UTF8), 25);
+        //the corrupted document can still be parsed, only the checksum points it out
+        corrupt(path, "\"count\":7", "\"count\":8");
+
+        Assert.assertFalse(new DumpVerifier(console).verify(path, 2, UTF8));
+        Assert.assertTrue(console.output().contains("CORRUPT " + path), console.output());
+        Assert.assertTrue(console.output().contains("lines 1-25"), console.output());
+        Assert.assertTrue(console.output().contains("checksum mismatch"), console.output());
+    }
+
+    @Test
+    public void testTruncatedPlainDump() throws Exception {
+        writeWithManifest(new PlainDumpWriter(path, UTF8), 25);
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(file.length() - 10);
+        } finally {
+            file.close();
+        }
+
+        Assert.assertFalse(new DumpVerifier(console).verify(path, 2, UTF8));
+        Assert.assertTrue(console.output().contains("found " + new File(path).length()), console.output());
+    }
+
+    @Test
+    public void testCorruptedPlainDumpWithoutManifest() throws Exception {
+        write(new PlainDumpWriter(path, UTF8), 25);
+        corrupt(path, "\"count\":7}", "\"count\":7,");
+
+        Assert.assertFalse(new DumpVerifier(console).verify(path, 2, UTF8));
+        Assert.assertTrue(console.output().contains("(24 documents)"), console.output());
+        Assert.assertTrue(console.output().contains("line 8: invalid document"), console.output());
+    }
+
+    @Test
+    public void testCorruptedBlockDump() throws Exception {
+        writeWithManifest(new BlockDumpWriter(path, 10, DumpEncoding.JSON, false), 25);
+        Assert.assertTrue(new DumpVerifier(console).verify(path, 2, UTF8), console.output());
+
+        console = new TestConsole();
+        corrupt(path, "\"count\":12", "\"count\":13");
+        Assert.assertFalse(new DumpVerifier(console).verify(path, 2, UTF8));
+        Assert.assertTrue(console.output().contains("(15 of 25 documents)"), console.output());
+        Assert.assertTrue(console.output().contains("(10 documents): checksum mismatch"), console.output());
+    }
+
+    @Test
+    public void testMissingDump() throws Exception {
+        Assert.assertFalse(new DumpVerifier(console).verify(directory.getAbsolutePath(), 2, UTF8));
+        Assert.assertTrue(console.output().contains("No dump found"), console.output());
+    }
+
+    private void writeWithManifest(DumpWriter writer, int documents) throws IOException {
+        write(writer, documents);
+        DumpManifest manifest = new DumpManifest();
+        manifest.addPart(path, documents, writer.checksums());
+        manifest.write(new File(path + DumpManifest.SUFFIX));
+    }
+
+    private static void write(DumpWriter writer, int documents) throws IOException {
+        try {
+            for (int i = 0; i < documents; i++) {
+                writer.write(Document.fromSource(new BytesArray("{\"user\":\"kimchy\",\"count\":" + i + "}"),
+                        "twitter", "tweet", Integer.toString(i)));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Replaces the first occurrence of the given text with another one of the same length, in place
+     */
+    private static void corrupt(String path, String text, String replacement) throws IOException {
+        Assert.assertEquals(replacement.length(), text.length());
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            int position = new String(bytes, "ISO-8859-1").indexOf(text);
+            Assert.assertTrue(position >= 0);
+            file.seek(position);
+            file.write(replacement.getBytes(UTF8));
+        } finally {
+            file.close();
+        }
+    }
+}
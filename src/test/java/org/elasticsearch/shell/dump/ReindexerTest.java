@@ -0,0 +1,258 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.*;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.internal.InternalClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchShardTarget;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.elasticsearch.shell.bulk.MockBulkClient;
+import org.elasticsearch.shell.json.JsonToString;
+import org.elasticsearch.shell.json.StringToJson;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class ReindexerTest {
+
+    MockScanClient sourceClient;
+    MockBulkClient targetClient;
+    TestConsole console;
+    Reindexer<String, String> reindexer;
+
+    @BeforeMethod
+    public void init() {
+        sourceClient = new MockScanClient();
+        targetClient = new MockBulkClient();
+        console = new TestConsole();
+        reindexer = new Reindexer<String, String>(console, new StringJsonToString(), new StringStringToJson());
+    }
+
+    @Test(timeOut = 30000)
+    public void testDocumentsCopiedAsTheyAre() throws Exception {
+        sourceClient.pages(250, 100, 100, 50);
+        reindexer.reindex(reindexer.new Builder(sourceClient.client(), targetClient.client()).indices("twitter"));
+
+        List<IndexRequest> indexRequests = indexRequests();
+        Assert.assertEquals(indexRequests.size(), 250);
+        for (int i = 0; i < indexRequests.size(); i++) {
+            IndexRequest indexRequest = indexRequests.get(i);
+            Assert.assertEquals(indexRequest.index(), "twitter");
+            Assert.assertEquals(indexRequest.type(), "tweet");
+            Assert.assertEquals(indexRequest.id(), Integer.toString(i));
+            Assert.assertEquals(indexRequest.source().toUtf8(), source(i));
+        }
+        SearchRequest scanRequest = sourceClient.searchRequests.get(0);
+        Assert.assertEquals(scanRequest.indices(), new String[]{"twitter"});
+        Assert.assertEquals(scanRequest.searchType(), SearchType.SCAN);
+        Assert.assertTrue(console.output().contains("Reindexed 250 documents"), console.output());
+    }
+
+    @Test(timeOut = 30000)
+    public void testTargetIndexAndTypeOverrides() throws Exception {
+        sourceClient.pages(30, 20, 10);
+        reindexer.reindex(reindexer.new Builder(sourceClient.client(), targetClient.client()).indices("twitter")
+                .targetIndex("twitter_v2").targetType("post"));
+
+        List<IndexRequest> indexRequests = indexRequests();
+        Assert.assertEquals(indexRequests.size(), 30);
+        for (int i = 0; i < indexRequests.size(); i++) {
+            IndexRequest indexRequest = indexRequests.get(i);
+            Assert.assertEquals(indexRequest.index(), "twitter_v2");
+            Assert.assertEquals(indexRequest.type(), "post");
+            Assert.assertEquals(indexRequest.id(), Integer.toString(i));
+            Assert.assertEquals(indexRequest.source().toUtf8(), source(i));
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void testTransform() throws Exception {
+        sourceClient.pages(30, 20, 10);
+        final List<String> transformed = new ArrayList<String>();
+        reindexer.reindex(reindexer.new Builder(sourceClient.client(), targetClient.client()).indices("twitter")
+                .targetIndex("twitter_v2").transform(new Reindexer.Transform<String, String>() {
+                    @Override
+                    public String transform(String document) {
+                        transformed.add(document);
+                        //drops the documents with an even id and moves the others to a different type
+                        if (document.matches(".*\"count\":[0-9]*[02468]}")) {
+                            return null;
+                        }
+                        return document.replace("\"_type\":\"tweet\"", "\"_type\":\"post\"");
+                    }
+                }));
+
+        Assert.assertEquals(transformed.size(), 30);
+        //the function gets the document with its metadata, target index included
+        Assert.assertEquals(transformed.get(0), "{\"_index\":\"twitter_v2\",\"_type\":\"tweet\",\"_id\":\"0\","
+                + source(0).substring(1));
+        List<IndexRequest> indexRequests = indexRequests();
+        Assert.assertEquals(indexRequests.size(), 15);
+        for (int i = 0; i < indexRequests.size(); i++) {
+            IndexRequest indexRequest = indexRequests.get(i);
+            Assert.assertEquals(indexRequest.index(), "twitter_v2");
+            Assert.assertEquals(indexRequest.type(), "post");
+            Assert.assertEquals(indexRequest.id(), Integer.toString(i * 2 + 1));
+            Assert.assertEquals(indexRequest.source().toUtf8(), source(i * 2 + 1));
+        }
+        Assert.assertTrue(console.output().contains("15 skipped"), console.output());
+    }
+
+    private List<IndexRequest> indexRequests() {
+        List<IndexRequest> indexRequests = new ArrayList<IndexRequest>();
+        for (BulkRequest bulkRequest : targetClient.bulkRequests()) {
+            for (ActionRequest request : bulkRequest.requests()) {
+                indexRequests.add((IndexRequest) request);
+            }
+        }
+        //bulks can be sent concurrently, thus out of order
+        Collections.sort(indexRequests, new Comparator<IndexRequest>() {
+            @Override
+            public int compare(IndexRequest o1, IndexRequest o2) {
+                return Integer.valueOf(o1.id()).compareTo(Integer.valueOf(o2.id()));
+            }
+        });
+        return indexRequests;
+    }
+
+    private static String source(int i) {
+        return "{\"user\":\"kimchy\",\"count\":" + i + "}";
+    }
+
+    private static SearchResponse response(String scrollId, long totalHits, int firstHit, int hits) {
+        InternalSearchHit[] searchHits = new InternalSearchHit[hits];
+        for (int i = 0; i < hits; i++) {
+            searchHits[i] = new InternalSearchHit(firstHit + i, Integer.toString(firstHit + i), new StringText("tweet"),
+                    new BytesArray(source(firstHit + i)), Collections.<String, SearchHitField>emptyMap());
+            searchHits[i].shard(new SearchShardTarget("node", "twitter", 0));
+        }
+        InternalSearchResponse internalResponse = new InternalSearchResponse(
+                new InternalSearchHits(searchHits, totalHits, 0), null, null, false);
+        return new SearchResponse(internalResponse, scrollId, 1, 1, 1, new ShardSearchFailure[0]);
+    }
+
+    /**
+     * Json objects represented as plain strings
+     */
+    private static class StringJsonToString implements JsonToString<String> {
+        @Override
+        public String jsonToString(String json, boolean prettify) {
+            return json;
+        }
+
+        @Override
+        public BytesReference jsonToBytes(String json, XContentType contentType) {
+            return new BytesArray(json);
+        }
+    }
+
+    private static class StringStringToJson implements StringToJson<String> {
+        @Override
+        public String stringToJson(String json) {
+            return json;
+        }
+
+        @Override
+        public String bytesToJson(BytesReference json) {
+            return json.toUtf8();
+        }
+
+        @Override
+        public String lazyBytesToJson(BytesReference json) {
+            return json.toUtf8();
+        }
+    }
+
+    /**
+     * Client that only supports scans, answered on the calling thread with the configured pages, followed by an empty one.
+     * Every search request received is recorded.
+     */
+    private static class MockScanClient implements InvocationHandler {
+
+        private final List<SearchRequest> searchRequests = Collections.synchronizedList(new ArrayList<SearchRequest>());
+        private final Queue<SearchResponse> pages = new LinkedList<SearchResponse>();
+        private long totalHits;
+
+        Client client() {
+            return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class[]{InternalClient.class}, this);
+        }
+
+        /**
+         * Configures the pages returned after the scan response, given the number of hits of each one
+         */
+        void pages(long totalHits, int... pageSizes) {
+            this.totalHits = totalHits;
+            int firstHit = 0;
+            for (int pageSize : pageSizes) {
+                pages.add(response("scroll-" + (pages.size() + 1), totalHits, firstHit, pageSize));
+                firstHit += pageSize;
+            }
+            pages.add(response("scroll-" + (pages.size() + 1), totalHits, firstHit, 0));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("prepareSearch")) {
+                return new SearchRequestBuilder((Client) proxy).setIndices((String[]) args[0]);
+            }
+            if (method.getName().equals("prepareSearchScroll")) {
+                return new SearchScrollRequestBuilder((Client) proxy, (String) args[0]);
+            }
+            if (method.getName().equals("threadPool")) {
+                return null;
+            }
+            if (method.getName().equals("search") && args.length == 2) {
+                searchRequests.add((SearchRequest) args[0]);
+                ((ActionListener<SearchResponse>) args[1]).onResponse(response("scroll-0", totalHits, 0, 0));
+                return null;
+            }
+            if (method.getName().equals("searchScroll") && args.length == 2) {
+                SearchResponse page = pages.poll();
+                if (page == null) {
+                    ((ActionListener<SearchResponse>) args[1]).onFailure(new IllegalStateException("no more pages"));
+                } else {
+                    ((ActionListener<SearchResponse>) args[1]).onResponse(page);
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Requests;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class RestoreCheckpointTest {
+
+    File dump;
+    File checkpointFile;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        dump = File.createTempFile("twitter", ".json");
+        write(dump, "0123456789012345678901234567890123456789");
+        checkpointFile = new File(dump.getPath() + ".checkpoint");
+    }
+
+    @AfterMethod
+    public void destroy() {
+        dump.delete();
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void testOutOfOrderAcknowledgements() throws Exception {
+        RestoreCheckpoint checkpoint = new RestoreCheckpoint(checkpointFile, dump, 0);
+        TestBatch first = new TestBatch(10);
+        TestBatch second = new TestBatch(20);
+        TestBatch third = new TestBatch(30);
+        IndexRequest firstRequest = read(checkpoint, first);
+        IndexRequest secondRequest = read(checkpoint, second);
+        IndexRequest thirdRequest = read(checkpoint, third);
+
+        //the later batches got acknowledged first, but the offset can't move past the first one which is still pending
+        checkpoint.acknowledged(Arrays.asList(thirdRequest, secondRequest));
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 0);
+
+        checkpoint.acknowledged(Collections.singletonList(firstRequest));
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 30);
+    }
+
+    @Test
+    public void testOffsetStopsAtFirstIncompleteBatch() throws Exception {
+        RestoreCheckpoint checkpoint = new RestoreCheckpoint(checkpointFile, dump, 5);
+        TestBatch first = new TestBatch(10);
+        TestBatch second = new TestBatch(20);
+        TestBatch third = new TestBatch(30);
+        IndexRequest firstRequest = read(checkpoint, first);
+        IndexRequest secondRequest = read(checkpoint, second);
+        IndexRequest thirdRequest = read(checkpoint, third);
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 5);
+
+        checkpoint.acknowledged(Arrays.asList(firstRequest, thirdRequest));
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 10);
+
+        //an acknowledged request that's not pending anymore doesn't change anything
+        checkpoint.acknowledged(Collections.singletonList(firstRequest));
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 10);
+
+        checkpoint.acknowledged(Collections.singletonList(secondRequest));
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 30);
+    }
+
+    @Test
+    public void testBatchNotSubmittedHoldsOffset() throws Exception {
+        RestoreCheckpoint checkpoint = new RestoreCheckpoint(checkpointFile, dump, 0);
+        TestBatch first = new TestBatch(10);
+        TestBatch second = new TestBatch(20);
+        checkpoint.read(first);
+        checkpoint.read(second);
+        IndexRequest firstRequest = newRequest("1");
+        checkpoint.add(first, firstRequest);
+        checkpoint.submitted(second);
+
+        //all the requests of the first batch got acknowledged, but more of its documents might still be added
+        checkpoint.acknowledged(Collections.singletonList(firstRequest));
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 0);
+
+        checkpoint.submitted(first);
+        Assert.assertEquals(checkpoint.acknowledgedOffset(), 20);
+    }
+
+    @Test
+    public void testWriteLoad() throws Exception {
+        RestoreCheckpoint checkpoint = new RestoreCheckpoint(checkpointFile, dump, 0);
+        TestBatch batch = new TestBatch(20);
+        checkpoint.acknowledged(Collections.singletonList(read(checkpoint, batch)));
+        checkpoint.write();
+
+        Assert.assertTrue(checkpointFile.exists());
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, dump), 20);
+
+        checkpoint.delete();
+        Assert.assertFalse(checkpointFile.exists());
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, dump), 0);
+    }
+
+    @Test
+    public void testStaleCheckpointRejected() throws Exception {
+        RestoreCheckpoint checkpoint = new RestoreCheckpoint(checkpointFile, dump, 20);
+        checkpoint.write();
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, dump), 20);
+
+        //the dump has been saved again in the meantime
+        write(dump, "01234567890123456789012345678901234567890123456789");
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, dump), 0);
+    }
+
+    @Test
+    public void testOffsetBeyondDumpRejected() throws Exception {
+        write(checkpointFile, "{\"dump\":\"" + dump.getPath().replace("\\", "\\\\") + "\",\"length\":" + dump.length()
+                + ",\"offset\":" + (dump.length() + 1) + "}");
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, dump), 0);
+
+        write(checkpointFile, "{\"dump\":\"" + dump.getPath().replace("\\", "\\\\") + "\",\"length\":" + dump.length()
+                + ",\"offset\":" + dump.length() + "}");
+        Assert.assertEquals(RestoreCheckpoint.load(checkpointFile, dump), dump.length());
+    }
+
+    /**
+     * Registers the given batch as containing a single document, which gets submitted straight away
+     * @return the request sent for the document of the batch
+     */
+    private static IndexRequest read(RestoreCheckpoint checkpoint, TestBatch batch) throws IOException {
+        checkpoint.read(batch);
+        IndexRequest request = newRequest(Long.toString(batch.endOffset()));
+        checkpoint.add(batch, request);
+        checkpoint.submitted(batch);
+        return request;
+    }
+
+    private static IndexRequest newRequest(String id) {
+        return Requests.indexRequest("twitter").type("tweet").id(id).source("{\"user\":\"kimchy\"}");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static class TestBatch implements DumpReader.Batch {
+
+        private final long endOffset;
+
+        TestBatch(long endOffset) {
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public List<Document> documents() throws IOException {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long endOffset() {
+            return endOffset;
+        }
+    }
+}
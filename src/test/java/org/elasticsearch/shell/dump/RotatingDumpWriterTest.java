@@ -0,0 +1,166 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class RotatingDumpWriterTest {
+
+    File directory;
+    String path;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        directory = File.createTempFile("dump", "");
+        directory.delete();
+        directory.mkdir();
+        path = new File(directory, "twitter.json").getAbsolutePath();
+    }
+
+    @AfterMethod
+    public void destroy() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testRotateOnDocuments() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        write(new RotatingDumpWriter(new PartFactory(path), 10, 0, manifest), 25);
+
+        List<DumpManifest.Part> parts = manifest.parts();
+        Assert.assertEquals(parts.size(), 3);
+        Assert.assertEquals(parts.get(0).file, "twitter.json.part-0000");
+        Assert.assertEquals(parts.get(0).documents, 10);
+        Assert.assertEquals(parts.get(1).documents, 10);
+        Assert.assertEquals(parts.get(2).file, "twitter.json.part-0002");
+        Assert.assertEquals(parts.get(2).documents, 5);
+        Assert.assertEquals(manifest.documents(), 25);
+        Assert.assertNotNull(parts.get(0).checksums);
+    }
+
+    @Test
+    public void testRotateOnSize() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        int sourceLength = source(0).length();
+        //moves on to a new part once the sources of four documents have been written
+        write(new RotatingDumpWriter(new PartFactory(path), 0, sourceLength * 4, manifest), 10);
+
+        List<DumpManifest.Part> parts = manifest.parts();
+        Assert.assertEquals(parts.size(), 3);
+        Assert.assertEquals(parts.get(0).documents, 4);
+        Assert.assertEquals(parts.get(1).documents, 4);
+        Assert.assertEquals(parts.get(2).documents, 2);
+    }
+
+    @Test
+    public void testResolveThroughManifest() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        write(new RotatingDumpWriter(new PartFactory(path), 10, 0, manifest), 25);
+        manifest.write(new File(path + DumpManifest.SUFFIX));
+
+        List<File> files = DumpFiles.resolve(path);
+        Assert.assertEquals(files.size(), 3);
+        Assert.assertEquals(files.get(0), new File(DumpSaver.partPath(path, 0)));
+        Assert.assertEquals(files.get(2), new File(DumpSaver.partPath(path, 2)));
+
+        int documents = 0;
+        for (File file : files) {
+            documents += BlockDumpTest.readAll(new PlainDumpReader(file, Charset.forName("UTF-8"), 10, 0)).size();
+        }
+        Assert.assertEquals(documents, 25);
+    }
+
+    @Test
+    public void testResolveDirectoryAndGlob() throws Exception {
+        DumpManifest manifest = new DumpManifest();
+        write(new RotatingDumpWriter(new PartFactory(path), 10, 0, manifest), 25);
+        manifest.write(new File(path + DumpManifest.SUFFIX));
+        //side files are never part of the dump
+        Assert.assertTrue(new File(path + DumpSaver.CHECKPOINT_SUFFIX).createNewFile());
+
+        List<File> files = DumpFiles.resolve(directory.getAbsolutePath());
+        Assert.assertEquals(files.size(), 3);
+
+        new File(path + DumpManifest.SUFFIX).delete();
+        files = DumpFiles.resolve(directory.getAbsolutePath());
+        Assert.assertEquals(files.size(), 3);
+        files = DumpFiles.resolve(path + ".part-000?");
+        Assert.assertEquals(files.size(), 3);
+        files = DumpFiles.resolve(path + ".part-*2");
+        Assert.assertEquals(files.size(), 1);
+        Assert.assertEquals(files.get(0).getName(), "twitter.json.part-0002");
+    }
+
+    @Test
+    public void testResolveSingleFile() throws Exception {
+        Assert.assertEquals(DumpFiles.resolve(path).size(), 1);
+        Assert.assertNull(DumpFiles.manifest(path));
+    }
+
+    private static void write(DumpWriter writer, int documents) throws IOException {
+        try {
+            for (int i = 0; i < documents; i++) {
+                writer.write(Document.fromSource(new BytesArray(source(i)), "twitter", "tweet", Integer.toString(i)));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String source(int i) {
+        return "{\"user\":\"kimchy\",\"count\":" + (i % 10) + "}";
+    }
+
+    private static class PartFactory implements RotatingDumpWriter.PartFactory {
+        private final String path;
+        private int part;
+
+        PartFactory(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public String nextPartPath() {
+            return DumpSaver.partPath(path, part++);
+        }
+
+        @Override
+        public DumpWriter newWriter(String path) throws IOException {
+            return new PlainDumpWriter(path, Charset.forName("UTF-8"));
+        }
+    }
+}
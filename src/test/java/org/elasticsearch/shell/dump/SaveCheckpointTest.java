@@ -0,0 +1,157 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class SaveCheckpointTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File directory;
+    String path;
+    File checkpointFile;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        directory = File.createTempFile("dump", "");
+        directory.delete();
+        directory.mkdir();
+        path = new File(directory, "twitter.json").getAbsolutePath();
+        checkpointFile = new File(path + DumpSaver.CHECKPOINT_SUFFIX);
+    }
+
+    @AfterMethod
+    public void destroy() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testResumeAppend() throws Exception {
+        //first attempt: the first shard gets completed, the second one fails halfway
+        SaveCheckpoint checkpoint = SaveCheckpoint.create(checkpointFile);
+        PlainDumpWriter writer = new PlainDumpWriter(path, UTF8);
+        write(writer, 0, 5);
+        writer.sync();
+        checkpoint.completed("twitter", 0, path, 5);
+        write(writer, 5, 3);
+        writer.close();
+        appendBytes(new File(path), "{\"_index\":\"twitter\",\"_type\":\"tw".getBytes("UTF-8"));
+        //the entry of the second shard was being written too
+        appendBytes(checkpointFile, "{\"index\":\"twitter\",\"shard\":1,\"pa".getBytes("UTF-8"));
+
+        checkpoint = SaveCheckpoint.load(checkpointFile);
+        Assert.assertTrue(checkpoint.isSaved("twitter", 0, path));
+        Assert.assertFalse(checkpoint.isSaved("twitter", 1, path));
+        Assert.assertEquals(checkpoint.documents("twitter", 0), 5);
+        long savedLength = checkpoint.savedLength(path);
+        Assert.assertTrue(savedLength > 0 && savedLength < new File(path).length());
+        Assert.assertTrue(DumpSaver.canAppend(new File(path), savedLength, false, DumpEncoding.JSON));
+
+        //second attempt: the second shard is saved again from scratch
+        writer = PlainDumpWriter.append(path, UTF8, savedLength);
+        write(writer, 5, 10);
+        writer.close();
+
+        File expected = new File(directory, "expected.json");
+        writer = new PlainDumpWriter(expected.getAbsolutePath(), UTF8);
+        write(writer, 0, 15);
+        writer.close();
+        Assert.assertTrue(Arrays.equals(readBytes(new File(path)), readBytes(expected)));
+        Assert.assertEquals(BlockDumpTest.readAll(new PlainDumpReader(new File(path), UTF8, 10, 0)).size(), 15);
+    }
+
+    @Test
+    public void testBinaryDumpNotAppended() throws Exception {
+        File dump = new File(path);
+        appendBytes(dump, new byte[100]);
+        Assert.assertTrue(DumpSaver.canAppend(dump, 100, false, DumpEncoding.JSON));
+        //the block index of binary dumps is written at the end
+        Assert.assertFalse(DumpSaver.canAppend(dump, 100, true, DumpEncoding.JSON));
+        Assert.assertFalse(DumpSaver.canAppend(dump, 100, false, DumpEncoding.SMILE));
+        //the dump got truncated after the checkpoint was written
+        Assert.assertFalse(DumpSaver.canAppend(dump, 101, false, DumpEncoding.JSON));
+    }
+
+    @Test
+    public void testCompletedParts() throws Exception {
+        String partPath = DumpSaver.partPath(path, 0);
+        PlainDumpWriter writer = new PlainDumpWriter(partPath, UTF8);
+        write(writer, 0, 5);
+        writer.close();
+        SaveCheckpoint checkpoint = SaveCheckpoint.create(checkpointFile);
+        checkpoint.completed("twitter", 0, partPath, 5);
+
+        checkpoint = SaveCheckpoint.load(checkpointFile);
+        Assert.assertTrue(checkpoint.isCompleted("twitter", 0, partPath));
+        Assert.assertFalse(checkpoint.isCompleted("twitter", 1, partPath));
+        //a part that changed after being completed needs to be saved again
+        appendBytes(new File(partPath), "\n".getBytes("UTF-8"));
+        Assert.assertFalse(checkpoint.isCompleted("twitter", 0, partPath));
+
+        //creating a new checkpoint discards the existing one
+        checkpoint = SaveCheckpoint.create(checkpointFile);
+        Assert.assertFalse(checkpointFile.exists());
+        Assert.assertFalse(SaveCheckpoint.load(checkpointFile).isSaved("twitter", 0, partPath));
+    }
+
+    private static void write(DumpWriter writer, int from, int documents) throws IOException {
+        for (int i = from; i < from + documents; i++) {
+            writer.write(Document.fromSource(new BytesArray("{\"user\":\"kimchy\",\"counter\":" + i + "}"),
+                    "twitter", "tweet", Integer.toString(i)));
+        }
+    }
+
+    private static void appendBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            inputStream.readFully(bytes);
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+}
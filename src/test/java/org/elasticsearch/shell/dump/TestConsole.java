@@ -0,0 +1,77 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.dump;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.elasticsearch.shell.console.Console;
+
+/**
+ * @author Luca Cavanna
+ *
+ * Console that keeps in memory what gets printed out, so that it can be checked
+ */
+class TestConsole implements Console<PrintStream> {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(output, true);
+
+    String output() {
+        return new String(output.toByteArray(), Charset.forName("UTF-8"));
+    }
+
+    @Override
+    public void print(String message) {
+        out.print(message);
+    }
+
+    @Override
+    public void println() {
+        out.println();
+    }
+
+    @Override
+    public void println(String message) {
+        out.println(message);
+    }
+
+    @Override
+    public PrintStream out() {
+        return out;
+    }
+
+    @Override
+    public String readLine(String prompt) throws IOException {
+        return null;
+    }
+
+    @Override
+    public Iterator<CharSequence> getHistoryEntries() {
+        return Collections.<CharSequence>emptyList().iterator();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.json;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class LazyJsonObjectTest {
+
+    Scriptable scope;
+
+    @BeforeClass
+    public void init() {
+        Context context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @AfterClass
+    public void destroy() {
+        Context.exit();
+    }
+
+    @Test
+    public void testFirstLevel() {
+        LazyJsonObject object = lazyObject("{\"took\":5,\"ok\":true,\"name\":\"kim\\\"chy\",\"none\":null,\"0\":\"zero\"}");
+        Assert.assertEquals(ScriptableObject.getProperty(object, "took"), 5d);
+        Assert.assertEquals(ScriptableObject.getProperty(object, "ok"), true);
+        Assert.assertEquals(ScriptableObject.getProperty(object, "name"), "kim\"chy");
+        Assert.assertNull(ScriptableObject.getProperty(object, "none"));
+        Assert.assertEquals(ScriptableObject.getProperty(object, 0), "zero");
+        Assert.assertEquals(object.getIds().length, 5);
+    }
+
+    @Test
+    public void testNestedObjectsAreLazy() {
+        LazyJsonObject object = lazyObject("{ \"hits\" : { \"total\" : 2 , \"hits\" : [ {\"_id\":\"1\"} , {\"_id\":\"2\",\"tags\":[[\"a\"],\"b\"]} ] } , \"took\" : 1 }");
+        Object hits = ScriptableObject.getProperty(object, "hits");
+        Assert.assertTrue(hits instanceof LazyJsonObject);
+        Assert.assertEquals(ScriptableObject.getProperty((Scriptable) hits, "total"), 2d);
+
+        Object hitsArray = ScriptableObject.getProperty((Scriptable) hits, "hits");
+        Assert.assertTrue(hitsArray instanceof NativeArray);
+        Assert.assertEquals(((NativeArray) hitsArray).getLength(), 2L);
+        Object secondHit = ScriptableObject.getProperty((Scriptable) hitsArray, 1);
+        Assert.assertTrue(secondHit instanceof LazyJsonObject);
+        Assert.assertEquals(ScriptableObject.getProperty((Scriptable) secondHit, "_id"), "2");
+
+        Scriptable tags = (Scriptable) ScriptableObject.getProperty((Scriptable) secondHit, "tags");
+        Scriptable nestedArray = (Scriptable) ScriptableObject.getProperty(tags, 0);
+        Assert.assertEquals(ScriptableObject.getProperty(nestedArray, 0), "a");
+        Assert.assertEquals(ScriptableObject.getProperty(tags, 1), "b");
+
+        //the same object is returned once a subtree has been converted
+        Assert.assertSame(ScriptableObject.getProperty(object, "hits"), hits);
+        Assert.assertEquals(ScriptableObject.getProperty(object, "took"), 1d);
+    }
+
+    @Test
+    public void testSliceOfLargerBuffer() {
+        byte[] buffer = "xx{\"a\":{\"b\":[1,{\"c\":\"d\"}]}}yy".getBytes();
+        LazyJsonObject object = new LazyJsonObject(scope, new BytesArray(buffer, 2, buffer.length - 4));
+        Scriptable a = (Scriptable) ScriptableObject.getProperty(object, "a");
+        Scriptable b = (Scriptable) ScriptableObject.getProperty(a, "b");
+        Assert.assertEquals(ScriptableObject.getProperty(b, 0), 1d);
+        Assert.assertEquals(ScriptableObject.getProperty((Scriptable) ScriptableObject.getProperty(b, 1), "c"), "d");
+    }
+
+    @Test
+    public void testSmileObject() throws Exception {
+        BytesReference smile = XContentFactory.smileBuilder().startObject().field("name", "kimchy")
+                .startObject("nested").field("name", "kimchy").endObject().endObject().bytes();
+        LazyJsonObject object = new LazyJsonObject(scope, smile);
+        Scriptable nested = (Scriptable) ScriptableObject.getProperty(object, "nested");
+        Assert.assertEquals(ScriptableObject.getProperty(nested, "name"), "kimchy");
+        Assert.assertEquals(ScriptableObject.getProperty(object, "name"), "kimchy");
+    }
+
+    @Test
+    public void testPutAndDelete() {
+        LazyJsonObject object = lazyObject("{\"a\":{\"b\":1},\"c\":2}");
+        ScriptableObject.putProperty(object, "d", "e");
+        ScriptableObject.deleteProperty(object, "c");
+        Assert.assertEquals(ScriptableObject.getProperty(object, "d"), "e");
+        Assert.assertFalse(ScriptableObject.hasProperty(object, "c"));
+        Assert.assertTrue(ScriptableObject.hasProperty(object, "a"));
+    }
+
+    private LazyJsonObject lazyObject(String json) {
+        return new LazyJsonObject(scope, new BytesArray(json));
+    }
+}
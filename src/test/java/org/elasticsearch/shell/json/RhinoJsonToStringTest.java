@@ -0,0 +1,144 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.json;
+
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.mozilla.javascript.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class RhinoJsonToStringTest {
+
+    Context context;
+    Scriptable scope;
+    RhinoJsonToString jsonToString = new RhinoJsonToString();
+
+    @BeforeClass
+    public void init() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @AfterClass
+    public void destroy() {
+        Context.exit();
+    }
+
+    @Test
+    public void testSameAsStringify() {
+        assertSameAsStringify("({name: 'kim\"chy è', ok: true, none: null, ratio: 0.5, nested: {tags: ['a', ['b'], []]}, empty: {}})");
+        assertSameAsStringify("({'0': 'zero', '10': 'ten', name: 'kimchy'})");
+    }
+
+    @Test
+    public void testIntegralNumbers() {
+        Assert.assertEquals(toJson("({count: 3, negative: -5, zero: 0, ratio: 1.5, exp: 1e3})"),
+                "{\"count\":3,\"negative\":-5,\"zero\":0,\"ratio\":1.5,\"exp\":1000}");
+        //integers beyond 2^53 cannot be represented exactly, they're kept as doubles
+        Assert.assertEquals(toJson("({big: 1e20})"), "{\"big\":1.0E20}");
+        Assert.assertEquals(toJson("({safe: 9007199254740992})"), "{\"safe\":9007199254740992}");
+    }
+
+    @Test
+    public void testNonFiniteNumbers() {
+        Assert.assertEquals(toJson("({nan: NaN, infinity: 1/0, values: [NaN, -1/0]})"),
+                "{\"nan\":null,\"infinity\":null,\"values\":[null,null]}");
+    }
+
+    @Test
+    public void testUndefinedAndFunctions() {
+        //left out of objects, written as null within arrays
+        assertSameAsStringify("({a: undefined, b: function() { return 1; }, c: 1, d: [undefined, function() {}, 2]})");
+        Assert.assertEquals(toJson("({a: undefined, b: function() {}, c: [undefined]})"), "{\"c\":[null]}");
+    }
+
+    @Test
+    public void testToJson() {
+        Assert.assertEquals(toJson("({date: new Date(Date.UTC(2013, 4, 1, 10, 30, 0)), custom: {toJSON: function() { return 'custom'; }}})"),
+                "{\"date\":\"2013-05-01T10:30:00.000Z\",\"custom\":\"custom\"}");
+        assertSameAsStringify("({date: new Date(0), nested: {toJSON: function() { return {a: [1, 2]}; }}})");
+        //toJSON can be applied to the top level object too
+        Assert.assertEquals(toJson("({toJSON: function() { return {replaced: true}; }})"), "{\"replaced\":true}");
+    }
+
+    @Test
+    public void testCycles() {
+        NativeObject object = evaluate("var a = {name: 'a'}; a.self = a; a");
+        try {
+            jsonToString.jsonToBytes(object, XContentType.JSON);
+            Assert.fail("cyclic objects cannot be serialized");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("cyclic"), e.getMessage());
+        }
+
+        object = evaluate("var b = {name: 'b'}; b.list = [1, [b]]; b");
+        try {
+            jsonToString.jsonToBytes(object, XContentType.JSON);
+            Assert.fail("cyclic objects cannot be serialized");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("cyclic"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSharedObjectsAreNotCycles() {
+        Assert.assertEquals(toJson("var shared = {x: 1}; ({a: shared, b: shared, c: [shared, shared]})"),
+                "{\"a\":{\"x\":1},\"b\":{\"x\":1},\"c\":[{\"x\":1},{\"x\":1}]}");
+    }
+
+    @Test
+    public void testJavaObjects() {
+        ScriptableObject.putProperty(scope, "javaString", Context.javaToJS("kimchy", scope));
+        Assert.assertEquals(toJson("({name: javaString, number: new java.lang.Integer(3)})"),
+                "{\"name\":\"kimchy\",\"number\":3}");
+    }
+
+    @Test
+    public void testSmile() throws Exception {
+        NativeObject object = evaluate("({name: 'kimchy', count: 3, tags: ['a', 'b']})");
+        BytesReference smile = jsonToString.jsonToBytes(object, XContentType.SMILE);
+        Assert.assertEquals(XContentFactory.xContentType(smile), XContentType.SMILE);
+        Map<String, Object> map = XContentFactory.xContent(smile).createParser(smile).mapAndClose();
+        Assert.assertEquals(map.get("name"), "kimchy");
+        Assert.assertEquals(((Number) map.get("count")).longValue(), 3L);
+    }
+
+    private void assertSameAsStringify(String script) {
+        NativeObject object = evaluate(script);
+        Assert.assertEquals(jsonToString.jsonToBytes(object, XContentType.JSON).toUtf8(),
+                jsonToString.jsonToString(object, false));
+    }
+
+    private String toJson(String script) {
+        return jsonToString.jsonToBytes(evaluate(script), XContentType.JSON).toUtf8();
+    }
+
+    private NativeObject evaluate(String script) {
+        return (NativeObject) context.evaluateString(scope, script, "test", 1, null);
+    }
+}
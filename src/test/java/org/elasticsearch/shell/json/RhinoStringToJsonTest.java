@@ -0,0 +1,122 @@
+/*
+ * Licensed to Luca Cavanna (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Elastic Search licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.shell.json;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.mozilla.javascript.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * @author Luca Cavanna
+ */
+public class RhinoStringToJsonTest {
+
+    Context context;
+    Scriptable scope;
+    RhinoStringToJson stringToJson = new RhinoStringToJson();
+
+    @BeforeClass
+    public void init() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @AfterClass
+    public void destroy() {
+        Context.exit();
+    }
+
+    @Test
+    public void testSameAsRhinoParser() {
+        String json = "{\"took\":5,\"ratio\":0.5,\"ok\":true,\"name\":\"kim\\\"chy \\u00e8\",\"none\":null,"
+                + "\"hits\":{\"total\":2,\"hits\":[{\"_id\":\"1\"},{\"_id\":\"2\",\"tags\":[[\"a\"],\"b\",[]]}]},"
+                + "\"empty\":{},\"0\":\"zero\",\"01\":\"not an index\",\"big\":12345678901234567890}";
+        Object expected = stringToJson.stringToJson(json);
+        Object actual = stringToJson.bytesToJson(new BytesArray(json));
+        Assert.assertEquals(stringify(actual), stringify(expected));
+    }
+
+    @Test
+    public void testObjectTypes() {
+        Scriptable object = (Scriptable) stringToJson.bytesToJson(new BytesArray("{\"a\":[1,\"b\"],\"c\":{\"d\":2},\"5\":true}"));
+        Assert.assertTrue(object instanceof NativeObject);
+        Object array = ScriptableObject.getProperty(object, "a");
+        Assert.assertTrue(array instanceof NativeArray);
+        Assert.assertEquals(((NativeArray) array).getLength(), 2L);
+        //all numbers are doubles as with the rhino parser
+        Assert.assertEquals(ScriptableObject.getProperty((Scriptable) array, 0), 1d);
+        Assert.assertEquals(ScriptableObject.getProperty((Scriptable) ScriptableObject.getProperty(object, "c"), "d"), 2d);
+        //numeric field names become array indexes
+        Assert.assertEquals(ScriptableObject.getProperty(object, 5), true);
+    }
+
+    @Test
+    public void testTopLevelValues() {
+        Assert.assertEquals(stringToJson.bytesToJson(new BytesArray("\"kimchy\"")), "kimchy");
+        Assert.assertEquals(stringToJson.bytesToJson(new BytesArray("3")), 3d);
+        Assert.assertNull(stringToJson.bytesToJson(new BytesArray("null")));
+        Object array = stringToJson.bytesToJson(new BytesArray("[1,[2]]"));
+        Assert.assertEquals(stringify(array), "[1,[2]]");
+    }
+
+    @Test
+    public void testSmile() throws Exception {
+        BytesReference smile = XContentFactory.smileBuilder().startObject().field("name", "kimchy").field("count", 3)
+                .startArray("tags").value("a").value("b").endArray().endObject().bytes();
+        Object object = stringToJson.bytesToJson(smile);
+        Assert.assertEquals(stringify(object), "{\"name\":\"kimchy\",\"count\":3,\"tags\":[\"a\",\"b\"]}");
+    }
+
+    @Test
+    public void testBinaryValue() throws Exception {
+        BytesReference smile = XContentFactory.smileBuilder().startObject().field("data", new byte[]{1, 2, 3})
+                .endObject().bytes();
+        Scriptable object = (Scriptable) stringToJson.bytesToJson(smile);
+        Assert.assertEquals(ScriptableObject.getProperty(object, "data"), "AQID");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMalformed() {
+        stringToJson.bytesToJson(new BytesArray("{\"a\":"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEmpty() {
+        stringToJson.bytesToJson(new BytesArray("   "));
+    }
+
+    @Test
+    public void testArrayIndex() {
+        Assert.assertEquals(RhinoStringToJson.arrayIndex("0"), 0);
+        Assert.assertEquals(RhinoStringToJson.arrayIndex("123"), 123);
+        Assert.assertEquals(RhinoStringToJson.arrayIndex("012"), -1);
+        Assert.assertEquals(RhinoStringToJson.arrayIndex(""), -1);
+        Assert.assertEquals(RhinoStringToJson.arrayIndex("1a"), -1);
+        Assert.assertEquals(RhinoStringToJson.arrayIndex("1234567890"), -1);
+    }
+
+    private String stringify(Object value) {
+        return NativeJSON.stringify(context, scope, value, null, null).toString();
+    }
+}